@@ -29,10 +29,16 @@ public class BluetoothReceiver extends BroadcastReceiver {
     public void onReceive(Context context, Intent intent) {
         String action = intent.getAction();
         BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
+        DeviceRegistry deviceRegistry = DeviceRegistry.get(context);
         if (BluetoothDevice.ACTION_ACL_CONNECTED.equals(action)) {
-            HerculesApp.setConnectedDevice(context, device.getAddress());
+            deviceRegistry.setConnectedDevice(device.getAddress());
         } else if (BluetoothDevice.ACTION_ACL_DISCONNECTED.equals(action)) {
-            HerculesApp.setConnectedDevice(context, null);
+            deviceRegistry.setConnectedDevice(null);
+        } else {
+            return;
         }
+        // the process may only be running for this receiver, keep it alive until the change is stored
+        PendingResult pendingResult = goAsync();
+        deviceRegistry.whenWritten(pendingResult::finish);
     }
 }
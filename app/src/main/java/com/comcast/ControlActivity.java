@@ -31,7 +31,9 @@ import android.view.inputmethod.InputMethodManager;
 import com.comcast.BuildConfig;
 import com.comcast.R;
 import com.comcast.databinding.FragmentRemoteBinding;
+import com.comcast.util.LatencyOverlay;
 import com.comcast.util.SendKeyEventOnHoldController;
+import com.comcast.util.TouchpadOverlay;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -62,6 +64,16 @@ public class ControlActivity extends AppCompatActivity implements
      */
     private boolean softKeyboardVisible;
 
+    /**
+     * Input latency overlay, toggled by long pressing the version label.
+     */
+    private LatencyOverlay latencyOverlay;
+
+    /**
+     * Touchpad for the host's pointer, shown by the touchpad button.
+     */
+    private TouchpadOverlay touchpadOverlay;
+
     /**
      * This is method which helps in creating the UI for the activity
      *
@@ -125,6 +137,9 @@ public class ControlActivity extends AppCompatActivity implements
         }
 
         binding.textVersion.setText(BuildConfig.VERSION_NAME);
+        latencyOverlay = new LatencyOverlay(binding.textVersion,
+                ((HerculesApp) getApplicationContext()).getInputLatency());
+        touchpadOverlay = new TouchpadOverlay(binding.remoteButtonTouchpad);
     }
 
     /**
@@ -152,7 +167,7 @@ public class ControlActivity extends AppCompatActivity implements
     @Override
     public void sendKeyEventForView(View view) {
         HerculesApp app = (HerculesApp) getApplicationContext();
-        app.sendKeyForView(view);
+        app.repeatKeyForView(view);
     }
 
     /**
@@ -171,6 +186,14 @@ public class ControlActivity extends AppCompatActivity implements
             return false;
         }
 
+        if (keyEvent.getAction() == KeyEvent.ACTION_MULTIPLE
+                && keyEvent.getKeyCode() == KeyEvent.KEYCODE_UNKNOWN && keyEvent.getCharacters() != null) {
+            // committed text, e.g. a pasted password, typed as one stream
+            HerculesApp app = (HerculesApp) getApplicationContext();
+            app.sendText(keyEvent.getCharacters(), null);
+            return true;
+        }
+
         if (keyEvent.getAction() == KeyEvent.ACTION_UP) {
             HerculesApp app = (HerculesApp) getApplicationContext();
             int keyCode = keyEvent.getKeyCode();
@@ -206,6 +229,8 @@ public class ControlActivity extends AppCompatActivity implements
     @Override
     public void onPause() {
         hideSoftKeyboard();
+        latencyOverlay.dismiss();
+        touchpadOverlay.dismiss();
         super.onPause();
     }
 
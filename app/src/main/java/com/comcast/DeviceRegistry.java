@@ -0,0 +1,246 @@
+/*
+ * If not stated otherwise in this file or this component's Licenses.txt file the
+ * following copyright and licenses apply:
+ *
+ * Copyright 2016 RDK Management
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.comcast;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class keeps the remembered Bluetooth devices in memory and writes them behind to
+ * SharedPreferences.
+ *
+ * The receiver, the app and the service share the one instance of the process, so they all
+ * see the same state. Only the first access reads the preferences. Changes are collected for
+ * a second and stored with a single commit on a background thread; a change that is undone
+ * within that time, like a flapping ACL connection, is not written at all.
+ *
+ * @version 1.0.0
+ */
+public final class DeviceRegistry {
+
+    // the file and keys HerculesApp used to store the devices in
+    private static final String PREFERENCES_NAME = HerculesApp.class.getSimpleName();
+    private static final String PREF_CONNECTED_DEVICE = "PREF_CONNECTED_DEVICE";
+    private static final String PREF_LATEST_DEVICE_ADDRESS = "PREF_LATEST_DEVICE_ADDRESS";
+    private static final String PREF_LAST_HOST_ADDRESS = "PREF_LAST_HOST_ADDRESS";
+    private static final String PREF_LAST_HOST_SUBSCRIBED = "PREF_LAST_HOST_SUBSCRIBED";
+    private static final String PREF_LAST_HOST_PROTOCOL_MODE = "PREF_LAST_HOST_PROTOCOL_MODE";
+
+    // Time changes are collected before they are written
+    private static final long WRITE_DELAY_MS = 1000;
+
+    private static DeviceRegistry sInstance;
+
+    private final SharedPreferences mPreferences;
+    private final ScheduledExecutorService mWriter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "DeviceRegistry");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Runnable mWrite = this::write;
+
+    // Guarded by this
+    private String mConnectedDevice;
+    private String mLatestBondedDeviceAddress;
+    private String mLastHostAddress;
+    private boolean mLastHostSubscribed;
+    private int mLastHostProtocolMode;
+    private boolean mWriteScheduled;
+    // guarded by this, run once the scheduled write is done
+    private final List<Runnable> mWriteListeners = new ArrayList<>();
+
+    /**
+     * @param context Context
+     * @return DeviceRegistry the registry of the process
+     */
+    public static synchronized DeviceRegistry get(Context context) {
+        if (sInstance == null) {
+            sInstance = new DeviceRegistry(context.getApplicationContext()
+                    .getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE));
+        }
+        return sInstance;
+    }
+
+    private DeviceRegistry(SharedPreferences preferences) {
+        mPreferences = preferences;
+        mConnectedDevice = preferences.getString(PREF_CONNECTED_DEVICE, null);
+        mLatestBondedDeviceAddress = preferences.getString(PREF_LATEST_DEVICE_ADDRESS, null);
+        mLastHostAddress = preferences.getString(PREF_LAST_HOST_ADDRESS, null);
+        mLastHostSubscribed = preferences.getBoolean(PREF_LAST_HOST_SUBSCRIBED, false);
+        mLastHostProtocolMode = preferences.getInt(PREF_LAST_HOST_PROTOCOL_MODE, -1);
+    }
+
+    /**
+     * @return String address of the device with an ACL connection, null if there is none
+     */
+    public synchronized String getConnectedDevice() {
+        return mConnectedDevice;
+    }
+
+    /**
+     * @param address String address of the device with an ACL connection, null if there is none
+     */
+    public synchronized void setConnectedDevice(String address) {
+        if (!Objects.equals(mConnectedDevice, address)) {
+            mConnectedDevice = address;
+            scheduleWrite();
+        }
+    }
+
+    /**
+     * @return String address of the bonded device HIDService connected to last
+     */
+    public synchronized String getLatestBondedDeviceAddress() {
+        return mLatestBondedDeviceAddress;
+    }
+
+    /**
+     * @param address String address of the bonded device HIDService connected to last, may be null
+     */
+    public synchronized void setLatestBondedDeviceAddress(String address) {
+        if (!Objects.equals(mLatestBondedDeviceAddress, address)) {
+            mLatestBondedDeviceAddress = address;
+            scheduleWrite();
+        }
+    }
+
+    /**
+     * @return String address of the host that connected last, survives HIDService restarts
+     */
+    public synchronized String getLastHostAddress() {
+        return mLastHostAddress;
+    }
+
+    /**
+     * @return true if the last host had enabled input report notifications
+     */
+    public synchronized boolean isLastHostSubscribed() {
+        return mLastHostSubscribed;
+    }
+
+    /**
+     * @param defaultMode int protocol mode to return if none was stored
+     * @return int the protocol mode the last host had selected
+     */
+    public synchronized int getLastHostProtocolMode(int defaultMode) {
+        return mLastHostProtocolMode < 0 ? defaultMode : mLastHostProtocolMode;
+    }
+
+    /**
+     * Remembers the host that connected last together with its GATT client state
+     *
+     * @param address String address of the host
+     * @param subscribed boolean whether the host has enabled input report notifications
+     * @param protocolMode int the protocol mode the host has selected
+     */
+    public synchronized void setLastHost(String address, boolean subscribed, int protocolMode) {
+        if (!Objects.equals(mLastHostAddress, address) || mLastHostSubscribed != subscribed
+                || mLastHostProtocolMode != protocolMode) {
+            mLastHostAddress = address;
+            mLastHostSubscribed = subscribed;
+            mLastHostProtocolMode = protocolMode;
+            scheduleWrite();
+        }
+    }
+
+    /**
+     * Writes pending changes right away, e.g. before the process may go away
+     */
+    public void flush() {
+        mWriter.execute(mWrite);
+    }
+
+    /**
+     * Runs a task once the changes made so far are stored, without giving up the delay that
+     * collects them. A manifest receiver finishes its goAsync() result with it, so the process
+     * is kept alive until the write is done.
+     *
+     * @param onWritten Runnable run on the writer thread
+     */
+    public void whenWritten(Runnable onWritten) {
+        synchronized (this) {
+            if (mWriteScheduled) {
+                mWriteListeners.add(onWritten);
+                return;
+            }
+        }
+        mWriter.execute(onWritten);
+    }
+
+    private void scheduleWrite() {
+        if (!mWriteScheduled) {
+            mWriteScheduled = true;
+            mWriter.schedule(mWrite, WRITE_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void write() {
+        String connectedDevice;
+        String latestBondedDeviceAddress;
+        String lastHostAddress;
+        boolean lastHostSubscribed;
+        int lastHostProtocolMode;
+        Runnable[] writeListeners;
+        synchronized (this) {
+            mWriteScheduled = false;
+            writeListeners = mWriteListeners.toArray(new Runnable[0]);
+            mWriteListeners.clear();
+            connectedDevice = mConnectedDevice;
+            latestBondedDeviceAddress = mLatestBondedDeviceAddress;
+            lastHostAddress = mLastHostAddress;
+            lastHostSubscribed = mLastHostSubscribed;
+            lastHostProtocolMode = mLastHostProtocolMode;
+        }
+        try {
+            store(connectedDevice, latestBondedDeviceAddress, lastHostAddress, lastHostSubscribed, lastHostProtocolMode);
+        } finally {
+            for (Runnable writeListener : writeListeners) {
+                writeListener.run();
+            }
+        }
+    }
+
+    private void store(String connectedDevice, String latestBondedDeviceAddress, String lastHostAddress,
+                       boolean lastHostSubscribed, int lastHostProtocolMode) {
+        // compare with what has been stored, changes that cancelled out are not written
+        if (Objects.equals(connectedDevice, mPreferences.getString(PREF_CONNECTED_DEVICE, null))
+                && Objects.equals(latestBondedDeviceAddress, mPreferences.getString(PREF_LATEST_DEVICE_ADDRESS, null))
+                && Objects.equals(lastHostAddress, mPreferences.getString(PREF_LAST_HOST_ADDRESS, null))
+                && lastHostSubscribed == mPreferences.getBoolean(PREF_LAST_HOST_SUBSCRIBED, false)
+                && lastHostProtocolMode == mPreferences.getInt(PREF_LAST_HOST_PROTOCOL_MODE, -1)) {
+            return;
+        }
+        mPreferences.edit()
+                .putString(PREF_CONNECTED_DEVICE, connectedDevice)
+                .putString(PREF_LATEST_DEVICE_ADDRESS, latestBondedDeviceAddress)
+                .putString(PREF_LAST_HOST_ADDRESS, lastHostAddress)
+                .putBoolean(PREF_LAST_HOST_SUBSCRIBED, lastHostSubscribed)
+                .putInt(PREF_LAST_HOST_PROTOCOL_MODE, lastHostProtocolMode)
+                .commit();
+    }
+}
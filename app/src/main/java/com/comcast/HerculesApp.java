@@ -28,32 +28,74 @@ import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.ServiceConnection;
+import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
 import android.support.v7.app.AlertDialog;
+import android.util.Log;
 import android.view.View;
 
-import com.comcast.constant.KeyLayoutMap;
 import com.comcast.service.Device;
 import com.comcast.service.HIDService;
+import com.comcast.service.InputLatency;
+import com.comcast.service.TextInjector;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Set;
 
 public class HerculesApp extends Application {
 
-    private static final String PREF_CONNECTED_DEVICE = "PREF_CONNECTED_DEVICE";
-    private static final String PREF_LATEST_DEVICE_ADDRESS = "PREF_LATEST_DEVICE_ADDRESS";
+    private static final String TAG = HerculesApp.class.getSimpleName();
 
     /**
-     * HIDService
+     * HIDService, null while unbound. Key submission reads it once without locking,
+     * HIDService queues reports from any number of threads.
      */
-    private HIDService mService;
+    private volatile HIDService mService;
 
     /**
-     * Flag to store HIDService binding status
+     * Input latency histograms, shared with HIDService
      */
-    private boolean mBound = false;
+    private final InputLatency mInputLatency = new InputLatency();
 
+    /**
+     * Bluetooth state and preferences connectHIDService needs, resolved off the UI thread
+     */
+    private static final class StartupState {
+
+        final boolean adapterPresent;
+        final String connectedDevice;
+        final String latestBondedDeviceAddress;
+        final List<Device> bondedDevices;
+
+        StartupState(boolean adapterPresent, String connectedDevice, String latestBondedDeviceAddress,
+                     List<Device> bondedDevices) {
+            this.adapterPresent = adapterPresent;
+            this.connectedDevice = connectedDevice;
+            this.latestBondedDeviceAddress = latestBondedDeviceAddress;
+            this.bondedDevices = bondedDevices;
+        }
+    }
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    // The following are only accessed on the main thread
+    private StartupState mStartupState;
+    // the latest resolveStartupStateAsync call, older results are dropped
+    private int mStartupStateRequest;
+    // ControlActivity has been created and needs the service
+    private boolean mServiceWanted;
+    // ControlActivity while it is resumed, dialogs are only shown then
+    private Activity mResumedActivity;
+    // bindService has been called
+    private boolean mBinding;
+    private boolean mColdStartRecorded;
 
     /**
      * Called when the application is created
@@ -62,6 +104,9 @@ public class HerculesApp extends Application {
     public void onCreate() {
         super.onCreate();
 
+        // by the time ControlActivity asks for the service the startup state is usually known
+        resolveStartupStateAsync();
+
         // Add a new ComponentCallbacks to the base application of the Context,
         // which will be called at the same times as the ComponentCallbacks methods
         // of activities and other components are called.
@@ -76,7 +121,15 @@ public class HerculesApp extends Application {
              */
             @Override
             public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
-
+                if (activity instanceof ControlActivity) {
+                    if (!mBinding && mStartupState != null) {
+                        // left from an earlier launch, pairings or the connected host may have changed
+                        resolveStartupStateAsync();
+                    }
+                    // bind while the activity is still inflating, unless a device has to be picked
+                    mServiceWanted = true;
+                    connectHIDService(null);
+                }
             }
 
             /**
@@ -97,6 +150,8 @@ public class HerculesApp extends Application {
             @Override
             public void onActivityResumed(Activity activity) {
                 if (activity instanceof ControlActivity) {
+                    mServiceWanted = true;
+                    mResumedActivity = activity;
                     connectHIDService(activity);
                 }
             }
@@ -108,7 +163,9 @@ public class HerculesApp extends Application {
              */
             @Override
             public void onActivityPaused(Activity activity) {
-
+                if (activity == mResumedActivity) {
+                    mResumedActivity = null;
+                }
             }
 
             /**
@@ -149,23 +206,71 @@ public class HerculesApp extends Application {
         disconnectHIDService();
     }
 
-    private synchronized void connectHIDService(Activity activity) {
-        if (mBound) {
+    /**
+     * Resolves the startup state again, connectHIDService waits for the result. Bonded
+     * devices are an IPC and the preferences a disk read, neither belongs on the UI thread.
+     */
+    private void resolveStartupStateAsync() {
+        int request = ++mStartupStateRequest;
+        mStartupState = null;
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(() -> {
+            StartupState startupState = resolveStartupState();
+            mMainHandler.post(() -> onStartupStateResolved(request, startupState));
+        });
+    }
+
+    private StartupState resolveStartupState() {
+        BluetoothAdapter bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
+        List<Device> bondedDevices = new ArrayList<>();
+        if (bluetoothAdapter != null) {
+            Set<BluetoothDevice> pairedDevices = bluetoothAdapter.getBondedDevices();
+            if (pairedDevices != null) {
+                for (BluetoothDevice bluetoothDevice : pairedDevices) {
+                    bondedDevices.add(new Device(bluetoothDevice));
+                }
+            }
+        }
+        DeviceRegistry deviceRegistry = DeviceRegistry.get(this);
+        return new StartupState(bluetoothAdapter != null, deviceRegistry.getConnectedDevice(),
+                deviceRegistry.getLatestBondedDeviceAddress(), bondedDevices);
+    }
+
+    private void onStartupStateResolved(int request, StartupState startupState) {
+        if (request != mStartupStateRequest) {
             return;
         }
-        BluetoothAdapter bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
-        String connectedDevice = getConnectedDevice(this);
-        String latestBondedDeviceAddress = getLatestBondedDeviceAddress(this);
-        if (bluetoothAdapter == null ||
+        mStartupState = startupState;
+        if (mServiceWanted) {
+            connectHIDService(mResumedActivity);
+        }
+    }
+
+    /**
+     * Binds HIDService once the startup state is known
+     *
+     * @param activity Activity the resumed ControlActivity to show dialogs on, null if there is none
+     */
+    private void connectHIDService(Activity activity) {
+        StartupState startupState = mStartupState;
+        if (mBinding || startupState == null) {
+            // bound already, or onStartupStateResolved calls again
+            return;
+        }
+        String connectedDevice = startupState.connectedDevice;
+        String latestBondedDeviceAddress = startupState.latestBondedDeviceAddress;
+        if (!startupState.adapterPresent ||
                 (latestBondedDeviceAddress != null && latestBondedDeviceAddress.equalsIgnoreCase(connectedDevice))) {
-            startHidService(new Device(getLatestBondedDeviceAddress(this), false));
+            startHidService(new Device(latestBondedDeviceAddress, false));
             return;
         }
-        Set<BluetoothDevice> pairedDevices = bluetoothAdapter.getBondedDevices();
-        if (pairedDevices != null && pairedDevices.size() > 0) {
+        if (startupState.bondedDevices.size() > 0) {
+            if (activity == null) {
+                return;
+            }
             FragmentManager fragmentManager = activity.getFragmentManager();
             if (fragmentManager.findFragmentByTag(PairedDeviceListDialogFragment.TAG) == null) {
                 PairedDeviceListDialogFragment dialogFragment = new PairedDeviceListDialogFragment()
+                        .setDevices(startupState.bondedDevices)
                         .setOnDeviceSelectedListener(device -> {
                             if (connectedDevice != null) {
                                 displayStepsToConnectAlert(activity, device);
@@ -197,18 +302,32 @@ public class HerculesApp extends Application {
     }
 
     private void startHidService(Device device) {
+        // time-to-first-report runs from here to the first confirmed notification
+        mInputLatency.markStart(System.nanoTime());
         Intent intent = new Intent(this, HIDService.class);
         intent.putExtra(HIDService.EXTRA_DEVICE, device);
-        bindService(intent, mConnection, Context.BIND_AUTO_CREATE);
+        mBinding = bindService(intent, mConnection, Context.BIND_AUTO_CREATE);
     }
 
-    private synchronized void disconnectHIDService() {
-        if (mBound) {
+    private void disconnectHIDService() {
+        if (mBinding) {
+            mService = null;
             unbindService(mConnection);
-            mBound = false;
+            mBinding = false;
         }
     }
 
+    private void recordColdStart() {
+        if (mColdStartRecorded) {
+            return;
+        }
+        mColdStartRecorded = true;
+        long coldStartMs = SystemClock.elapsedRealtime() - Process.getStartElapsedRealtime();
+        long nowNanos = System.nanoTime();
+        mInputLatency.record(InputLatency.STAGE_COLD_START_TO_BOUND, nowNanos - coldStartMs * 1_000_000L, nowNanos);
+        Log.i(TAG, "HIDService bound " + coldStartMs + " ms after process start");
+    }
+
 
     /**
      * Defines callbacks for service binding, passed to bindService()
@@ -231,63 +350,123 @@ public class HerculesApp extends Application {
             // We've bound to LocalService, cast the IBinder and get LocalService instance
             HIDService.LocalBinder binder = (HIDService.LocalBinder) service;
             mService = binder.getService();
-            mBound = true;
+            recordColdStart();
         }
 
         @Override
         public void onServiceDisconnected(ComponentName arg0) {
-            mBound = false;
+            mService = null;
         }
     };
 
-    public synchronized void sendKey(int key, boolean z) {
-        if (mBound && mService != null) {
-            mService.sendKey(key, z);
+    public void sendKey(int key, boolean z) {
+        HIDService service = mService;
+        if (service != null) {
+            service.sendKey(key, z, 0, System.nanoTime());
         }
     }
 
-    public synchronized void sendKeyForView(View view) {
-        if (mBound && mService != null) {
-            Integer[] keyCode = KeyLayoutMap.getKeyCode(view.getId());
-            if (keyCode != null && keyCode.length > 0) {
-                for (int key : keyCode) {
-                    mService.sendKey(key, true);
-                }
-                for (int key : keyCode) {
-                    mService.sendKey(key, false);
-                }
-            }
+    /**
+     * Types a text into the host
+     *
+     * @param text CharSequence the text
+     * @param listener TextInjector.Listener receiving the progress, may be null
+     * @return List the injections, one per host, to cancel them; empty while the service is unbound
+     */
+    public List<TextInjector> sendText(CharSequence text, TextInjector.Listener listener) {
+        HIDService service = mService;
+        return service != null ? service.sendText(text, listener) : Collections.<TextInjector>emptyList();
+    }
+
+    public void sendKeyForView(View view) {
+        sendKeyForView(view, 0);
+    }
+
+    /**
+     * Sends the press and release reports of a remote button
+     *
+     * @param view View the button
+     * @param touchNanos long System.nanoTime() the finger left the button, 0 if unknown
+     */
+    public void sendKeyForView(View view, long touchNanos) {
+        long submitNanos = System.nanoTime();
+        mInputLatency.record(InputLatency.STAGE_TOUCH_TO_SUBMIT, touchNanos, submitNanos);
+        HIDService service = mService;
+        if (service != null) {
+            service.sendButton(view.getId(), touchNanos, submitNanos);
         }
     }
 
-    public synchronized void clearKeyQueue() {
-        if (mBound && mService != null) {
-            mService.clearQueue();
+    /**
+     * Sends one repeat of a held remote button
+     *
+     * @param view View the button
+     */
+    public void repeatKeyForView(View view) {
+        HIDService service = mService;
+        if (service != null) {
+            service.repeatButton(view.getId(), System.nanoTime());
         }
     }
 
-    public static String getConnectedDevice(Context context) {
-        return context.getSharedPreferences(HerculesApp.class.getSimpleName(), Context.MODE_PRIVATE)
-                .getString(PREF_CONNECTED_DEVICE, null);
+    /**
+     * Presses or releases the keys of a remote button and leaves the repeat to the host
+     *
+     * @param view View the button
+     * @param down boolean true for press, false for release
+     * @param touchNanos long System.nanoTime() the finger touched or left the button, 0 if unknown
+     */
+    public void holdKeyForView(View view, boolean down, long touchNanos) {
+        long submitNanos = System.nanoTime();
+        mInputLatency.record(InputLatency.STAGE_TOUCH_TO_SUBMIT, touchNanos, submitNanos);
+        HIDService service = mService;
+        if (service != null) {
+            service.holdButton(view.getId(), down, touchNanos, submitNanos);
+        }
     }
 
-    public static void setConnectedDevice(Context context, String address) {
-        context.getSharedPreferences(HerculesApp.class.getSimpleName(), Context.MODE_PRIVATE)
-                .edit()
-                .putString(PREF_CONNECTED_DEVICE, address)
-                .apply();
+    /**
+     * Moves the pointer of the host
+     *
+     * @param dx int horizontal delta in counts, positive to the right
+     * @param dy int vertical delta in counts, positive downwards
+     * @param wheel int wheel delta in detents, positive upwards
+     * @param touchNanos long System.nanoTime() of the motion, 0 if unknown
+     */
+    public void movePointer(int dx, int dy, int wheel, long touchNanos) {
+        HIDService service = mService;
+        if (service != null) {
+            service.movePointer(dx, dy, wheel, touchNanos);
+        }
     }
 
-    public static String getLatestBondedDeviceAddress(Context context) {
-        return context.getSharedPreferences(HerculesApp.class.getSimpleName(), Context.MODE_PRIVATE)
-                .getString(PREF_LATEST_DEVICE_ADDRESS, null);
+    /**
+     * Presses or releases the mouse buttons of the host
+     *
+     * @param buttons int the pressed buttons as MotionEvent.BUTTON_ bits
+     * @param touchNanos long System.nanoTime() the finger touched or left the surface, 0 if unknown
+     */
+    public void sendPointerButtons(int buttons, long touchNanos) {
+        long submitNanos = System.nanoTime();
+        mInputLatency.record(InputLatency.STAGE_TOUCH_TO_SUBMIT, touchNanos, submitNanos);
+        HIDService service = mService;
+        if (service != null) {
+            service.sendPointerButtons(buttons, touchNanos, submitNanos);
+        }
     }
 
-    public static void setLatestBondedDeviceAddress(Context context, String deviceAddress) {
-        context.getSharedPreferences(HerculesApp.class.getSimpleName(), Context.MODE_PRIVATE)
-                .edit()
-                .putString(PREF_LATEST_DEVICE_ADDRESS, deviceAddress)
-                .apply();
+    /**
+     * @return InputLatency the input latency histograms
+     */
+    public InputLatency getInputLatency() {
+        return mInputLatency;
+    }
+
+    public void clearKeyQueue() {
+        HIDService service = mService;
+        if (service != null) {
+            service.clearQueue();
+        }
     }
 
 }
@@ -40,6 +40,7 @@ public class PairedDeviceListDialogFragment extends DialogFragment {
 
     private ArrayAdapter<Device> adapter;
     private OnDeviceSelectedListener onDeviceSelectedListener;
+    private List<Device> devices;
 
     @Override
     public Dialog onCreateDialog(Bundle savedInstanceState) {
@@ -47,9 +48,14 @@ public class PairedDeviceListDialogFragment extends DialogFragment {
         builder.setTitle(getString(R.string.dialog_paired_device_list_message));
         builder.setNegativeButton(android.R.string.cancel, null);
         List<Device> bluetoothDevices = new ArrayList<>();
-        BluetoothAdapter bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
-        for (BluetoothDevice bt : bluetoothAdapter.getBondedDevices()) {
-            bluetoothDevices.add(new Device(bt));
+        if (devices != null) {
+            bluetoothDevices.addAll(devices);
+        } else {
+            // recreated by the framework, the devices have to be looked up again
+            BluetoothAdapter bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
+            for (BluetoothDevice bt : bluetoothAdapter.getBondedDevices()) {
+                bluetoothDevices.add(new Device(bt));
+            }
         }
         adapter = new ArrayAdapter<>(getContext(), android.R.layout.simple_list_item_1, bluetoothDevices);
         builder.setAdapter(adapter, this::onDeviceClick);
@@ -64,6 +70,15 @@ public class PairedDeviceListDialogFragment extends DialogFragment {
         onDeviceSelectedListener.onDeviceSelected(device);
     }
 
+    /**
+     * @param devices List the bonded devices to offer, looked up when the dialog is created if not set
+     * @return PairedDeviceListDialogFragment this fragment
+     */
+    public PairedDeviceListDialogFragment setDevices(List<Device> devices) {
+        this.devices = devices;
+        return this;
+    }
+
     public PairedDeviceListDialogFragment setOnDeviceSelectedListener(
             OnDeviceSelectedListener onDeviceSelectedListener) {
         this.onDeviceSelectedListener = onDeviceSelectedListener;
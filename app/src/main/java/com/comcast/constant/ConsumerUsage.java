@@ -0,0 +1,58 @@
+/*
+ * If not stated otherwise in this file or this component's Licenses.txt file the
+ * following copyright and licenses apply:
+ *
+ * Copyright 2016 RDK Management
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.constant;
+
+/**
+ * This class names the HID Consumer page (0x0C) usages sent by the remote,
+ * see HID Usage Tables chapter 15.
+ *
+ * @version 1.0.0
+ */
+public final class ConsumerUsage {
+
+    public static final int POWER = 0x30;
+    public static final int DATA_ON_SCREEN = 0x60;
+    public static final int MEDIA_SELECT_PROGRAM_GUIDE = 0x8D;
+    public static final int CHANNEL_INCREMENT = 0x9C;
+    public static final int CHANNEL_DECREMENT = 0x9D;
+
+    // Transport controls
+    public static final int PLAY = 0xB0;
+    public static final int PAUSE = 0xB1;
+    public static final int RECORD = 0xB2;
+    public static final int FAST_FORWARD = 0xB3;
+    public static final int REWIND = 0xB4;
+    public static final int SCAN_NEXT_TRACK = 0xB5;
+    public static final int SCAN_PREVIOUS_TRACK = 0xB6;
+    public static final int STOP = 0xB7;
+    public static final int EJECT = 0xB8;
+    public static final int PLAY_PAUSE = 0xCD;
+
+    // Audio
+    public static final int MUTE = 0xE2;
+    public static final int VOLUME_INCREMENT = 0xE9;
+    public static final int VOLUME_DECREMENT = 0xEA;
+
+    // Application control
+    public static final int AC_SEARCH = 0x221;
+
+    private ConsumerUsage() {
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * If not stated otherwise in this file or this component's Licenses.txt file the
+ * following copyright and licenses apply:
+ *
+ * Copyright 2016 RDK Management
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.constant;
+
+/**
+ * This class names the HID Keyboard/Keypad page (0x07) usages and modifier bits
+ * sent by the remote, see HID Usage Tables chapter 10.
+ *
+ * @version 1.0.0
+ */
+public final class HidUsage {
+
+    // Modifier byte bits
+    public static final int MODIFIER_LEFT_CTRL = 0x01;
+    public static final int MODIFIER_LEFT_SHIFT = 0x02;
+    public static final int MODIFIER_LEFT_ALT = 0x04;
+    public static final int MODIFIER_LEFT_GUI = 0x08;
+    public static final int MODIFIER_RIGHT_CTRL = 0x10;
+    public static final int MODIFIER_RIGHT_SHIFT = 0x20;
+    public static final int MODIFIER_RIGHT_ALT = 0x40;
+    public static final int MODIFIER_RIGHT_GUI = 0x80;
+
+    // Letters
+    public static final int KEY_A = 0x04;
+    public static final int KEY_B = 0x05;
+    public static final int KEY_C = 0x06;
+    public static final int KEY_D = 0x07;
+    public static final int KEY_E = 0x08;
+    public static final int KEY_F = 0x09;
+    public static final int KEY_G = 0x0A;
+    public static final int KEY_H = 0x0B;
+    public static final int KEY_I = 0x0C;
+    public static final int KEY_J = 0x0D;
+    public static final int KEY_K = 0x0E;
+    public static final int KEY_L = 0x0F;
+    public static final int KEY_M = 0x10;
+    public static final int KEY_N = 0x11;
+    public static final int KEY_O = 0x12;
+    public static final int KEY_P = 0x13;
+    public static final int KEY_Q = 0x14;
+    public static final int KEY_R = 0x15;
+    public static final int KEY_S = 0x16;
+    public static final int KEY_T = 0x17;
+    public static final int KEY_U = 0x18;
+    public static final int KEY_V = 0x19;
+    public static final int KEY_W = 0x1A;
+    public static final int KEY_X = 0x1B;
+    public static final int KEY_Y = 0x1C;
+    public static final int KEY_Z = 0x1D;
+
+    // Digits
+    public static final int KEY_1 = 0x1E;
+    public static final int KEY_2 = 0x1F;
+    public static final int KEY_3 = 0x20;
+    public static final int KEY_4 = 0x21;
+    public static final int KEY_5 = 0x22;
+    public static final int KEY_6 = 0x23;
+    public static final int KEY_7 = 0x24;
+    public static final int KEY_8 = 0x25;
+    public static final int KEY_9 = 0x26;
+    public static final int KEY_0 = 0x27;
+
+    // Control and punctuation
+    public static final int KEY_ENTER = 0x28;
+    public static final int KEY_ESCAPE = 0x29;
+    public static final int KEY_BACKSPACE = 0x2A;
+    public static final int KEY_TAB = 0x2B;
+    public static final int KEY_SPACE = 0x2C;
+    public static final int KEY_MINUS = 0x2D;
+    public static final int KEY_EQUALS = 0x2E;
+    public static final int KEY_LEFT_BRACKET = 0x2F;
+    public static final int KEY_RIGHT_BRACKET = 0x30;
+    public static final int KEY_BACKSLASH = 0x31;
+    public static final int KEY_SEMICOLON = 0x33;
+    public static final int KEY_APOSTROPHE = 0x34;
+    public static final int KEY_GRAVE = 0x35;
+    public static final int KEY_COMMA = 0x36;
+    public static final int KEY_PERIOD = 0x37;
+    public static final int KEY_SLASH = 0x38;
+    public static final int KEY_CAPS_LOCK = 0x39;
+
+    // Function keys
+    public static final int KEY_F1 = 0x3A;
+    public static final int KEY_F2 = 0x3B;
+    public static final int KEY_F3 = 0x3C;
+    public static final int KEY_F4 = 0x3D;
+    public static final int KEY_F5 = 0x3E;
+    public static final int KEY_F6 = 0x3F;
+    public static final int KEY_F7 = 0x40;
+    public static final int KEY_F8 = 0x41;
+    public static final int KEY_F9 = 0x42;
+    public static final int KEY_F10 = 0x43;
+    public static final int KEY_F11 = 0x44;
+    public static final int KEY_F12 = 0x45;
+
+    // Navigation
+    public static final int KEY_PRINT_SCREEN = 0x46;
+    public static final int KEY_SCROLL_LOCK = 0x47;
+    public static final int KEY_PAUSE = 0x48;
+    public static final int KEY_INSERT = 0x49;
+    public static final int KEY_HOME = 0x4A;
+    public static final int KEY_PAGE_UP = 0x4B;
+    public static final int KEY_DELETE = 0x4C;
+    public static final int KEY_END = 0x4D;
+    public static final int KEY_PAGE_DOWN = 0x4E;
+    public static final int KEY_RIGHT_ARROW = 0x4F;
+    public static final int KEY_LEFT_ARROW = 0x50;
+    public static final int KEY_DOWN_ARROW = 0x51;
+    public static final int KEY_UP_ARROW = 0x52;
+
+    // Keypad
+    public static final int KEYPAD_NUM_LOCK = 0x53;
+    public static final int KEYPAD_DIVIDE = 0x54;
+    public static final int KEYPAD_MULTIPLY = 0x55;
+    public static final int KEYPAD_SUBTRACT = 0x56;
+    public static final int KEYPAD_ADD = 0x57;
+    public static final int KEYPAD_ENTER = 0x58;
+    public static final int KEYPAD_1 = 0x59;
+    public static final int KEYPAD_2 = 0x5A;
+    public static final int KEYPAD_3 = 0x5B;
+    public static final int KEYPAD_4 = 0x5C;
+    public static final int KEYPAD_5 = 0x5D;
+    public static final int KEYPAD_6 = 0x5E;
+    public static final int KEYPAD_7 = 0x5F;
+    public static final int KEYPAD_8 = 0x60;
+    public static final int KEYPAD_9 = 0x61;
+    public static final int KEYPAD_0 = 0x62;
+    public static final int KEYPAD_DOT = 0x63;
+    public static final int KEY_APPLICATION = 0x65;
+    public static final int KEY_POWER = 0x66;
+    public static final int KEYPAD_EQUALS = 0x67;
+    public static final int KEY_STOP = 0x78;
+    public static final int KEY_MUTE = 0x7F;
+    public static final int KEY_VOLUME_UP = 0x80;
+    public static final int KEY_VOLUME_DOWN = 0x81;
+    public static final int KEYPAD_COMMA = 0x85;
+    public static final int KEYPAD_LEFT_PAREN = 0xB6;
+    public static final int KEYPAD_RIGHT_PAREN = 0xB7;
+
+    // Modifier usages
+    public static final int KEY_LEFT_CTRL = 0xE0;
+    public static final int KEY_LEFT_SHIFT = 0xE1;
+    public static final int KEY_LEFT_ALT = 0xE2;
+    public static final int KEY_LEFT_GUI = 0xE3;
+    public static final int KEY_RIGHT_CTRL = 0xE4;
+    public static final int KEY_RIGHT_SHIFT = 0xE5;
+    public static final int KEY_RIGHT_ALT = 0xE6;
+    public static final int KEY_RIGHT_GUI = 0xE7;
+
+    private HidUsage() {
+    }
+}
@@ -23,114 +23,145 @@ import android.view.KeyEvent;
 
 import com.comcast.R;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 /**
  * This class maps button resource id to the correlated key code
  *
+ * The mapping is a dense table indexed by resource id minus the smallest mapped id, so a
+ * lookup is a subtraction and an array load, without boxing or hashing.
+ *
  * @version 1.0.0
  */
 public class KeyLayoutMap {
 
-    private static final Map<Integer, Integer[]> sKeyLayoutMap = new HashMap<>();
-
-    // Mapping all KeyCode for the UI elements
-    static {
-        sKeyLayoutMap.put(R.id.remote_numpad_0, new Integer[] { KeyEvent.KEYCODE_0 });
-        sKeyLayoutMap.put(R.id.remote_numpad_1, new Integer[] { KeyEvent.KEYCODE_1 });
-        sKeyLayoutMap.put(R.id.remote_numpad_2, new Integer[] { KeyEvent.KEYCODE_2 });
-        sKeyLayoutMap.put(R.id.remote_numpad_3, new Integer[] { KeyEvent.KEYCODE_3 });
-        sKeyLayoutMap.put(R.id.remote_numpad_4, new Integer[] { KeyEvent.KEYCODE_4 });
-        sKeyLayoutMap.put(R.id.remote_numpad_5, new Integer[] { KeyEvent.KEYCODE_5 });
-        sKeyLayoutMap.put(R.id.remote_numpad_6, new Integer[] { KeyEvent.KEYCODE_6 });
-        sKeyLayoutMap.put(R.id.remote_numpad_7, new Integer[] { KeyEvent.KEYCODE_7 });
-        sKeyLayoutMap.put(R.id.remote_numpad_8, new Integer[] { KeyEvent.KEYCODE_8 });
-        sKeyLayoutMap.put(R.id.remote_numpad_9, new Integer[] { KeyEvent.KEYCODE_9 });
-
-        sKeyLayoutMap.put(R.id.remote_dpad_up, new Integer[] {
-                KeyEvent.KEYCODE_DPAD_UP,
-                KeyEvent.KEYCODE_SYSTEM_NAVIGATION_UP });
-        sKeyLayoutMap.put(R.id.remote_dpad_down, new Integer[] {
-                KeyEvent.KEYCODE_DPAD_DOWN,
-                KeyEvent.KEYCODE_SYSTEM_NAVIGATION_DOWN });
-        sKeyLayoutMap.put(R.id.remote_dpad_left, new Integer[] {
-                KeyEvent.KEYCODE_DPAD_LEFT,
-                KeyEvent.KEYCODE_SYSTEM_NAVIGATION_LEFT });
-        sKeyLayoutMap.put(R.id.remote_dpad_right, new Integer[] {
-                KeyEvent.KEYCODE_DPAD_RIGHT,
-                KeyEvent.KEYCODE_SYSTEM_NAVIGATION_RIGHT });
-        sKeyLayoutMap.put(R.id.remote_dpad_circle, new Integer[] {
-                KeyEvent.KEYCODE_DPAD_CENTER,
-                KeyEvent.KEYCODE_ENTER });
-
-        sKeyLayoutMap.put(R.id.remote_button_ch_down, new Integer[] {
-                KeyEvent.KEYCODE_CTRL_LEFT,
-                KeyEvent.KEYCODE_DPAD_DOWN });
-        sKeyLayoutMap.put(R.id.remote_button_ch_up, new Integer[] {
-                KeyEvent.KEYCODE_CTRL_LEFT,
-                KeyEvent.KEYCODE_DPAD_UP });
-
-        sKeyLayoutMap.put(R.id.remote_button_pg_down, new Integer[] { KeyEvent.KEYCODE_PAGE_DOWN });
-        sKeyLayoutMap.put(R.id.remote_button_pg_up, new Integer[] { KeyEvent.KEYCODE_PAGE_UP });
-        sKeyLayoutMap.put(R.id.remote_button_play, new Integer[] {
-                KeyEvent.KEYCODE_CTRL_LEFT,
-                KeyEvent.KEYCODE_P});
-        sKeyLayoutMap.put(R.id.remote_button_forward, new Integer[] {
-                KeyEvent.KEYCODE_CTRL_LEFT,
-                KeyEvent.KEYCODE_F });
-        sKeyLayoutMap.put(R.id.remote_button_previous, new Integer[] {
-                KeyEvent.KEYCODE_CTRL_LEFT,
-                KeyEvent.KEYCODE_W });
-
-        sKeyLayoutMap.put(R.id.remote_button_info, new Integer[] {
-                KeyEvent.KEYCODE_CTRL_LEFT,
-                KeyEvent.KEYCODE_I });
-        sKeyLayoutMap.put(R.id.remote_button_record, new Integer[] {
-                KeyEvent.KEYCODE_CTRL_LEFT,
-                KeyEvent.KEYCODE_R });
+    // Mapping all KeyCode for the UI elements: button resource id followed by its key codes
+    private static final int[][] SOURCE = {
+        { R.id.remote_numpad_0, KeyEvent.KEYCODE_0 },
+        { R.id.remote_numpad_1, KeyEvent.KEYCODE_1 },
+        { R.id.remote_numpad_2, KeyEvent.KEYCODE_2 },
+        { R.id.remote_numpad_3, KeyEvent.KEYCODE_3 },
+        { R.id.remote_numpad_4, KeyEvent.KEYCODE_4 },
+        { R.id.remote_numpad_5, KeyEvent.KEYCODE_5 },
+        { R.id.remote_numpad_6, KeyEvent.KEYCODE_6 },
+        { R.id.remote_numpad_7, KeyEvent.KEYCODE_7 },
+        { R.id.remote_numpad_8, KeyEvent.KEYCODE_8 },
+        { R.id.remote_numpad_9, KeyEvent.KEYCODE_9 },
+
+        { R.id.remote_dpad_up, KeyEvent.KEYCODE_DPAD_UP,
+                KeyEvent.KEYCODE_SYSTEM_NAVIGATION_UP },
+        { R.id.remote_dpad_down, KeyEvent.KEYCODE_DPAD_DOWN,
+                KeyEvent.KEYCODE_SYSTEM_NAVIGATION_DOWN },
+        { R.id.remote_dpad_left, KeyEvent.KEYCODE_DPAD_LEFT,
+                KeyEvent.KEYCODE_SYSTEM_NAVIGATION_LEFT },
+        { R.id.remote_dpad_right, KeyEvent.KEYCODE_DPAD_RIGHT,
+                KeyEvent.KEYCODE_SYSTEM_NAVIGATION_RIGHT },
+        { R.id.remote_dpad_circle, KeyEvent.KEYCODE_DPAD_CENTER,
+                KeyEvent.KEYCODE_ENTER },
+
+        { R.id.remote_button_ch_down, KeyEvent.KEYCODE_CTRL_LEFT,
+                KeyEvent.KEYCODE_DPAD_DOWN },
+        { R.id.remote_button_ch_up, KeyEvent.KEYCODE_CTRL_LEFT,
+                KeyEvent.KEYCODE_DPAD_UP },
+
+        { R.id.remote_button_pg_down, KeyEvent.KEYCODE_PAGE_DOWN },
+        { R.id.remote_button_pg_up, KeyEvent.KEYCODE_PAGE_UP },
+        // media buttons go out as a single Consumer Control usage
+        { R.id.remote_button_play, KeyEvent.KEYCODE_MEDIA_PLAY_PAUSE },
+        { R.id.remote_button_forward, KeyEvent.KEYCODE_MEDIA_FAST_FORWARD },
+        { R.id.remote_button_previous, KeyEvent.KEYCODE_MEDIA_REWIND },
+
+        { R.id.remote_button_info, KeyEvent.KEYCODE_CTRL_LEFT,
+                KeyEvent.KEYCODE_I },
+        { R.id.remote_button_record, KeyEvent.KEYCODE_MEDIA_RECORD },
 
 
         // STB (Xi 5) key mapping
         // Exit - Ctrl + E
-        sKeyLayoutMap.put(R.id.remote_button_exit, new Integer[] {
-                KeyEvent.KEYCODE_CTRL_LEFT, KeyEvent.KEYCODE_E });
+        { R.id.remote_button_exit, KeyEvent.KEYCODE_CTRL_LEFT, KeyEvent.KEYCODE_E },
 
         // Guide - Ctrl + G
-        sKeyLayoutMap.put(R.id.remote_button_guide, new Integer[] {
-                KeyEvent.KEYCODE_CTRL_LEFT, KeyEvent.KEYCODE_G });
+        { R.id.remote_button_guide, KeyEvent.KEYCODE_CTRL_LEFT, KeyEvent.KEYCODE_G },
 
         // Menu - Ctrl + M
-        sKeyLayoutMap.put(R.id.remote_button_xfinity, new Integer[] {
-                KeyEvent.KEYCODE_CTRL_LEFT, KeyEvent.KEYCODE_M });
+        { R.id.remote_button_xfinity, KeyEvent.KEYCODE_CTRL_LEFT, KeyEvent.KEYCODE_M },
 
         // A - Ctrl + 0
-        sKeyLayoutMap.put(R.id.remote_dpad_a, new Integer[] {
-                KeyEvent.KEYCODE_CTRL_LEFT, KeyEvent.KEYCODE_0 });
+        { R.id.remote_dpad_a, KeyEvent.KEYCODE_CTRL_LEFT, KeyEvent.KEYCODE_0 },
 
         // B - Ctrl + 1
-        sKeyLayoutMap.put(R.id.remote_dpad_b, new Integer[] {
-                KeyEvent.KEYCODE_CTRL_LEFT, KeyEvent.KEYCODE_1 });
+        { R.id.remote_dpad_b, KeyEvent.KEYCODE_CTRL_LEFT, KeyEvent.KEYCODE_1 },
 
         // C - Ctrl + 2
-        sKeyLayoutMap.put(R.id.remote_dpad_c, new Integer[] {
-                KeyEvent.KEYCODE_CTRL_LEFT, KeyEvent.KEYCODE_2 });
+        { R.id.remote_dpad_c, KeyEvent.KEYCODE_CTRL_LEFT, KeyEvent.KEYCODE_2 },
 
         // D - Ctrl + 3
-        sKeyLayoutMap.put(R.id.remote_dpad_d, new Integer[] {
-                KeyEvent.KEYCODE_CTRL_LEFT, KeyEvent.KEYCODE_3 });
+        { R.id.remote_dpad_d, KeyEvent.KEYCODE_CTRL_LEFT, KeyEvent.KEYCODE_3 },
 
         // Last - Ctrl + L
-        sKeyLayoutMap.put(R.id.remote_button_left_arrow, new Integer[] {
-                KeyEvent.KEYCODE_CTRL_LEFT, KeyEvent.KEYCODE_L });
+        { R.id.remote_button_left_arrow, KeyEvent.KEYCODE_CTRL_LEFT, KeyEvent.KEYCODE_L },
+    };
+
+    private static final int[] sLayoutIds = buildLayoutIds(SOURCE);
+    private static final int sMinLayoutId = min(sLayoutIds);
+    private static final int[][] sKeyCodes = buildTable(SOURCE, sMinLayoutId);
+
+    /**
+     * @param source int[][] the mapping, resource id first
+     * @return int[] the mapped resource ids
+     */
+    private static int[] buildLayoutIds(int[][] source) {
+        int[] layoutIds = new int[source.length];
+        for (int i = 0; i < source.length; i++) {
+            layoutIds[i] = source[i][0];
+        }
+        return layoutIds;
+    }
+
+    private static int min(int[] values) {
+        int min = Integer.MAX_VALUE;
+        for (int value : values) {
+            min = Math.min(min, value);
+        }
+        return min;
+    }
+
+    /**
+     * Builds the lookup table indexed by resource id minus the smallest mapped id
+     *
+     * @param source int[][] the mapping, resource id first
+     * @param minLayoutId int the smallest mapped resource id
+     * @return int[][] the key codes of every mapped button, null for ids in between
+     */
+    private static int[][] buildTable(int[][] source, int minLayoutId) {
+        int maxLayoutId = Integer.MIN_VALUE;
+        for (int[] entry : source) {
+            maxLayoutId = Math.max(maxLayoutId, entry[0]);
+        }
+        int[][] table = new int[maxLayoutId - minLayoutId + 1][];
+        for (int[] entry : source) {
+            table[entry[0] - minLayoutId] = Arrays.copyOfRange(entry, 1, entry.length);
+        }
+        return table;
     }
 
     /**
      * Returns an array of KeyCode correlated with the button layout id.
      * @param layoutId  The button resource id
-     * @return An Arrayof keycode
+     * @return An Arrayof keycode, null if the button is not mapped. The array must not be modified.
+     */
+    public static int[] getKeyCode(int layoutId) {
+        int index = layoutId - sMinLayoutId;
+        if (index < 0 || index >= sKeyCodes.length) {
+            return null;
+        }
+        return sKeyCodes[index];
+    }
+
+    /**
+     * @return An Array of all mapped button resource ids
      */
-    public static Integer[] getKeyCode(int layoutId) {
-        return sKeyLayoutMap.get(layoutId);
+    public static int[] getLayoutIds() {
+        return sLayoutIds.clone();
     }
 }
@@ -0,0 +1,123 @@
+/*
+ * If not stated otherwise in this file or this component's Licenses.txt file the
+ * following copyright and licenses apply:
+ *
+ * Copyright 2016 RDK Management
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.service;
+
+import com.comcast.constant.KeyLayoutMap;
+
+/**
+ * This class holds the press and release reports of every button in {@link KeyLayoutMap},
+ * compiled once for a report mode. Sending a button from the idle state is then a table
+ * lookup and a copy into the report queue, without translating key codes again.
+ *
+ * Reports are stored the way they are queued: Report ID first, then the report. Buttons
+ * mixing keyboard and consumer keys are not compiled.
+ *
+ * @version 1.0.0
+ */
+class ButtonReports {
+
+    private final int mMinLayoutId;
+    private final byte[][] mPressReports;
+    private final byte[][] mReleaseReports;
+
+    /**
+     * Constructor, compiles the reports
+     *
+     * @param reportMode int one of the KeyManager.REPORT_MODE_ constants
+     */
+    ButtonReports(int reportMode) {
+        int[] layoutIds = KeyLayoutMap.getLayoutIds();
+        int minLayoutId = Integer.MAX_VALUE;
+        int maxLayoutId = Integer.MIN_VALUE;
+        for (int layoutId : layoutIds) {
+            minLayoutId = Math.min(minLayoutId, layoutId);
+            maxLayoutId = Math.max(maxLayoutId, layoutId);
+        }
+        mMinLayoutId = minLayoutId;
+        int size = layoutIds.length == 0 ? 0 : maxLayoutId - minLayoutId + 1;
+        mPressReports = new byte[size][];
+        mReleaseReports = new byte[size][];
+
+        KeyManager keyManager = new KeyManager();
+        keyManager.setReportMode(reportMode);
+        byte[] keyboardRelease = withReportId(KeyManager.REPORT_ID, keyManager.build());
+        byte[] consumerRelease = consumerReport(0);
+        for (int layoutId : layoutIds) {
+            int[] keyCodes = KeyLayoutMap.getKeyCode(layoutId);
+            int consumerUsage = 0;
+            int consumerKeys = 0;
+            for (int keyCode : keyCodes) {
+                if (ConsumerControl.isConsumerKey(keyCode)) {
+                    consumerUsage = ConsumerControl.getConsumerUsage(keyCode);
+                    consumerKeys++;
+                }
+            }
+            int index = layoutId - minLayoutId;
+            if (consumerKeys == 0) {
+                keyManager.press(keyCodes);
+                mPressReports[index] = withReportId(KeyManager.REPORT_ID, keyManager.build());
+                mReleaseReports[index] = keyboardRelease;
+                keyManager.releaseAll();
+            } else if (consumerKeys == keyCodes.length) {
+                mPressReports[index] = consumerReport(consumerUsage);
+                mReleaseReports[index] = consumerRelease;
+            }
+        }
+    }
+
+    /**
+     * @param layoutId int the button resource id
+     * @return byte[] Report ID and report with all keys of the button pressed, null if the
+     * button is not compiled. The array must not be modified.
+     */
+    byte[] getPressReport(int layoutId) {
+        int index = layoutId - mMinLayoutId;
+        if (index < 0 || index >= mPressReports.length) {
+            return null;
+        }
+        return mPressReports[index];
+    }
+
+    /**
+     * @param layoutId int the button resource id
+     * @return byte[] Report ID and report with the keys of the button released, null if
+     * the button is not compiled. The array must not be modified.
+     */
+    byte[] getReleaseReport(int layoutId) {
+        int index = layoutId - mMinLayoutId;
+        if (index < 0 || index >= mReleaseReports.length) {
+            return null;
+        }
+        return mReleaseReports[index];
+    }
+
+    private static byte[] withReportId(int reportId, byte[] report) {
+        byte[] slot = new byte[report.length + 1];
+        slot[0] = (byte) reportId;
+        System.arraycopy(report, 0, slot, 1, report.length);
+        return slot;
+    }
+
+    private static byte[] consumerReport(int usage) {
+        byte[] report = new byte[ConsumerControl.REPORT_SIZE];
+        ConsumerControl.build(usage, report, 0);
+        return withReportId(ConsumerControl.REPORT_ID, report);
+    }
+}
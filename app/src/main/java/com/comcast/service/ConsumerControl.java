@@ -0,0 +1,172 @@
+/*
+ * If not stated otherwise in this file or this component's Licenses.txt file the
+ * following copyright and licenses apply:
+ *
+ * Copyright 2016 RDK Management
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.service;
+
+import android.view.KeyEvent;
+
+import com.comcast.constant.ConsumerUsage;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class manages the Consumer Control input report: media, volume and TV keys are
+ * sent as a single 16-bit Consumer page usage under their own Report ID instead of
+ * keyboard usages or modifier chords.
+ *
+ * @version 1.0.0
+ */
+class ConsumerControl {
+
+    /**
+     * Report ID of the Consumer Control input report
+     */
+    static final int REPORT_ID = 2;
+
+    /**
+     * Length of the Consumer Control input report: one 16-bit usage
+     */
+    static final int REPORT_SIZE = 2;
+
+    // Android key code to consumer page usage, the single source of the lookup table
+    private static final int[] USAGE_SOURCE = {
+            KeyEvent.KEYCODE_POWER, ConsumerUsage.POWER,
+            KeyEvent.KEYCODE_GUIDE, ConsumerUsage.MEDIA_SELECT_PROGRAM_GUIDE,
+            KeyEvent.KEYCODE_INFO, ConsumerUsage.DATA_ON_SCREEN,
+            KeyEvent.KEYCODE_CHANNEL_UP, ConsumerUsage.CHANNEL_INCREMENT,
+            KeyEvent.KEYCODE_CHANNEL_DOWN, ConsumerUsage.CHANNEL_DECREMENT,
+            KeyEvent.KEYCODE_MEDIA_PLAY, ConsumerUsage.PLAY,
+            KeyEvent.KEYCODE_MEDIA_PAUSE, ConsumerUsage.PAUSE,
+            KeyEvent.KEYCODE_MEDIA_RECORD, ConsumerUsage.RECORD,
+            KeyEvent.KEYCODE_MEDIA_FAST_FORWARD, ConsumerUsage.FAST_FORWARD,
+            KeyEvent.KEYCODE_MEDIA_REWIND, ConsumerUsage.REWIND,
+            KeyEvent.KEYCODE_MEDIA_NEXT, ConsumerUsage.SCAN_NEXT_TRACK,
+            KeyEvent.KEYCODE_MEDIA_PREVIOUS, ConsumerUsage.SCAN_PREVIOUS_TRACK,
+            KeyEvent.KEYCODE_MEDIA_STOP, ConsumerUsage.STOP,
+            KeyEvent.KEYCODE_MEDIA_EJECT, ConsumerUsage.EJECT,
+            KeyEvent.KEYCODE_MEDIA_PLAY_PAUSE, ConsumerUsage.PLAY_PAUSE,
+            KeyEvent.KEYCODE_VOLUME_MUTE, ConsumerUsage.MUTE,
+            KeyEvent.KEYCODE_VOLUME_UP, ConsumerUsage.VOLUME_INCREMENT,
+            KeyEvent.KEYCODE_VOLUME_DOWN, ConsumerUsage.VOLUME_DECREMENT,
+            KeyEvent.KEYCODE_SEARCH, ConsumerUsage.AC_SEARCH,
+    };
+
+    // Lookup table indexed by Android key code, built once
+    private static final char[] sUsageTable = buildTable(USAGE_SOURCE);
+
+    // The single usage the report holds, 0 when nothing is pressed
+    private final AtomicInteger mUsage = new AtomicInteger();
+
+    /**
+     * Press key
+     *
+     * @param androidKeyCode int, must be a consumer key
+     * @return true if the pressed usage changed
+     */
+    boolean press(int androidKeyCode) {
+        int usage = getConsumerUsage(androidKeyCode);
+        return mUsage.getAndSet(usage) != usage;
+    }
+
+    /**
+     * Release key, a no-op if another consumer key was pressed since
+     *
+     * @param androidKeyCode int, must be a consumer key
+     * @return true if the key was pressed and is now released
+     */
+    boolean release(int androidKeyCode) {
+        return mUsage.compareAndSet(getConsumerUsage(androidKeyCode), 0);
+    }
+
+    /**
+     * Release the pressed key
+     */
+    void releaseAll() {
+        mUsage.set(0);
+    }
+
+    /**
+     * @return true if no consumer key is pressed
+     */
+    boolean isIdle() {
+        return mUsage.get() == 0;
+    }
+
+    /**
+     * Build the Consumer Control report into a buffer
+     *
+     * @param dst byte[] destination
+     * @param offset int start of the report in dst
+     * @return int the report length
+     */
+    int build(byte[] dst, int offset) {
+        return build(mUsage.get(), dst, offset);
+    }
+
+    /**
+     * Build a Consumer Control report holding a usage
+     *
+     * @param usage int consumer page usage, 0 for none
+     * @param dst byte[] destination
+     * @param offset int start of the report in dst
+     * @return int the report length
+     */
+    static int build(int usage, byte[] dst, int offset) {
+        dst[offset] = (byte) usage;
+        dst[offset + 1] = (byte) (usage >>> 8);
+        return REPORT_SIZE;
+    }
+
+    /**
+     * Get the HID Consumer Code
+     *
+     * @param androidKeyCode int
+     * @return int the consumer page usage, 0 if the key is not a consumer key
+     */
+    static int getConsumerUsage(int androidKeyCode) {
+        return androidKeyCode >= 0 && androidKeyCode < sUsageTable.length
+                ? sUsageTable[androidKeyCode] : 0;
+    }
+
+    /**
+     * @param androidKeyCode int
+     * @return true if the key is sent in the Consumer Control report
+     */
+    static boolean isConsumerKey(int androidKeyCode) {
+        return getConsumerUsage(androidKeyCode) != 0;
+    }
+
+    /**
+     * Builds a lookup table indexed by Android key code
+     *
+     * @param source int[] pairs of Android key code and value
+     * @return char[] the table
+     */
+    private static char[] buildTable(int[] source) {
+        int size = 0;
+        for (int i = 0; i < source.length; i += 2) {
+            size = Math.max(size, source[i] + 1);
+        }
+        char[] table = new char[size];
+        for (int i = 0; i < source.length; i += 2) {
+            table[source[i]] = (char) source[i + 1];
+        }
+        return table;
+    }
+}
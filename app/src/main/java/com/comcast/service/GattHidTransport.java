@@ -0,0 +1,106 @@
+/*
+ * If not stated otherwise in this file or this component's Licenses.txt file the
+ * following copyright and licenses apply:
+ *
+ * Copyright 2016 RDK Management
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.service;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattServer;
+import android.util.Log;
+
+/**
+ * This class implements {@link HidTransport} on top of the GATT server:
+ * reports are sent as input report notifications to one host.
+ *
+ * @version 1.0.0
+ */
+class GattHidTransport implements HidTransport {
+
+    private static final String TAG = GattHidTransport.class.getSimpleName();
+
+    private final BluetoothDevice mHost;
+    private final TraceRing mTraceRing;
+
+    private volatile BluetoothGattServer mGattServer;
+    // input report characteristics indexed by Report ID
+    private volatile BluetoothGattCharacteristic[] mInputReportCharacteristics = new BluetoothGattCharacteristic[0];
+    private volatile Callback mCallback;
+
+    /**
+     * Constructor
+     *
+     * @param host BluetoothDevice the host that receives the reports
+     * @param traceRing TraceRing recording the sent reports
+     */
+    GattHidTransport(BluetoothDevice host, TraceRing traceRing) {
+        mHost = host;
+        mTraceRing = traceRing;
+    }
+
+    /**
+     * Attaches the transport to the GATT server and its input report characteristics
+     *
+     * @param gattServer BluetoothGattServer or null when the server is closed
+     * @param inputReportCharacteristics BluetoothGattCharacteristic[] the input reports indexed by Report ID
+     */
+    void attach(BluetoothGattServer gattServer, BluetoothGattCharacteristic[] inputReportCharacteristics) {
+        mGattServer = gattServer;
+        mInputReportCharacteristics = inputReportCharacteristics != null
+                ? inputReportCharacteristics.clone() : new BluetoothGattCharacteristic[0];
+    }
+
+    @Override
+    public void setCallback(Callback callback) {
+        mCallback = callback;
+    }
+
+    /**
+     * Forwards a confirmation, called on the I/O thread for BluetoothGattServerCallback.onNotificationSent
+     */
+    void onNotificationSent() {
+        Callback callback = mCallback;
+        if (callback != null) {
+            callback.onReportSent();
+        }
+    }
+
+    @Override
+    public int send(int reportId, byte[] report) {
+        BluetoothGattServer gattServer = mGattServer;
+        BluetoothGattCharacteristic[] characteristics = mInputReportCharacteristics;
+        BluetoothGattCharacteristic characteristic = reportId < characteristics.length ? characteristics[reportId] : null;
+        if (gattServer == null || characteristic == null) {
+            return 0;
+        }
+        int sent = 0;
+        // the characteristic is shared by all hosts, every host is served on the I/O thread
+        characteristic.setValue(report);
+        try {
+            if (gattServer.notifyCharacteristicChanged(mHost, characteristic, false)) {
+                sent = 1;
+            }
+        } catch (RuntimeException e) {
+            // e.g. the server has been closed under us, the sender makes up for the report
+            Log.w(TAG, "Notifying report " + reportId + " failed", e);
+        }
+        // the argument carries the outcome, 0 << 8 marks a report that didn't go out
+        mTraceRing.record(TraceRing.EVENT_REPORT, sent << 8 | reportId, report, 0, report.length);
+        return sent;
+    }
+}
@@ -0,0 +1,296 @@
+/*
+ * If not stated otherwise in this file or this component's Licenses.txt file the
+ * following copyright and licenses apply:
+ *
+ * Copyright 2016 RDK Management
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.comcast.service;
+
+import java.util.Locale;
+import java.util.UUID;
+
+/**
+ * This class registers GATT services with a server one at a time, the server only accepts
+ * one addService until onServiceAdded has been delivered.
+ *
+ * Every attempt waits for onServiceAdded up to a timeout. A rejected, failed or timed out
+ * attempt is retried after an exponentially growing delay, a service still failing after
+ * the last attempt is skipped. The time every service took, retries included, is kept to
+ * show where startup time goes.
+ *
+ * Not thread safe, all calls have to come from the thread the scheduler runs tasks on.
+ *
+ * @version 1.0.0
+ */
+class GattServiceRegistration {
+
+    /**
+     * The GATT server the services are added to, services are named by their UUID
+     */
+    interface Server {
+
+        /**
+         * @param uuid UUID of the service to add
+         * @return true if the server accepted the request, onServiceAdded follows
+         */
+        boolean addService(UUID uuid);
+
+        /**
+         * @param uuid UUID of a service
+         * @return true if the service is registered with the server
+         */
+        boolean hasService(UUID uuid);
+    }
+
+    /**
+     * Runs the retries and timeouts
+     */
+    interface Scheduler {
+
+        /**
+         * @param task Runnable the task to run
+         * @param delayMs long the delay in milliseconds
+         */
+        void postDelayed(Runnable task, long delayMs);
+
+        /**
+         * @param task Runnable a task that has been posted and may not run anymore
+         */
+        void removeCallbacks(Runnable task);
+    }
+
+    /**
+     * Receives the end of the registration
+     */
+    interface Listener {
+
+        /**
+         * Called once every service has been registered or skipped
+         *
+         * @param registration GattServiceRegistration the finished registration
+         */
+        void onFinished(GattServiceRegistration registration);
+    }
+
+    static final int STATE_IDLE = 0;
+    static final int STATE_ADDING = 1;
+    static final int STATE_BACKOFF = 2;
+    static final int STATE_FINISHED = 3;
+
+    private final Server mServer;
+    private final Scheduler mScheduler;
+    private final Listener mListener;
+    private final int mMaxAttempts;
+    private final long mBackoffMs;
+    private final long mMaxBackoffMs;
+    private final long mTimeoutMs;
+    private final Runnable mAttempt = this::attempt;
+    private final Runnable mTimeout = this::onTimeout;
+
+    private UUID[] mServices = new UUID[0];
+    private int[] mAttempts = new int[0];
+    private long[] mDurationNanos = new long[0];
+    private boolean[] mRegistered = new boolean[0];
+    private int mIndex;
+    private int mState = STATE_IDLE;
+    private long mStartNanos;
+    private long mServiceStartNanos;
+    private long mTotalNanos;
+
+    /**
+     * Constructor
+     *
+     * @param server Server the GATT server
+     * @param scheduler Scheduler running the retries and timeouts
+     * @param maxAttempts int attempts per service before it is skipped
+     * @param backoffMs long delay before the first retry, doubled for every further one
+     * @param maxBackoffMs long upper bound of the delay between two attempts
+     * @param timeoutMs long time to wait for onServiceAdded before an attempt counts as failed
+     * @param listener Listener receiving the end of the registration
+     */
+    GattServiceRegistration(Server server, Scheduler scheduler, int maxAttempts, long backoffMs,
+                            long maxBackoffMs, long timeoutMs, Listener listener) {
+        mServer = server;
+        mScheduler = scheduler;
+        mMaxAttempts = maxAttempts;
+        mBackoffMs = backoffMs;
+        mMaxBackoffMs = maxBackoffMs;
+        mTimeoutMs = timeoutMs;
+        mListener = listener;
+    }
+
+    /**
+     * Starts registering the services in the given order
+     *
+     * @param services UUID[] the services
+     */
+    void start(UUID... services) {
+        cancel();
+        mServices = services.clone();
+        mAttempts = new int[services.length];
+        mDurationNanos = new long[services.length];
+        mRegistered = new boolean[services.length];
+        mIndex = -1;
+        mStartNanos = System.nanoTime();
+        next(mStartNanos);
+    }
+
+    /**
+     * Passes on the result of an addService
+     *
+     * @param service UUID of the service onServiceAdded was called for
+     * @param success boolean true if the status was GATT_SUCCESS
+     */
+    void onServiceAdded(UUID service, boolean success) {
+        if (mState != STATE_ADDING || !service.equals(mServices[mIndex])) {
+            // late result of an attempt that has timed out already
+            return;
+        }
+        mScheduler.removeCallbacks(mTimeout);
+        if (success) {
+            long now = System.nanoTime();
+            mRegistered[mIndex] = true;
+            mDurationNanos[mIndex] = now - mServiceStartNanos;
+            next(now);
+        } else {
+            retry();
+        }
+    }
+
+    /**
+     * Stops the registration, e.g. because the server has been closed
+     */
+    void cancel() {
+        mScheduler.removeCallbacks(mAttempt);
+        mScheduler.removeCallbacks(mTimeout);
+        mState = STATE_IDLE;
+    }
+
+    /**
+     * @return true while services are being registered
+     */
+    boolean isRunning() {
+        return mState == STATE_ADDING || mState == STATE_BACKOFF;
+    }
+
+    /**
+     * @return int one of the STATE_ constants
+     */
+    int getState() {
+        return mState;
+    }
+
+    /**
+     * @param index int index of the service as passed to {@link #start(UUID...)}
+     * @return boolean true if the service has been registered
+     */
+    boolean isRegistered(int index) {
+        return mRegistered[index];
+    }
+
+    /**
+     * @param index int index of the service as passed to {@link #start(UUID...)}
+     * @return int the number of addService attempts made for the service
+     */
+    int getAttempts(int index) {
+        return mAttempts[index];
+    }
+
+    /**
+     * @param index int index of the service as passed to {@link #start(UUID...)}
+     * @return long nanoseconds from the first attempt to the service being registered or skipped
+     */
+    long getDurationNanos(int index) {
+        return mDurationNanos[index];
+    }
+
+    /**
+     * @return long nanoseconds from {@link #start(UUID...)} to the end, 0 while running
+     */
+    long getTotalNanos() {
+        return mTotalNanos;
+    }
+
+    /**
+     * @return String one line per service with its time and attempts, then the total
+     */
+    String format() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < mServices.length; i++) {
+            builder.append(String.format(Locale.US, "service %s %8.2f ms %d attempt(s)%s%n",
+                    mServices[i], mDurationNanos[i] / 1e6, mAttempts[i],
+                    mRegistered[i] ? "" : " failed"));
+        }
+        return builder.append(String.format(Locale.US, "services total %8.2f ms", mTotalNanos / 1e6))
+                .toString();
+    }
+
+    private void next(long now) {
+        mIndex++;
+        if (mIndex == mServices.length) {
+            mState = STATE_FINISHED;
+            mTotalNanos = now - mStartNanos;
+            mListener.onFinished(this);
+            return;
+        }
+        mServiceStartNanos = now;
+        attempt();
+    }
+
+    private void attempt() {
+        UUID service = mServices[mIndex];
+        if (mAttempts[mIndex] > 0 && mServer.hasService(service)) {
+            // the result of a timed out attempt never arrived, but the service made it
+            mState = STATE_ADDING;
+            onServiceAdded(service, true);
+            return;
+        }
+        mState = STATE_ADDING;
+        mAttempts[mIndex]++;
+        // the timeout is armed first, the server may report the result before addService returns
+        mScheduler.postDelayed(mTimeout, mTimeoutMs);
+        boolean accepted;
+        try {
+            accepted = mServer.addService(service);
+        } catch (RuntimeException e) {
+            accepted = false;
+        }
+        if (!accepted && mState == STATE_ADDING && mServices[mIndex] == service) {
+            mScheduler.removeCallbacks(mTimeout);
+            retry();
+        }
+    }
+
+    private void onTimeout() {
+        if (mState == STATE_ADDING) {
+            retry();
+        }
+    }
+
+    private void retry() {
+        int attempts = mAttempts[mIndex];
+        if (attempts >= mMaxAttempts) {
+            long now = System.nanoTime();
+            mDurationNanos[mIndex] = now - mServiceStartNanos;
+            next(now);
+            return;
+        }
+        mState = STATE_BACKOFF;
+        long delayMs = Math.min(mMaxBackoffMs, mBackoffMs << Math.min(attempts - 1, 30));
+        mScheduler.postDelayed(mAttempt, delayMs);
+    }
+}
@@ -26,6 +26,7 @@ package com.comcast.service;
 import android.app.Service;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
 import android.bluetooth.BluetoothGattCharacteristic;
 import android.bluetooth.BluetoothGattDescriptor;
 import android.bluetooth.BluetoothGattServer;
@@ -44,24 +45,30 @@ import android.content.IntentFilter;
 import android.os.Binder;
 import android.os.Build;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
 import android.os.ParcelUuid;
+import android.os.Process;
 import android.support.annotation.Nullable;
 import android.util.Log;
 
 import com.comcast.BuildConfig;
+import com.comcast.DeviceRegistry;
 import com.comcast.HerculesApp;
+import com.comcast.constant.KeyLayoutMap;
 
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.PrintWriter;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Queue;
 import java.util.Set;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentLinkedQueue;
 
 import static android.bluetooth.BluetoothDevice.BOND_BONDED;
 import static android.bluetooth.BluetoothGattCharacteristic.PERMISSION_READ_ENCRYPTED;
@@ -82,6 +89,8 @@ public class HIDService extends Service {
 
     public static final String TAG = HIDService.class.getSimpleName();
     public static final String EXTRA_DEVICE = "EXTRA_DEVICE";
+    public static final String EXTRA_NKRO_REPORT = "EXTRA_NKRO_REPORT";
+    public static final String EXTRA_BROADCAST = "EXTRA_BROADCAST";
 
     // GATT Service UUIDs
     // 1. Human Interface Device
@@ -121,13 +130,41 @@ public class HIDService extends Service {
 
     private static final int PROTOCOL_MODE_REPORT = 1;
 
+    // Time after which a notification that was never confirmed by onNotificationSent is written off
+    private static final long NOTIFICATION_CONFIRM_TIMEOUT_MS = 250;
 
+    // Number of preallocated report slots
+    private static final int REPORT_QUEUE_CAPACITY = 256;
+
+    // Reports typed text may queue ahead of the link, keeps buttons responsive while typing
+    private static final int TEXT_REPORTS_AHEAD = 8;
+
+    // Flight recorder file in the app's files directory and the number of events it keeps
+    private static final String TRACE_FILE = "hid-trace.bin";
+    private static final int TRACE_CAPACITY = 2048;
+
+    // addService attempts per GATT service, the delay before the first retry, doubled for every
+    // further one up to the maximum, and how long to wait for onServiceAdded
+    private static final int SERVICE_ADD_ATTEMPTS = 5;
+    private static final long SERVICE_ADD_BACKOFF_MS = 50;
+    private static final long SERVICE_ADD_MAX_BACKOFF_MS = 800;
+    private static final long SERVICE_ADD_TIMEOUT_MS = 2000;
+
+
+    // Keyboard (Report ID 1) followed by Consumer Control (Report ID 2) for media and volume keys
+    // and a relative mouse (Report ID 3). The keyboard has the boot LED output report the output
+    // characteristic announces; LED writes are stored but not acted on.
+    // With more than one collection every report carries an ID, the ID itself is not part of the
+    // notification value but is announced by the Report Reference descriptor.
     private static final byte[] keyboardReportMap =
-            HIDService.hexStringToByteArray("05010906A101050719E029E71500250175019508810295017508810195057508150025650507190029688100C0");
+            HIDService.hexStringToByteArray("05010906A1018501050719E029E7150025017501950881029501750881019506750815002697000507190029978100050819012905950575019102950175039101C0"
+                    + "050C0901A1018502150026FF0319002AFF03751095018100C0"
+                    + "05010902A10185030901A1000509190129031500250195037501810295017505810305010930093109381581257F750895038106C0C0");
 
 //            0x05, 0x01,        // Usage Page (Generic Desktop Ctrls)
 //            0x09, 0x06,        // Usage (Keyboard)
 //            0xA1, 0x01,        // Collection (Application)
+//            0x85, 0x01,        //   Report ID (1)
 //            0x05, 0x07,        //   Usage Page (Kbrd/Keypad)
 //            0x19, 0xE0,        //   Usage Minimum (0xE0)
 //            0x29, 0xE7,        //   Usage Maximum (0xE7)
@@ -139,15 +176,99 @@ public class HIDService extends Service {
 //            0x95, 0x01,        //   Report Count (1)
 //            0x75, 0x08,        //   Report Size (8)
 //            0x81, 0x01,        //   Input (Const)
-//            0x95, 0x05,        //   Report Count (5)
+//            0x95, 0x06,        //   Report Count (6)
 //            0x75, 0x08,        //   Report Size (8)
 //            0x15, 0x00,        //   Logical Minimum (0)
-//            0x25, 0x65,        //   Logical Maximum (101)
+//            0x26, 0x97, 0x00,  //   Logical Maximum (151), KeyManager.NKRO_MAX_USAGE
 //            0x05, 0x07,        //   Usage Page (Kbrd/Keypad)
 //            0x19, 0x00,        //   Usage Minimum (0x00)
-//            0x29, 0x68,        //   Usage Maximum (0x68)
+//            0x29, 0x97,        //   Usage Maximum (0x97)
 //            0x81, 0x00,        //   Input (Data,Array)
+//            0x05, 0x08,        //   Usage Page (LEDs)
+//            0x19, 0x01,        //   Usage Minimum (Num Lock)
+//            0x29, 0x05,        //   Usage Maximum (Kana)
+//            0x95, 0x05,        //   Report Count (5)
+//            0x75, 0x01,        //   Report Size (1)
+//            0x91, 0x02,        //   Output (Data,Var,Abs)
+//            0x95, 0x01,        //   Report Count (1)
+//            0x75, 0x03,        //   Report Size (3)
+//            0x91, 0x01,        //   Output (Const)
+//            0xC0,              // End Collection
+//            0x05, 0x0C,        // Usage Page (Consumer)
+//            0x09, 0x01,        // Usage (Consumer Control)
+//            0xA1, 0x01,        // Collection (Application)
+//            0x85, 0x02,        //   Report ID (2)
+//            0x15, 0x00,        //   Logical Minimum (0)
+//            0x26, 0xFF, 0x03,  //   Logical Maximum (1023)
+//            0x19, 0x00,        //   Usage Minimum (Unassigned)
+//            0x2A, 0xFF, 0x03,  //   Usage Maximum (0x03FF)
+//            0x75, 0x10,        //   Report Size (16)
+//            0x95, 0x01,        //   Report Count (1)
+//            0x81, 0x00,        //   Input (Data,Array,Abs)
+//            0xC0,              // End Collection
+//            0x05, 0x01,        // Usage Page (Generic Desktop Ctrls)
+//            0x09, 0x02,        // Usage (Mouse)
+//            0xA1, 0x01,        // Collection (Application)
+//            0x85, 0x03,        //   Report ID (3)
+//            0x09, 0x01,        //   Usage (Pointer)
+//            0xA1, 0x00,        //   Collection (Physical)
+//            0x05, 0x09,        //     Usage Page (Button)
+//            0x19, 0x01,        //     Usage Minimum (0x01)
+//            0x29, 0x03,        //     Usage Maximum (0x03)
+//            0x15, 0x00,        //     Logical Minimum (0)
+//            0x25, 0x01,        //     Logical Maximum (1)
+//            0x95, 0x03,        //     Report Count (3)
+//            0x75, 0x01,        //     Report Size (1)
+//            0x81, 0x02,        //     Input (Data,Var,Abs)
+//            0x95, 0x01,        //     Report Count (1)
+//            0x75, 0x05,        //     Report Size (5)
+//            0x81, 0x03,        //     Input (Const,Var,Abs)
+//            0x05, 0x01,        //     Usage Page (Generic Desktop Ctrls)
+//            0x09, 0x30,        //     Usage (X)
+//            0x09, 0x31,        //     Usage (Y)
+//            0x09, 0x38,        //     Usage (Wheel)
+//            0x15, 0x81,        //     Logical Minimum (-127)
+//            0x25, 0x7F,        //     Logical Maximum (127)
+//            0x75, 0x08,        //     Report Size (8)
+//            0x95, 0x03,        //     Report Count (3)
+//            0x81, 0x06,        //     Input (Data,Var,Rel)
+//            0xC0,              //   End Collection
+//            0xC0,              // End Collection
+
+    // N-key rollover keyboard, one bit per key usage. Modifier byte + 19 bytes bitmap = 20 bytes,
+    // which still fits in a single notification at the default ATT MTU.
+    private static final byte[] keyboardNkroReportMap =
+            HIDService.hexStringToByteArray("05010906A1018501050719E029E7150025017501950881021900299795988102050819012905950575019102950175039101C0"
+                    + "050C0901A1018502150026FF0319002AFF03751095018100C0"
+                    + "05010902A10185030901A1000509190129031500250195037501810295017505810305010930093109381581257F750895038106C0C0");
+
+//            0x05, 0x01,        // Usage Page (Generic Desktop Ctrls)
+//            0x09, 0x06,        // Usage (Keyboard)
+//            0xA1, 0x01,        // Collection (Application)
+//            0x85, 0x01,        //   Report ID (1)
+//            0x05, 0x07,        //   Usage Page (Kbrd/Keypad)
+//            0x19, 0xE0,        //   Usage Minimum (0xE0)
+//            0x29, 0xE7,        //   Usage Maximum (0xE7)
+//            0x15, 0x00,        //   Logical Minimum (0)
+//            0x25, 0x01,        //   Logical Maximum (1)
+//            0x75, 0x01,        //   Report Size (1)
+//            0x95, 0x08,        //   Report Count (8)
+//            0x81, 0x02,        //   Input (Data,Var,Abs)
+//            0x19, 0x00,        //   Usage Minimum (0x00)
+//            0x29, 0x97,        //   Usage Maximum (0x97)
+//            0x95, 0x98,        //   Report Count (152)
+//            0x81, 0x02,        //   Input (Data,Var,Abs)
+//            0x05, 0x08,        //   Usage Page (LEDs)
+//            0x19, 0x01,        //   Usage Minimum (Num Lock)
+//            0x29, 0x05,        //   Usage Maximum (Kana)
+//            0x95, 0x05,        //   Report Count (5)
+//            0x75, 0x01,        //   Report Size (1)
+//            0x91, 0x02,        //   Output (Data,Var,Abs)
+//            0x95, 0x01,        //   Report Count (1)
+//            0x75, 0x03,        //   Report Size (3)
+//            0x91, 0x01,        //   Output (Const)
 //            0xC0,              // End Collection
+//            (Consumer Control and mouse collections as above)
 
     // USB spec keyboard including output for leds:
     //  HIDService.hexStringToByteArray("05010906a101050719e029e71500250175019508810295017508810395057501050819012905910295017503910395067508150025650507190029658100c0");
@@ -159,18 +280,43 @@ public class HIDService extends Service {
     private BluetoothLeAdvertiser mAdvertiser;
     private BluetoothGattServer mGattServer;
     private BluetoothGattCharacteristic mInputReportCharacteristic;
+    private BluetoothGattCharacteristic mConsumerReportCharacteristic;
+    private BluetoothGattCharacteristic mPointerReportCharacteristic;
     @Nullable
     private Device mDevice;
 
     private AdvertiseCallback mAdvertiseCallback;
+    // All GATT server I/O (notifications, responses, connects, advertising) runs on this thread
+    private HandlerThread mIoThread;
     private Handler mHandler;
     private boolean wasDisable = false;
-
-    private final Queue<byte[]> mDataQueue = new ConcurrentLinkedQueue<>();
+    private boolean mAdapterStateRegistered;
+
+    // Recent HID events, dump with: adb shell dumpsys activity service com.comcast/.service.HIDService
+    private TraceRing mTraceRing;
+    private InputLatency mInputLatency;
+    // Connected hosts, each with its own key state, report queue and pacing
+    private final ReportRouter mReportRouter = new ReportRouter();
+    // Input reports of the GATT server indexed by Report ID, only accessed on the I/O thread
+    private BluetoothGattCharacteristic[] mInputReports;
+    // Only accessed on the I/O thread
     private Map<String, Device> mPairedDevices = new HashMap<>();
-    private KeyManager mKeyManager = new KeyManager();
-
-    private final Queue<BluetoothGattService> mGattServiceQueue = new ConcurrentLinkedQueue<>();
+    // Report format to use for the next host connection
+    private volatile boolean mNkroReport = BuildConfig.NKRO_REPORT;
+    // Send input to all connected hosts instead of the selected device only
+    private volatile boolean mBroadcast;
+    // Remembered devices, shared with the app and the receiver
+    private DeviceRegistry mDeviceRegistry;
+    // Host that connected last and its GATT client state, only accessed on the I/O thread
+    private String mLastHost;
+    private boolean mLastHostSubscribed;
+    // Input reports each host has enabled notifications for, one bit per Report ID, only
+    // accessed on the I/O thread. Bonded hosts keep their CCCDs across connections.
+    private final Map<String, Integer> mSubscriptions = new HashMap<>();
+    private int mProtocolMode = PROTOCOL_MODE_REPORT;
+
+    // Registers the services of the GATT server, only accessed on the I/O thread
+    private GattServiceRegistration mServiceRegistration;
 
     // Binder given to clients
     private final IBinder mBinder = new LocalBinder();
@@ -191,28 +337,66 @@ public class HIDService extends Service {
 
     @Override
     public IBinder onBind(Intent intent) {
-        if (intent.hasExtra(EXTRA_DEVICE)) {
-            mDevice = (Device) intent.getSerializableExtra(EXTRA_DEVICE);
-        }
+        applyExtras(intent);
         return mBinder;
     }
 
     @Override
     public void onRebind(Intent intent) {
         super.onRebind(intent);
-        if (intent.hasExtra(EXTRA_DEVICE)) {
-            mDevice = (Device) intent.getSerializableExtra(EXTRA_DEVICE);
+        applyExtras(intent);
+    }
+
+    private void applyExtras(Intent intent) {
+        mNkroReport = intent.getBooleanExtra(EXTRA_NKRO_REPORT, mNkroReport);
+        if (intent.hasExtra(EXTRA_DEVICE) || intent.hasExtra(EXTRA_BROADCAST)) {
+            if (intent.hasExtra(EXTRA_DEVICE)) {
+                mDevice = (Device) intent.getSerializableExtra(EXTRA_DEVICE);
+            }
+            setBroadcast(intent.getBooleanExtra(EXTRA_BROADCAST, mBroadcast));
         }
     }
 
+    /**
+     * Selects where input goes: to every connected host, or to the selected device only
+     *
+     * @param broadcast boolean true to send input to all connected hosts
+     */
+    public void setBroadcast(boolean broadcast) {
+        mBroadcast = broadcast;
+        Device device = mDevice;
+        mReportRouter.setTarget(broadcast || device == null ? null : device.address);
+        mHandler.post(() -> detach(mReportRouter.retain(this::shouldConnect)));
+    }
+
+    /**
+     * @return true if input goes to all connected hosts
+     */
+    public boolean isBroadcast() {
+        return mBroadcast;
+    }
+
     @Override
     public void onCreate() {
         super.onCreate();
 
+        mIoThread = new HandlerThread(TAG + "-io", Process.THREAD_PRIORITY_URGENT_DISPLAY);
+        mIoThread.start();
+        mHandler = new Handler(mIoThread.getLooper());
+        mManager = (BluetoothManager) getSystemService(Context.BLUETOOTH_SERVICE);
+        try {
+            mTraceRing = TraceRing.map(new File(getFilesDir(), TRACE_FILE), TRACE_CAPACITY);
+        } catch (IOException e) {
+            Log.w(TAG, "Flight recorder unavailable, tracing in memory", e);
+            mTraceRing = new TraceRing(TRACE_CAPACITY);
+        }
+        mDeviceRegistry = DeviceRegistry.get(this);
+        mInputLatency = getApplication() instanceof HerculesApp
+                ? ((HerculesApp) getApplication()).getInputLatency() : null;
+
         registerReceiver(this.mBLDeviceBondStateReceiver,
                 new IntentFilter(BluetoothDevice.ACTION_BOND_STATE_CHANGED));
 
-        mManager = (BluetoothManager) getSystemService(Context.BLUETOOTH_SERVICE);
         if (mManager == null) {
             return;
         }
@@ -221,40 +405,52 @@ public class HIDService extends Service {
         if (mAdapter == null) {
             return;
         }
+        // watched while the service runs, Bluetooth turned back on picks the server up again
+        mAdapterStateRegistered = true;
+        registerReceiver(this.mBLAdapterStateReceiver,
+                new IntentFilter(BluetoothAdapter.ACTION_STATE_CHANGED));
         if (!mAdapter.isEnabled()) {
             wasDisable = true;
-            registerReceiver(this.mBLAdapterStateReceiver,
-                    new IntentFilter(BluetoothAdapter.ACTION_STATE_CHANGED));
             mAdapter.enable();
         }
         else {
-            initGattServer();
+            mHandler.post(this::initGattServer);
         }
 
     }
 
     @Override
     public void onDestroy() {
-        HerculesApp.setLatestBondedDeviceAddress(this, null);
-        stopAdvertising();
-        if (wasDisable) {
+        mDeviceRegistry.setLatestBondedDeviceAddress(null);
+        mDeviceRegistry.flush();
+        if (mAdapterStateRegistered) {
             unregisterReceiver(this.mBLAdapterStateReceiver);
         }
 
-        if (mGattServer != null) {
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) { // do not cleanup service prior to Oreo
-                mGattServer.clearServices();
-                mGattServer.close();
-            } else {
-                mGattServer.close();
+        mHandler.post(() -> {
+            stopAdvertising();
+            if (mServiceRegistration != null) {
+                mServiceRegistration.cancel();
             }
-        }
+            if (mGattServer != null) {
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) { // do not cleanup service prior to Oreo
+                    mGattServer.clearServices();
+                    mGattServer.close();
+                } else {
+                    mGattServer.close();
+                }
+                mGattServer = null;
+            }
+            detach(mReportRouter.clear());
+        });
+        // runs the pending I/O, including the close above, before the thread ends
+        mIoThread.quitSafely();
         unregisterReceiver(this.mBLDeviceBondStateReceiver);
         super.onDestroy();
     }
 
     public void clearQueue() {
-        mDataQueue.clear();
+        mReportRouter.clearQueues();
     }
 
     private final BroadcastReceiver mBLAdapterStateReceiver = new BroadcastReceiver() {
@@ -263,9 +459,11 @@ public class HIDService extends Service {
             if (BluetoothAdapter.ACTION_STATE_CHANGED.equals(intent.getAction())) {
                 switch (intent.getIntExtra(BluetoothAdapter.EXTRA_STATE, Integer.MIN_VALUE)) {
                     case BluetoothAdapter.STATE_ON:
-                        unregisterReceiver(mBLAdapterStateReceiver);
                         wasDisable = false;
-                        initGattServer();
+                        mHandler.post(HIDService.this::initGattServer);
+                        return;
+                    case BluetoothAdapter.STATE_OFF:
+                        mHandler.post(HIDService.this::onAdapterOff);
                         return;
                     default:
                 }
@@ -284,10 +482,13 @@ public class HIDService extends Service {
                             Log.d(TAG, "Connecting in response to device Bonded broadcast");
                             if (mGattServer != null && shouldConnect(bluetoothDevice)) {
                                 mGattServer.connect(bluetoothDevice, true);
-                                HerculesApp.setLatestBondedDeviceAddress(getApplicationContext(), bluetoothDevice.getAddress());
+                                mDeviceRegistry.setLatestBondedDeviceAddress(bluetoothDevice.getAddress());
+                            }
+                            storeDevice(bluetoothDevice, shouldConnect(bluetoothDevice));
+                            if (mManager.getConnectionState(bluetoothDevice, BluetoothProfile.GATT) == BluetoothProfile.STATE_CONNECTED) {
+                                registerHost(bluetoothDevice);
                             }
                         });
-                        storeDevice(bluetoothDevice, shouldConnect(bluetoothDevice));
                         return;
                     default:
                 }
@@ -296,10 +497,15 @@ public class HIDService extends Service {
     };
 
     private boolean shouldConnect(BluetoothDevice bluetoothDevice) {
-        if (mDevice == null) {
+        return shouldConnect(bluetoothDevice.getAddress());
+    }
+
+    private boolean shouldConnect(String address) {
+        Device device = mDevice;
+        if (mBroadcast || device == null) {
             return true;
         }
-        return mDevice.address.equalsIgnoreCase(bluetoothDevice.getAddress());
+        return device.address.equalsIgnoreCase(address);
     }
 
     private void initGattServer() {
@@ -307,110 +513,380 @@ public class HIDService extends Service {
         Log.d(TAG, "Starting gatt..");
         mAdvertiser = this.mAdapter.getBluetoothLeAdvertiser();
 
+        if (mGattServer != null) {
+            if (mGattServer.getService(SERVICE_HID_OVER_GATT_UUID) != null
+                    && mServiceRegistration != null
+                    && mServiceRegistration.getState() == GattServiceRegistration.STATE_FINISHED) {
+                // Bluetooth came back with the server and its services still registered
+                Log.d(TAG, "Reusing the GATT server");
+                reconnectLastHost();
+                initServiceAdvertiser();
+                return;
+            }
+            // the services did not survive or their registration was cut short, start over
+            closeGattServer();
+        }
         mGattServer = mManager.openGattServer(this, mGattServerCallback);
         if (mGattServer == null) {
             return;
         }
-        if (mGattServer.getServices().size() == 0) {
-            this.mGattServiceQueue.offer(hidService(true, true, false));
-            this.mGattServiceQueue.offer(batteryService());
-            this.mGattServiceQueue.offer(deviceInfoService());
-            addGattService(mGattServer, this.mGattServiceQueue.poll());
+        BluetoothGattService[] services = {hidService(true, true, false), batteryService(), deviceInfoService()};
+        mInputReports = new BluetoothGattCharacteristic[PointerMotion.REPORT_ID + 1];
+        mInputReports[KeyManager.REPORT_ID] = mInputReportCharacteristic;
+        mInputReports[ConsumerControl.REPORT_ID] = mConsumerReportCharacteristic;
+        mInputReports[PointerMotion.REPORT_ID] = mPointerReportCharacteristic;
+
+        // the host connects while the services are registered instead of after the advertiser started
+        reconnectLastHost();
+        registerGattServices(mGattServer, services);
+    }
+
+    /**
+     * Registers the services one after the other, advertising starts once all are done
+     *
+     * @param bluetoothGattServer BluetoothGattServer the server
+     * @param services BluetoothGattService[] the services, the HID service first
+     */
+    private void registerGattServices(BluetoothGattServer bluetoothGattServer, BluetoothGattService[] services) {
+        Map<UUID, BluetoothGattService> servicesByUuid = new HashMap<>();
+        UUID[] uuids = new UUID[services.length];
+        for (int i = 0; i < services.length; i++) {
+            uuids[i] = services[i].getUuid();
+            servicesByUuid.put(uuids[i], services[i]);
         }
-        else {
-            initServiceAdvertiser();
+        GattServiceRegistration.Server server = new GattServiceRegistration.Server() {
+            @Override
+            public boolean addService(UUID uuid) {
+                return bluetoothGattServer.addService(servicesByUuid.get(uuid));
+            }
+
+            @Override
+            public boolean hasService(UUID uuid) {
+                return bluetoothGattServer.getService(uuid) != null;
+            }
+        };
+        GattServiceRegistration.Scheduler scheduler = new GattServiceRegistration.Scheduler() {
+            @Override
+            public void postDelayed(Runnable task, long delayMs) {
+                mHandler.postDelayed(task, delayMs);
+            }
+
+            @Override
+            public void removeCallbacks(Runnable task) {
+                mHandler.removeCallbacks(task);
+            }
+        };
+        mServiceRegistration = new GattServiceRegistration(server, scheduler, SERVICE_ADD_ATTEMPTS,
+                SERVICE_ADD_BACKOFF_MS, SERVICE_ADD_MAX_BACKOFF_MS, SERVICE_ADD_TIMEOUT_MS, registration -> {
+            Log.i(TAG, "GATT services registered\n" + registration.format());
+            if (mGattServer == bluetoothGattServer) {
+                initServiceAdvertiser();
+            }
+        });
+        mServiceRegistration.start(uuids);
+    }
+
+    /**
+     * Restores the state of the host that connected last and sends it a direct connect, which
+     * is established much faster than the background connect that follows a disconnect
+     */
+    private void reconnectLastHost() {
+        mLastHost = mDeviceRegistry.getLastHostAddress();
+        mLastHostSubscribed = mDeviceRegistry.isLastHostSubscribed();
+        mProtocolMode = mDeviceRegistry.getLastHostProtocolMode(PROTOCOL_MODE_REPORT);
+        if (mLastHost == null || !BluetoothAdapter.checkBluetoothAddress(mLastHost) || !shouldConnect(mLastHost)) {
+            return;
+        }
+        BluetoothDevice bluetoothDevice = mAdapter.getRemoteDevice(mLastHost);
+        if (bluetoothDevice.getBondState() != BOND_BONDED
+                || mManager.getConnectionState(bluetoothDevice, BluetoothProfile.GATT) == BluetoothProfile.STATE_CONNECTED) {
+            return;
         }
-        initHandler();
+        Log.d(TAG, "Reconnecting to " + mLastHost);
+        // a failed direct connect reports a disconnect, which falls back to the background connect
+        mGattServer.connect(bluetoothDevice, false);
     }
 
-    private void closeGattServer() {
-        stopAdvertising();
-        if (mGattServer != null) {
-            mGattServer.close();
-            mGattServer = null;
+    /**
+     * Stores the GATT client state of a host, so it can be restored after a restart
+     *
+     * @param address String address of the host
+     * @param subscribed boolean whether the host has enabled input report notifications
+     */
+    private void rememberHost(String address, boolean subscribed) {
+        if (!address.equals(mLastHost)) {
+            // every new connection starts in report protocol mode
+            mLastHost = address;
+            mProtocolMode = PROTOCOL_MODE_REPORT;
         }
+        mLastHostSubscribed = subscribed;
+        mDeviceRegistry.setLastHost(address, subscribed, mProtocolMode);
     }
 
-    private void addGattService(BluetoothGattServer bluetoothGattServer, BluetoothGattService bluetoothGattService) {
-        int i = 0;
-        while (i < 5) {
-            try {
-                if (!bluetoothGattServer.addService(bluetoothGattService)) {
-                    i++;
-                } else {
-                    return;
+    /**
+     * @param address String address of a host
+     * @return true unless the host is known to have disabled input report notifications
+     */
+    private boolean isSubscribed(String address) {
+        return !address.equals(mLastHost) || mLastHostSubscribed;
+    }
+
+    /**
+     * @param address String address of a host
+     * @return int the input reports the host has enabled notifications for, one bit per Report ID
+     */
+    private int getSubscriptions(String address) {
+        Integer subscriptions = mSubscriptions.get(address);
+        if (subscriptions != null) {
+            return subscriptions;
+        }
+        // the state restored after a restart only says whether any report was enabled
+        int all = 0;
+        if (isSubscribed(address) && mInputReports != null) {
+            for (int reportId = 0; reportId < mInputReports.length; reportId++) {
+                if (mInputReports[reportId] != null) {
+                    all |= 1 << reportId;
                 }
-            } catch (Exception e) {
-                e.printStackTrace();
             }
         }
+        return all;
+    }
+
+    /**
+     * @param characteristic BluetoothGattCharacteristic a characteristic of the HID service
+     * @return int the Report ID of the input report, 0 if it is none
+     */
+    private int inputReportId(BluetoothGattCharacteristic characteristic) {
+        for (int reportId = 1; mInputReports != null && reportId < mInputReports.length; reportId++) {
+            if (mInputReports[reportId] == characteristic) {
+                return reportId;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * The hosts and the advertising are gone with the adapter, the server is kept for
+     * initGattServer to reuse if its services are still registered once Bluetooth is back
+     */
+    private void onAdapterOff() {
+        // the stack stopped advertising, stopAdvertising would throw with the adapter off
+        mAdvertiseCallback = null;
+        detach(mReportRouter.clear());
+        if (mServiceRegistration != null) {
+            mServiceRegistration.cancel();
+        }
+    }
+
+    private void closeGattServer() {
+        stopAdvertising();
+        detach(mReportRouter.clear());
+        if (mServiceRegistration != null) {
+            mServiceRegistration.cancel();
+        }
+        if (mGattServer != null) {
+            mGattServer.close();
+            mGattServer = null;
+        }
     }
 
     // https://www.bluetooth.com/specifications/gatt/viewer?attributeXmlFile=org.bluetooth.service.human_interface_device.xml&u=org.bluetooth.service.human_interface_device.xml
     // at least one of report types has to be supported, we only need input report
     private BluetoothGattService hidService(boolean inputReport, boolean outputReport, boolean featureReport) {
         BluetoothGattService bluetoothGattService = new BluetoothGattService(SERVICE_HID_OVER_GATT_UUID, BluetoothGattService.SERVICE_TYPE_PRIMARY);
-        do {
-        } while (!bluetoothGattService.addCharacteristic(new BluetoothGattCharacteristic(HID_INFO_UUID, PROPERTY_READ, PERMISSION_READ_ENCRYPTED)));
+        addCharacteristic(bluetoothGattService, new BluetoothGattCharacteristic(HID_INFO_UUID, PROPERTY_READ, PERMISSION_READ_ENCRYPTED));
 
-        do {
-        } while (!bluetoothGattService.addCharacteristic(new BluetoothGattCharacteristic(REPORT_MAP_UUID, PROPERTY_READ, PERMISSION_READ_ENCRYPTED)));
+        addCharacteristic(bluetoothGattService, new BluetoothGattCharacteristic(REPORT_MAP_UUID, PROPERTY_READ, PERMISSION_READ_ENCRYPTED));
 
         BluetoothGattCharacteristic bluetoothGattCharacteristic = new BluetoothGattCharacteristic(PROTOCOL_MODE_UUID, PROPERTY_READ | PROPERTY_WRITE_NO_RESPONSE, PERMISSION_WRITE_ENCRYPTED | PERMISSION_READ_ENCRYPTED);
         bluetoothGattCharacteristic.setWriteType(WRITE_TYPE_NO_RESPONSE);
-        do {
-        } while (!bluetoothGattService.addCharacteristic(bluetoothGattCharacteristic));
+        addCharacteristic(bluetoothGattService, bluetoothGattCharacteristic);
 
         bluetoothGattCharacteristic = new BluetoothGattCharacteristic(HID_CONTROL_POINT_UUID, PROPERTY_WRITE_NO_RESPONSE, PERMISSION_WRITE_ENCRYPTED);
         bluetoothGattCharacteristic.setWriteType(WRITE_TYPE_NO_RESPONSE);
-        do {
-        } while (!bluetoothGattService.addCharacteristic(bluetoothGattCharacteristic));
+        addCharacteristic(bluetoothGattService, bluetoothGattCharacteristic);
 
         if (inputReport) {
-            bluetoothGattCharacteristic = new BluetoothGattCharacteristic(REPORT_UUID, PROPERTY_READ | PROPERTY_WRITE | PROPERTY_NOTIFY, PERMISSION_WRITE_ENCRYPTED | PERMISSION_READ_ENCRYPTED);
-            BluetoothGattDescriptor bluetoothGattDescriptor = new BluetoothGattDescriptor(DESCRIPTOR_CHARACTERISTIC_CONFIG_UUID, BluetoothGattDescriptor.PERMISSION_READ_ENCRYPTED | BluetoothGattDescriptor.PERMISSION_WRITE_ENCRYPTED);
-            bluetoothGattDescriptor.setValue(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
-            bluetoothGattCharacteristic.addDescriptor(bluetoothGattDescriptor);
-            bluetoothGattCharacteristic.addDescriptor(new BluetoothGattDescriptor(DESCRIPTOR_REPORT_REFERENCE_UUID, PERMISSION_WRITE_ENCRYPTED | PERMISSION_READ_ENCRYPTED));
-            do {
-            } while (!bluetoothGattService.addCharacteristic(bluetoothGattCharacteristic));
-            this.mInputReportCharacteristic = bluetoothGattCharacteristic;
+            this.mInputReportCharacteristic = inputReportCharacteristic();
+            addCharacteristic(bluetoothGattService, mInputReportCharacteristic);
+            // Consumer Control report, see keyboardReportMap
+            this.mConsumerReportCharacteristic = inputReportCharacteristic();
+            addCharacteristic(bluetoothGattService, mConsumerReportCharacteristic);
+            // mouse report
+            this.mPointerReportCharacteristic = inputReportCharacteristic();
+            addCharacteristic(bluetoothGattService, mPointerReportCharacteristic);
         }
         if (outputReport) {
             bluetoothGattCharacteristic = new BluetoothGattCharacteristic(REPORT_UUID, PROPERTY_READ | PROPERTY_WRITE_NO_RESPONSE | PROPERTY_WRITE, PERMISSION_WRITE_ENCRYPTED | PERMISSION_READ_ENCRYPTED);
             bluetoothGattCharacteristic.setWriteType(WRITE_TYPE_NO_RESPONSE);
             bluetoothGattCharacteristic.addDescriptor(new BluetoothGattDescriptor(DESCRIPTOR_REPORT_REFERENCE_UUID, PERMISSION_WRITE_ENCRYPTED | PERMISSION_READ_ENCRYPTED));
-            do {
-            } while (!bluetoothGattService.addCharacteristic(bluetoothGattCharacteristic));
+            addCharacteristic(bluetoothGattService, bluetoothGattCharacteristic);
         }
         if (featureReport) {
             bluetoothGattCharacteristic = new BluetoothGattCharacteristic(REPORT_UUID, PROPERTY_READ | PROPERTY_WRITE, PERMISSION_WRITE_ENCRYPTED | PERMISSION_READ_ENCRYPTED);
             bluetoothGattCharacteristic.addDescriptor(new BluetoothGattDescriptor(DESCRIPTOR_REPORT_REFERENCE_UUID, PERMISSION_WRITE_ENCRYPTED | PERMISSION_READ_ENCRYPTED));
-            do {
-            } while (!bluetoothGattService.addCharacteristic(bluetoothGattCharacteristic));
+            addCharacteristic(bluetoothGattService, bluetoothGattCharacteristic);
         }
 
         return bluetoothGattService;
     }
 
+    private static BluetoothGattCharacteristic inputReportCharacteristic() {
+        BluetoothGattCharacteristic bluetoothGattCharacteristic = new BluetoothGattCharacteristic(REPORT_UUID, PROPERTY_READ | PROPERTY_WRITE | PROPERTY_NOTIFY, PERMISSION_WRITE_ENCRYPTED | PERMISSION_READ_ENCRYPTED);
+        BluetoothGattDescriptor bluetoothGattDescriptor = new BluetoothGattDescriptor(DESCRIPTOR_CHARACTERISTIC_CONFIG_UUID, BluetoothGattDescriptor.PERMISSION_READ_ENCRYPTED | BluetoothGattDescriptor.PERMISSION_WRITE_ENCRYPTED);
+        bluetoothGattDescriptor.setValue(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
+        bluetoothGattCharacteristic.addDescriptor(bluetoothGattDescriptor);
+        bluetoothGattCharacteristic.addDescriptor(new BluetoothGattDescriptor(DESCRIPTOR_REPORT_REFERENCE_UUID, PERMISSION_WRITE_ENCRYPTED | PERMISSION_READ_ENCRYPTED));
+        return bluetoothGattCharacteristic;
+    }
+
+    private static void addCharacteristic(BluetoothGattService bluetoothGattService, BluetoothGattCharacteristic bluetoothGattCharacteristic) {
+        // only adds to a local list, trying again would fail the same way
+        if (!bluetoothGattService.addCharacteristic(bluetoothGattCharacteristic)) {
+            Log.e(TAG, "Could not add characteristic " + bluetoothGattCharacteristic.getUuid());
+        }
+    }
+
     public void sendKey(int i, boolean z) {
-        if (z) {
-            this.mKeyManager.key(i);
-        } else {
-            this.mKeyManager.key(Integer.valueOf(i));
+        sendKey(i, z, 0, 0);
+    }
+
+    /**
+     * Sends a key press or release
+     *
+     * @param i int Android key code
+     * @param z boolean true for press, false for release
+     * @param touchNanos long System.nanoTime() the finger left the button, 0 if unknown
+     * @param submitNanos long System.nanoTime() the input was handed to the app, 0 if unknown
+     */
+    public void sendKey(int i, boolean z, long touchNanos, long submitNanos) {
+        if (BuildConfig.DEBUG) {
+            Log.d(TAG, "Sending key: " + i + (z ? " down" : " up"));
+        }
+        if (!mReportRouter.sendKey(i, z, touchNanos, submitNanos)) {
+            Log.w(TAG, "Report queue full, dropping key report");
+        }
+    }
+
+    /**
+     * Sends a set of keys as one chord: one report with all keys pressed, then one with all
+     * keys released
+     *
+     * @param keyCodes int[] Android key codes
+     * @param touchNanos long System.nanoTime() the finger left the button, 0 if unknown
+     * @param submitNanos long System.nanoTime() the input was handed to the app, 0 if unknown
+     */
+    public void sendChord(int[] keyCodes, long touchNanos, long submitNanos) {
+        if (BuildConfig.DEBUG) {
+            Log.d(TAG, "Sending chord: " + Arrays.toString(keyCodes));
+        }
+        if (!mReportRouter.sendChord(keyCodes, touchNanos, submitNanos)) {
+            Log.w(TAG, "Report queue full, dropping chord reports");
+        }
+    }
+
+    /**
+     * Sends the keys of a remote button as one chord
+     *
+     * @param layoutId int the button resource id
+     * @param touchNanos long System.nanoTime() the finger left the button, 0 if unknown
+     * @param submitNanos long System.nanoTime() the input was handed to the app, 0 if unknown
+     */
+    public void sendButton(int layoutId, long touchNanos, long submitNanos) {
+        if (BuildConfig.DEBUG) {
+            Log.d(TAG, "Sending button: " + layoutId);
+        }
+        if (!mReportRouter.sendButton(layoutId, false, touchNanos, submitNanos)) {
+            Log.w(TAG, "Report queue full, dropping button reports");
+        }
+    }
+
+    /**
+     * Sends one repeat of a held remote button, repeats are the first input dropped when the
+     * report queue backs up
+     *
+     * @param layoutId int the button resource id
+     * @param submitNanos long System.nanoTime() the repeat was handed to the app, 0 if unknown
+     */
+    public void repeatButton(int layoutId, long submitNanos) {
+        if (BuildConfig.DEBUG) {
+            Log.d(TAG, "Repeating button: " + layoutId);
+        }
+        if (!mReportRouter.sendButton(layoutId, true, 0, submitNanos)) {
+            Log.w(TAG, "Report queue backed up, dropping button repeat");
+        }
+    }
+
+    /**
+     * Presses or releases the keys of a remote button, the host repeats them while held
+     *
+     * @param layoutId int the button resource id
+     * @param down boolean true for press, false for release
+     * @param touchNanos long System.nanoTime() the finger touched or left the button, 0 if unknown
+     * @param submitNanos long System.nanoTime() the input was handed to the app, 0 if unknown
+     */
+    public void holdButton(int layoutId, boolean down, long touchNanos, long submitNanos) {
+        int[] keyCodes = KeyLayoutMap.getKeyCode(layoutId);
+        if (keyCodes == null) {
+            return;
+        }
+        if (BuildConfig.DEBUG) {
+            Log.d(TAG, "Holding button: " + layoutId + (down ? " down" : " up"));
+        }
+        if (!mReportRouter.sendKeys(keyCodes, down, touchNanos, submitNanos)) {
+            Log.w(TAG, "Report queue full, dropping button report");
+        }
+    }
+
+    /**
+     * Types a text into the target hosts, see {@link TextInjector}. Every host types its
+     * injections one after the other on a background thread of its own.
+     *
+     * @param text CharSequence the text
+     * @param listener TextInjector.Listener receiving the progress on the typing threads, may be null
+     * @return List the injections, one per target host, to cancel them
+     */
+    public List<TextInjector> sendText(CharSequence text, TextInjector.Listener listener) {
+        if (BuildConfig.DEBUG) {
+            Log.d(TAG, "Sending text of " + text.length() + " characters");
+        }
+        List<TextInjector> textInjectors = new ArrayList<>();
+        for (ReportRouter.Host host : mReportRouter.hosts()) {
+            if (mReportRouter.isTarget(host)) {
+                TextInjector textInjector = new TextInjector(host.pipeline, text, TEXT_REPORTS_AHEAD, listener);
+                host.executeText(textInjector);
+                textInjectors.add(textInjector);
+            }
         }
-        sendArray(this.mKeyManager.build());
+        return textInjectors;
     }
 
-    public void sendPointer(int i, int i2, boolean z) {
-        byte[] bArr = new byte[5];
-        bArr[0] = (byte) 2;
-        bArr[1] = (byte) i;
-        bArr[2] = (byte) i2;
-        if (z) {
-            bArr[3] = (byte) 1;
+    /**
+     * Moves the pointer, the motion is summed up and sent whenever the link has room
+     *
+     * @param dx int horizontal delta in counts, positive to the right
+     * @param dy int vertical delta in counts, positive downwards
+     * @param wheel int wheel delta in detents, positive upwards
+     * @param touchNanos long System.nanoTime() of the motion, 0 if unknown
+     */
+    public void movePointer(int dx, int dy, int wheel, long touchNanos) {
+        mReportRouter.movePointer(dx, dy, wheel, touchNanos);
+    }
+
+    /**
+     * Presses or releases mouse buttons
+     *
+     * @param buttons int the pressed buttons as MotionEvent.BUTTON_ bits, they match the HID button order
+     * @param touchNanos long System.nanoTime() the finger touched or left the surface, 0 if unknown
+     * @param submitNanos long System.nanoTime() the input was handed to the app, 0 if unknown
+     */
+    public void sendPointerButtons(int buttons, long touchNanos, long submitNanos) {
+        if (BuildConfig.DEBUG) {
+            Log.d(TAG, "Sending pointer buttons: " + buttons);
+        }
+        if (!mReportRouter.sendPointerButtons(buttons, touchNanos, submitNanos)) {
+            Log.w(TAG, "Report queue full, pointer buttons follow with the next motion");
         }
-        sendArray(bArr);
     }
 
     private void storeDevice(BluetoothDevice bluetoothDevice, boolean connected) {
@@ -438,27 +914,42 @@ public class HIDService extends Service {
         return bluetoothGattDescriptor.getCharacteristic().getUuid().equals(uuid) && bluetoothGattDescriptor.getUuid().equals(uuid2);
     }
 
-    private byte[] getDescriptorValue(BluetoothGattDescriptor bluetoothGattDescriptor, int offset) {
+    private byte[] getDescriptorValue(BluetoothDevice bluetoothDevice, BluetoothGattDescriptor bluetoothGattDescriptor, int offset) {
         if (compareDescriptor(bluetoothGattDescriptor, REPORT_UUID, DESCRIPTOR_REPORT_REFERENCE_UUID)) {
-            int properties = bluetoothGattDescriptor.getCharacteristic().getProperties();
+            // Report ID, report type
+            BluetoothGattCharacteristic characteristic = bluetoothGattDescriptor.getCharacteristic();
+            if (characteristic == mConsumerReportCharacteristic) {
+                return new byte[]{(byte) ConsumerControl.REPORT_ID, (byte) 1}; // input
+            }
+            if (characteristic == mPointerReportCharacteristic) {
+                return new byte[]{(byte) PointerMotion.REPORT_ID, (byte) 1}; // input
+            }
+            int properties = characteristic.getProperties();
             if (properties == 26) {
-                return new byte[]{(byte) 0, (byte) 1}; // input
+                return new byte[]{(byte) KeyManager.REPORT_ID, (byte) 1}; // input
             }
             if (properties == 14) {
-                return new byte[]{(byte) 0, (byte) 2}; // output
+                return new byte[]{(byte) KeyManager.REPORT_ID, (byte) 2}; // output
             }
             if (properties == 10) {
                 return new byte[]{(byte) 0, (byte) 3}; // feature
             }
-        } else if (compareDescriptor(bluetoothGattDescriptor, REPORT_UUID, DESCRIPTOR_CHARACTERISTIC_CONFIG_UUID) || compareDescriptor(bluetoothGattDescriptor, REPORT_UUID, DESCRIPTOR_REPORT_REFERENCE_UUID)) {
-            return BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE;
+        } else if (compareDescriptor(bluetoothGattDescriptor, REPORT_UUID, DESCRIPTOR_CHARACTERISTIC_CONFIG_UUID)) {
+            int reportId = inputReportId(bluetoothGattDescriptor.getCharacteristic());
+            return (getSubscriptions(bluetoothDevice.getAddress()) & 1 << reportId) != 0
+                    ? BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE : BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE;
         }
         return new byte[0];
     }
 
-    private byte[] getCharacteristicValue(BluetoothGattCharacteristic bluetoothGattCharacteristic, int offset) {
+    private byte[] getCharacteristicValue(BluetoothDevice bluetoothDevice, BluetoothGattCharacteristic bluetoothGattCharacteristic, int offset) {
         if (compareCharacteristic(REPORT_MAP_UUID, bluetoothGattCharacteristic)) {
-            return Arrays.copyOfRange(keyboardReportMap, offset, keyboardReportMap.length - offset);
+            // a registered host keeps the format it started with
+            ReportRouter.Host host = mReportRouter.get(bluetoothDevice.getAddress());
+            boolean nkro = host != null
+                    ? host.pipeline.getKeyManager().getReportMode() == KeyManager.REPORT_MODE_NKRO : mNkroReport;
+            byte[] reportMap = nkro ? keyboardNkroReportMap : keyboardReportMap;
+            return Arrays.copyOfRange(reportMap, Math.min(offset, reportMap.length), reportMap.length);
         }
         if (compareCharacteristic(HID_CONTROL_POINT_UUID, bluetoothGattCharacteristic)) {
             return new byte[]{(byte) 0};
@@ -467,7 +958,7 @@ public class HIDService extends Service {
             return new byte[]{};
         }
         if (compareCharacteristic(PROTOCOL_MODE_UUID, bluetoothGattCharacteristic)) {
-            return new byte[]{(byte) PROTOCOL_MODE_REPORT};
+            return new byte[]{(byte) mProtocolMode};
         }
         if (compareCharacteristic(HID_INFO_UUID, bluetoothGattCharacteristic)) {
             return new byte[]{(byte) 17, (byte) 1, (byte) 0, (byte) 3}; // 11.1, not localized, supports wake & is connectible
@@ -493,8 +984,9 @@ public class HIDService extends Service {
 
     protected final void sendArray(byte[] bArr) {
         if (bArr.length > 0) {
-            Log.d(TAG, "Sending: " + bytesToHex(bArr));
-            this.mDataQueue.offer(bArr);
+            if (!mReportRouter.sendReport(KeyManager.REPORT_ID, bArr, 0, bArr.length)) {
+                Log.w(TAG, "Report queue full, dropping report");
+            }
         }
     }
 
@@ -518,9 +1010,21 @@ public class HIDService extends Service {
      * @return hex string
      */
     private static String bytesToHex(byte[] bytes) {
-        char[] hexChars = new char[bytes.length * 2];
-        for (int j = 0; j < bytes.length; j++) {
-            int v = bytes[j] & 0xFF;
+        return bytesToHex(bytes, 0, bytes.length);
+    }
+
+    /**
+     * converts part of a byte array to hex string
+     *
+     * @param bytes byte array
+     * @param offset start of the range
+     * @param length number of bytes
+     * @return hex string
+     */
+    private static String bytesToHex(byte[] bytes, int offset, int length) {
+        char[] hexChars = new char[length * 2];
+        for (int j = 0; j < length; j++) {
+            int v = bytes[offset + j] & 0xFF;
             hexChars[j * 2] = hexArray[v >>> 4];
             hexChars[j * 2 + 1] = hexArray[v & 0x0F];
         }
@@ -544,33 +1048,47 @@ public class HIDService extends Service {
         return data;
     }
 
-    private void initHandler() {
-        if (mHandler == null) {
-            mHandler = new Handler(getApplicationContext().getMainLooper());
-            Timer mTimer = new Timer();
-            mTimer.scheduleAtFixedRate(new TimerTask() {
-                @Override
-                public void run() {
-                    byte[] polled = mDataQueue.poll();
-                    if (polled != null && mInputReportCharacteristic != null) {
-                        mInputReportCharacteristic.setValue(polled);
-                        mHandler.post(() -> {
-                            for (BluetoothDevice bluetoothDevice : mManager.getConnectedDevices(BluetoothProfile.GATT)) {
-                                try {
-                                    Device device = mPairedDevices.get(bluetoothDevice.getAddress());
-                                    if (mGattServer != null
-                                            && device != null
-                                            && device.connected
-                                            && shouldConnect(bluetoothDevice)) {
-                                        mGattServer.notifyCharacteristicChanged(bluetoothDevice, mInputReportCharacteristic, false);
-                                    }
-                                } catch (Throwable ignored) {
-                                }
-                            }
-                        });
-                    }
-                }
-            }, 0, BuildConfig.SCHEDULE_KEY_TIME);
+    /**
+     * Starts sending input reports to a connected, paired host
+     *
+     * @param bluetoothDevice BluetoothDevice the host
+     */
+    private void registerHost(BluetoothDevice bluetoothDevice) {
+        if (!shouldConnect(bluetoothDevice) || mReportRouter.get(bluetoothDevice.getAddress()) != null) {
+            return;
+        }
+        KeyManager keyManager = new KeyManager();
+        keyManager.setReportMode(mNkroReport ? KeyManager.REPORT_MODE_NKRO : KeyManager.REPORT_MODE_BOOT);
+        GattHidTransport transport = new GattHidTransport(bluetoothDevice, mTraceRing);
+        transport.attach(mGattServer, mInputReports);
+        ReportPipeline reportPipeline = new ReportPipeline(keyManager, REPORT_QUEUE_CAPACITY,
+                BuildConfig.MAX_NOTIFICATIONS_IN_FLIGHT, NOTIFICATION_CONFIRM_TIMEOUT_MS,
+                mHandler::post, mHandler::postDelayed, transport, mInputLatency);
+        if (mReportRouter.add(bluetoothDevice.getAddress(), reportPipeline) != null) {
+            Log.d(TAG, "Sending reports to " + bluetoothDevice.getAddress());
+        }
+    }
+
+    /**
+     * Stops sending input reports to a host
+     *
+     * @param bluetoothDevice BluetoothDevice the host
+     */
+    private void unregisterHost(BluetoothDevice bluetoothDevice) {
+        ReportRouter.Host host = mReportRouter.remove(bluetoothDevice.getAddress());
+        if (host != null) {
+            detach(new ReportRouter.Host[]{host});
+        }
+    }
+
+    /**
+     * Detaches removed hosts from the GATT server, so reports still being drained are dropped
+     *
+     * @param hosts ReportRouter.Host[] the removed hosts
+     */
+    private static void detach(ReportRouter.Host[] hosts) {
+        for (ReportRouter.Host host : hosts) {
+            ((GattHidTransport) host.pipeline.getTransport()).attach(null, null);
         }
     }
 
@@ -622,12 +1140,9 @@ public class HIDService extends Service {
 
     private static BluetoothGattService deviceInfoService() {
         BluetoothGattService bluetoothGattService = new BluetoothGattService(SERVICE_DEVICE_INFO_UUID, BluetoothGattService.SERVICE_TYPE_PRIMARY);
-        do {
-        } while (!bluetoothGattService.addCharacteristic(new BluetoothGattCharacteristic(VENDOR_NAME_UUID, PROPERTY_READ, PERMISSION_READ_ENCRYPTED)));
-        do {
-        } while (!bluetoothGattService.addCharacteristic(new BluetoothGattCharacteristic(MODEL_NUMBER_UUID, PROPERTY_READ, PERMISSION_READ_ENCRYPTED)));
-        do {
-        } while (!bluetoothGattService.addCharacteristic(new BluetoothGattCharacteristic(SERIAL_NUMBER_UUID, PROPERTY_READ, PERMISSION_READ_ENCRYPTED)));
+        addCharacteristic(bluetoothGattService, new BluetoothGattCharacteristic(VENDOR_NAME_UUID, PROPERTY_READ, PERMISSION_READ_ENCRYPTED));
+        addCharacteristic(bluetoothGattService, new BluetoothGattCharacteristic(MODEL_NUMBER_UUID, PROPERTY_READ, PERMISSION_READ_ENCRYPTED));
+        addCharacteristic(bluetoothGattService, new BluetoothGattCharacteristic(SERIAL_NUMBER_UUID, PROPERTY_READ, PERMISSION_READ_ENCRYPTED));
         return bluetoothGattService;
     }
 
@@ -636,32 +1151,85 @@ public class HIDService extends Service {
         BluetoothGattCharacteristic bluetoothGattCharacteristic = new BluetoothGattCharacteristic(BATTERY_LEVEL_UUID, PROPERTY_NOTIFY | PROPERTY_READ, PERMISSION_READ_ENCRYPTED);
         BluetoothGattDescriptor configDescriptor = new BluetoothGattDescriptor(DESCRIPTOR_CHARACTERISTIC_CONFIG_UUID, BluetoothGattDescriptor.PERMISSION_READ | BluetoothGattDescriptor.PERMISSION_WRITE);
         configDescriptor.setValue(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
-        do {
-        } while (!bluetoothGattCharacteristic.addDescriptor(configDescriptor));
-        do {
-        } while (!bluetoothGattService.addCharacteristic(bluetoothGattCharacteristic));
+        bluetoothGattCharacteristic.addDescriptor(configDescriptor);
+        addCharacteristic(bluetoothGattService, bluetoothGattCharacteristic);
         return bluetoothGattService;
     }
 
+    private void traceConnectionState(BluetoothDevice bluetoothDevice, int status, int newState) {
+        // status, bond state and the six address bytes
+        byte[] data = new byte[8];
+        data[0] = (byte) status;
+        data[1] = (byte) bluetoothDevice.getBondState();
+        String address = bluetoothDevice.getAddress();
+        for (int i = 0; i < 6 && i * 3 + 2 <= address.length(); i++) {
+            data[2 + i] = (byte) Integer.parseInt(address.substring(i * 3, i * 3 + 2), 16);
+        }
+        mTraceRing.record(TraceRing.EVENT_CONNECTION_STATE, newState, data, 0, data.length);
+    }
+
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        String target = mReportRouter.getTarget();
+        writer.println("Input to: " + (target != null ? target : "all hosts"));
+        for (ReportRouter.Host host : mReportRouter.hosts()) {
+            writer.println("  " + host.address + " queued: " + host.pipeline.getQueueSize()
+                    + " in flight: " + host.pipeline.getInFlight()
+                    + " unchanged: " + host.pipeline.getSuppressedCount());
+            writer.println("    lanes release/press/repeat queued: "
+                    + host.pipeline.getLaneSize(ReportPipeline.LANE_RELEASE) + "/"
+                    + host.pipeline.getLaneSize(ReportPipeline.LANE_PRESS) + "/"
+                    + host.pipeline.getLaneSize(ReportPipeline.LANE_REPEAT)
+                    + " dropped: " + host.pipeline.getDroppedCount(ReportPipeline.LANE_PRESS) + "/"
+                    + host.pipeline.getDroppedCount(ReportPipeline.LANE_REPEAT)
+                    + " expired: " + host.pipeline.getExpiredCount(ReportPipeline.LANE_PRESS) + "/"
+                    + host.pipeline.getExpiredCount(ReportPipeline.LANE_REPEAT)
+                    + " synced: " + host.pipeline.getSyncCount()
+                    + " failed: " + host.pipeline.getFailedCount());
+        }
+        if (mServiceRegistration != null) {
+            writer.println(mServiceRegistration.format());
+        }
+        if (mInputLatency != null) {
+            writer.println(mInputLatency.format());
+        }
+        writer.println("HID trace, oldest first:");
+        mTraceRing.dump(writer);
+    }
+
     private BluetoothGattServerCallback mGattServerCallback = new BluetoothGattServerCallback() {
 
         public void onConnectionStateChange(BluetoothDevice bluetoothDevice, int status, int newState) {
-            Log.d(TAG, "onConnectionStateChange() called with: device = [" + bluetoothDevice.getAddress() + "], status = [" + status + "], newState = [" + newState + "] bondState: " + bluetoothDevice.getBondState());
+            traceConnectionState(bluetoothDevice, status, newState);
             boolean connected = newState == BluetoothAdapter.STATE_CONNECTED;
+            if (!connected) {
+                // stop notifying, confirmations for this device won't arrive anymore; on the I/O
+                // thread, so the host isn't torn down in the middle of a drain
+                mHandler.post(() -> unregisterHost(bluetoothDevice));
+            }
             if (bluetoothDevice.getBondState() == BluetoothDevice.BOND_BONDED) {
                 if (!connected) {
                     mHandler.post(() -> {
                         Log.d(TAG, "Connecting in connection state change mHandler");
                         if (mGattServer != null && shouldConnect(bluetoothDevice)) {
                             mGattServer.connect(bluetoothDevice, true);
-                            HerculesApp.setLatestBondedDeviceAddress(getApplicationContext(),
-                                    bluetoothDevice.getAddress());
+                            mDeviceRegistry.setLatestBondedDeviceAddress(bluetoothDevice.getAddress());
                         }
                     });
                 } else {
                     mHandler.post(() -> stopAdvertising());
                 }
-                storeDevice(bluetoothDevice, connected);
+                mHandler.post(() -> {
+                    storeDevice(bluetoothDevice, connected);
+                    if (connected && shouldConnect(bluetoothDevice)) {
+                        // a bonded host keeps its subscription, it doesn't write the CCCD again
+                        boolean subscribed = getSubscriptions(bluetoothDevice.getAddress()) != 0;
+                        rememberHost(bluetoothDevice.getAddress(), subscribed);
+                        if (subscribed) {
+                            registerHost(bluetoothDevice);
+                        }
+                    }
+                });
             }
             else if (connected) {
                 if (bluetoothDevice.getBondState() != BluetoothDevice.BOND_BONDING) {
@@ -680,21 +1248,17 @@ public class HIDService extends Service {
                 }
             }
             else {
-                initServiceAdvertiser();
+                mHandler.post(() -> initServiceAdvertiser());
             }
         }
 
         public void onServiceAdded(int status, BluetoothGattService bluetoothGattService) {
             Log.d(TAG, "onServiceAdded() called with: status = [" + status + "], service = [" + bluetoothGattService.getUuid() + "] " + bluetoothGattService.getCharacteristics().size());
-            if (status != 0) {
-                mGattServer.addService(bluetoothGattService);
-            }
-            else if (mGattServiceQueue.isEmpty()) {
-                initServiceAdvertiser();
-            }
-            else {
-                mGattServer.addService(mGattServiceQueue.poll());
-            }
+            mHandler.post(() -> {
+                if (mGattServer == null || mServiceRegistration == null)
+                    return;
+                mServiceRegistration.onServiceAdded(bluetoothGattService.getUuid(), status == BluetoothGatt.GATT_SUCCESS);
+            });
         }
 
         private byte[] log(String name, byte[] value) {
@@ -713,17 +1277,26 @@ public class HIDService extends Service {
                 Log.d(TAG, "onCharacteristicReadRequest");
                 if (mGattServer == null)
                     return;
-                mGattServer.sendResponse(bluetoothDevice, requestId, 0, offset, log("Sending characteristic " + bluetoothGattCharacteristic.getUuid(), getCharacteristicValue(bluetoothGattCharacteristic, offset)));
+                mGattServer.sendResponse(bluetoothDevice, requestId, 0, offset, log("Sending characteristic " + bluetoothGattCharacteristic.getUuid(), getCharacteristicValue(bluetoothDevice, bluetoothGattCharacteristic, offset)));
             });
 
         }
 
         public void onCharacteristicWriteRequest(BluetoothDevice bluetoothDevice, int requestId, BluetoothGattCharacteristic bluetoothGattCharacteristic, boolean preparedWrite, boolean responseNeeded, int offset, byte[] value) {
-            bluetoothGattCharacteristic.setValue(value);
-            log("Writing characteristic " + bluetoothGattCharacteristic.getUuid(), value);
-            if (responseNeeded) {
-                mGattServer.sendResponse(bluetoothDevice, requestId, 0, 0, new byte[]{});
-            }
+            // on the I/O thread, so a host write can't change the characteristic value between
+            // the setValue and notifyCharacteristicChanged of an input report
+            mHandler.post(() -> {
+                bluetoothGattCharacteristic.setValue(value);
+                log("Writing characteristic " + bluetoothGattCharacteristic.getUuid(), value);
+                if (compareCharacteristic(PROTOCOL_MODE_UUID, bluetoothGattCharacteristic)
+                        && value != null && value.length > 0 && shouldConnect(bluetoothDevice)) {
+                    mProtocolMode = value[0];
+                    rememberHost(bluetoothDevice.getAddress(), getSubscriptions(bluetoothDevice.getAddress()) != 0);
+                }
+                if (responseNeeded && mGattServer != null) {
+                    mGattServer.sendResponse(bluetoothDevice, requestId, 0, 0, new byte[]{});
+                }
+            });
         }
 
         public void onDescriptorReadRequest(BluetoothDevice bluetoothDevice, int requestId, int offset, BluetoothGattDescriptor bluetoothGattDescriptor) {
@@ -731,19 +1304,38 @@ public class HIDService extends Service {
                 Log.d(TAG, "onDescriptorReadRequest");
                 if (mGattServer == null)
                     return;
-                mGattServer.sendResponse(bluetoothDevice, requestId, 0, offset, log("Sending descriptor " + bluetoothGattDescriptor.getUuid(), getDescriptorValue(bluetoothGattDescriptor, offset)));
+                mGattServer.sendResponse(bluetoothDevice, requestId, 0, offset, log("Sending descriptor " + bluetoothGattDescriptor.getUuid(), getDescriptorValue(bluetoothDevice, bluetoothGattDescriptor, offset)));
             });
         }
 
         public void onDescriptorWriteRequest(BluetoothDevice bluetoothDevice, int requestId, BluetoothGattDescriptor bluetoothGattDescriptor, boolean preparedWrite, boolean responseNeeded, int offset, byte[] value) {
-            bluetoothGattDescriptor.setValue(value);
-            log("Writing descriptor " + bluetoothGattDescriptor.getUuid(), value);
-            if (compareDescriptor(bluetoothGattDescriptor, REPORT_UUID, DESCRIPTOR_CHARACTERISTIC_CONFIG_UUID)) {
-                storeDevice(bluetoothDevice, true);
-            }
-            if (responseNeeded) {
-                mGattServer.sendResponse(bluetoothDevice, requestId, 0, 0, new byte[]{});
-            }
+            mHandler.post(() -> {
+                bluetoothGattDescriptor.setValue(value);
+                log("Writing descriptor " + bluetoothGattDescriptor.getUuid(), value);
+                if (compareDescriptor(bluetoothGattDescriptor, REPORT_UUID, DESCRIPTOR_CHARACTERISTIC_CONFIG_UUID)) {
+                    storeDevice(bluetoothDevice, true);
+                    boolean enabled = value != null && value.length > 0
+                            && (value[0] & BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE[0]) != 0;
+                    String address = bluetoothDevice.getAddress();
+                    int report = 1 << inputReportId(bluetoothGattDescriptor.getCharacteristic());
+                    int subscriptions = getSubscriptions(address);
+                    subscriptions = enabled ? subscriptions | report : subscriptions & ~report;
+                    mSubscriptions.put(address, subscriptions);
+                    // the host gets input as long as it listens to any of the input reports
+                    boolean subscribed = subscriptions != 0;
+                    if (shouldConnect(bluetoothDevice)) {
+                        rememberHost(address, subscribed);
+                    }
+                    if (subscribed) {
+                        registerHost(bluetoothDevice);
+                    } else {
+                        unregisterHost(bluetoothDevice);
+                    }
+                }
+                if (responseNeeded && mGattServer != null) {
+                    mGattServer.sendResponse(bluetoothDevice, requestId, 0, 0, new byte[]{});
+                }
+            });
         }
 
         public void onExecuteWrite(BluetoothDevice bluetoothDevice, int requestId, boolean execute) {
@@ -751,7 +1343,13 @@ public class HIDService extends Service {
         }
 
         public void onNotificationSent(BluetoothDevice bluetoothDevice, int status) {
-            Log.d(TAG, "onNotificationSent() called with: device = [" + bluetoothDevice.getAddress() + "], status = [" + status + "] bondState: " + bluetoothDevice.getBondState());
+            mTraceRing.record(TraceRing.EVENT_NOTIFICATION_SENT, status);
+            mHandler.post(() -> {
+                ReportRouter.Host host = mReportRouter.get(bluetoothDevice.getAddress());
+                if (host != null) {
+                    ((GattHidTransport) host.pipeline.getTransport()).onNotificationSent();
+                }
+            });
         }
     };
 
@@ -0,0 +1,59 @@
+/*
+ * If not stated otherwise in this file or this component's Licenses.txt file the
+ * following copyright and licenses apply:
+ *
+ * Copyright 2016 RDK Management
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.service;
+
+/**
+ * This interface connects the HID report pipeline to the link that delivers the reports.
+ *
+ * Implementations are the GATT server ({@link GattHidTransport}) and an in-memory
+ * loopback ({@link LoopbackHidTransport}) used by JVM tests and benchmarks.
+ *
+ * @version 1.0.0
+ */
+public interface HidTransport {
+
+    /**
+     * Receives delivery confirmations
+     */
+    interface Callback {
+
+        /**
+         * Called once for every report notification the link has finished sending
+         */
+        void onReportSent();
+    }
+
+    /**
+     * Sets the callback for delivery confirmations
+     *
+     * @param callback Callback
+     */
+    void setCallback(Callback callback);
+
+    /**
+     * Sends a report to the connected host(s). The array is reused by the caller
+     * once this method returns, implementations must not keep it.
+     *
+     * @param reportId int Report ID of the input report
+     * @param report byte[] the raw report data, without the Report ID
+     * @return int the number of notifications issued, one confirmation follows for each
+     */
+    int send(int reportId, byte[] report);
+}
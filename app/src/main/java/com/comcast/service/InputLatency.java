@@ -0,0 +1,166 @@
+/*
+ * If not stated otherwise in this file or this component's Licenses.txt file the
+ * following copyright and licenses apply:
+ *
+ * Copyright 2016 RDK Management
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.service;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class collects per-stage latency histograms of the input path, from the finger
+ * leaving a button to the host confirming the input report notification.
+ *
+ * All timestamps are System.nanoTime() values. A timestamp of 0 means "not known", stages
+ * missing one of their ends are not recorded.
+ *
+ * @version 1.0.0
+ */
+public class InputLatency {
+
+    /**
+     * MotionEvent.ACTION_UP to HerculesApp.sendKeyForView
+     */
+    public static final int STAGE_TOUCH_TO_SUBMIT = 0;
+
+    /**
+     * HerculesApp.sendKeyForView / sendKey to the report being queued
+     */
+    public static final int STAGE_SUBMIT_TO_ENQUEUE = 1;
+
+    /**
+     * Report queued to notifyCharacteristicChanged
+     */
+    public static final int STAGE_ENQUEUE_TO_NOTIFY = 2;
+
+    /**
+     * notifyCharacteristicChanged to onNotificationSent
+     */
+    public static final int STAGE_NOTIFY_TO_CONFIRM = 3;
+
+    /**
+     * Earliest known timestamp of the input to onNotificationSent
+     */
+    public static final int STAGE_TOTAL = 4;
+
+    /**
+     * {@link #markStart(long)} to the first onNotificationSent after it
+     */
+    public static final int STAGE_START_TO_FIRST_REPORT = 5;
+
+    /**
+     * Process start to HIDService being bound
+     */
+    public static final int STAGE_COLD_START_TO_BOUND = 6;
+
+    private static final String[] STAGE_NAMES = {
+            "touch>submit", "submit>queue", "queue>notify", "notify>sent", "total", "start>report",
+            "cold>bound"
+    };
+
+    private final LatencyHistogram[] mHistograms = new LatencyHistogram[STAGE_NAMES.length];
+    // start of the pending time-to-first-report measurement, 0 once recorded
+    private final AtomicLong mStartNanos = new AtomicLong();
+
+    /**
+     * Constructor
+     */
+    public InputLatency() {
+        for (int i = 0; i < mHistograms.length; i++) {
+            mHistograms[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Records the time between two timestamps of an input
+     *
+     * @param stage int one of the STAGE_ constants
+     * @param startNanos long timestamp the stage started, 0 if unknown
+     * @param endNanos long timestamp the stage ended
+     */
+    public void record(int stage, long startNanos, long endNanos) {
+        if (startNanos != 0 && endNanos != 0) {
+            mHistograms[stage].record(endNanos - startNanos);
+        }
+    }
+
+    /**
+     * Starts a time-to-first-report measurement, e.g. when the app opens
+     *
+     * @param startNanos long System.nanoTime() the app started connecting
+     */
+    public void markStart(long startNanos) {
+        mStartNanos.set(startNanos);
+    }
+
+    /**
+     * Completes the pending time-to-first-report measurement, later calls are ignored
+     * until the next {@link #markStart(long)}
+     *
+     * @param confirmNanos long System.nanoTime() a report notification was confirmed
+     * @return long the time to the first report in nanoseconds, or 0 if none was pending
+     */
+    public long recordFirstReport(long confirmNanos) {
+        if (mStartNanos.get() == 0) {
+            return 0;
+        }
+        long startNanos = mStartNanos.getAndSet(0);
+        if (startNanos == 0) {
+            return 0;
+        }
+        record(STAGE_START_TO_FIRST_REPORT, startNanos, confirmNanos);
+        return confirmNanos - startNanos;
+    }
+
+    /**
+     * @param stage int one of the STAGE_ constants
+     * @return LatencyHistogram the histogram of the stage
+     */
+    public LatencyHistogram getHistogram(int stage) {
+        return mHistograms[stage];
+    }
+
+    /**
+     * Forgets everything recorded so far
+     */
+    public void reset() {
+        for (LatencyHistogram histogram : mHistograms) {
+            histogram.reset();
+        }
+    }
+
+    /**
+     * @return String one line per stage with count, p50, p90, p99 and max in milliseconds
+     */
+    public String format() {
+        StringBuilder builder = new StringBuilder(String.format(Locale.US,
+                "%-13s%6s%8s%8s%8s%8s", "ms", "n", "p50", "p90", "p99", "max"));
+        for (int i = 0; i < mHistograms.length; i++) {
+            LatencyHistogram histogram = mHistograms[i];
+            builder.append('\n').append(String.format(Locale.US, "%-13s%6d%8.2f%8.2f%8.2f%8.2f",
+                    STAGE_NAMES[i], histogram.getCount(),
+                    toMillis(histogram.getPercentile(50)), toMillis(histogram.getPercentile(90)),
+                    toMillis(histogram.getPercentile(99)), toMillis(histogram.getMax())));
+        }
+        return builder.toString();
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / 1e6;
+    }
+}
@@ -21,22 +21,193 @@ package com.comcast.service;
 
 import android.view.KeyEvent;
 
-import java.util.Collections;
-import java.util.LinkedList;
-import java.util.List;
+import com.comcast.constant.HidUsage;
 
-import static java.lang.Integer.valueOf;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 
 /**
  * This class implements HID Keyboard Manager
  *
+ * The pressed keys are kept as a 256-bit bitset indexed by HID usage plus the modifier byte,
+ * so pressing, releasing and building a report are constant time and lock-free.
+ *
  * @version 1.0.0
  */
 public class KeyManager {
 
-    private List<Integer> mHIDKeyboardCodeList = Collections.synchronizedList(new LinkedList<Integer>());
-    private int b;
+    /**
+     * Boot style report: modifier, reserved byte and six key slots
+     */
+    public static final int REPORT_MODE_BOOT = 0;
+
+    /**
+     * N-key rollover report: modifier byte and one bit per usage up to {@link #NKRO_MAX_USAGE}
+     */
+    public static final int REPORT_MODE_NKRO = 1;
+
+    /**
+     * Report ID of the keyboard input report
+     */
+    public static final int REPORT_ID = 1;
+
+    /**
+     * Length of the boot style keyboard input report
+     */
+    public static final int REPORT_SIZE = 8;
+
+    /**
+     * Highest usage either report mode can carry: the NKRO bitmap ends here so that the report fits a
+     * notification at the default ATT MTU, and the boot report map's logical maximum matches it
+     */
+    public static final int NKRO_MAX_USAGE = 0x97;
+
+    /**
+     * Length of the NKRO keyboard input report
+     */
+    public static final int NKRO_REPORT_SIZE = 1 + (NKRO_MAX_USAGE + 1) / 8;
+
+    /**
+     * Length of the longest report built by this class
+     */
+    public static final int MAX_REPORT_SIZE = Math.max(REPORT_SIZE, NKRO_REPORT_SIZE);
+
+    // Number of key slots in the boot style report
+    private static final int BOOT_KEY_SLOTS = 6;
+    // Usage reported in every key slot when more keys are down than the boot report can hold
+    private static final int USAGE_ERROR_ROLL_OVER = 0x01;
+
+    // Android key code to keyboard page usage, the single source of the usage lookup table
+    private static final int[] USAGE_SOURCE = {
+            KeyEvent.KEYCODE_0, HidUsage.KEY_0,
+            KeyEvent.KEYCODE_1, HidUsage.KEY_1,
+            KeyEvent.KEYCODE_2, HidUsage.KEY_2,
+            KeyEvent.KEYCODE_3, HidUsage.KEY_3,
+            KeyEvent.KEYCODE_4, HidUsage.KEY_4,
+            KeyEvent.KEYCODE_5, HidUsage.KEY_5,
+            KeyEvent.KEYCODE_6, HidUsage.KEY_6,
+            KeyEvent.KEYCODE_7, HidUsage.KEY_7,
+            KeyEvent.KEYCODE_8, HidUsage.KEY_8,
+            KeyEvent.KEYCODE_9, HidUsage.KEY_9,
+            KeyEvent.KEYCODE_DPAD_UP, HidUsage.KEY_UP_ARROW,
+            KeyEvent.KEYCODE_DPAD_DOWN, HidUsage.KEY_DOWN_ARROW,
+            KeyEvent.KEYCODE_DPAD_LEFT, HidUsage.KEY_LEFT_ARROW,
+            KeyEvent.KEYCODE_DPAD_RIGHT, HidUsage.KEY_RIGHT_ARROW,
+            KeyEvent.KEYCODE_A, HidUsage.KEY_A,
+            KeyEvent.KEYCODE_B, HidUsage.KEY_B,
+            KeyEvent.KEYCODE_C, HidUsage.KEY_C,
+            KeyEvent.KEYCODE_D, HidUsage.KEY_D,
+            KeyEvent.KEYCODE_E, HidUsage.KEY_E,
+            KeyEvent.KEYCODE_F, HidUsage.KEY_F,
+            KeyEvent.KEYCODE_G, HidUsage.KEY_G,
+            KeyEvent.KEYCODE_H, HidUsage.KEY_H,
+            KeyEvent.KEYCODE_I, HidUsage.KEY_I,
+            KeyEvent.KEYCODE_J, HidUsage.KEY_J,
+            KeyEvent.KEYCODE_K, HidUsage.KEY_K,
+            KeyEvent.KEYCODE_L, HidUsage.KEY_L,
+            KeyEvent.KEYCODE_M, HidUsage.KEY_M,
+            KeyEvent.KEYCODE_N, HidUsage.KEY_N,
+            KeyEvent.KEYCODE_O, HidUsage.KEY_O,
+            KeyEvent.KEYCODE_P, HidUsage.KEY_P,
+            KeyEvent.KEYCODE_Q, HidUsage.KEY_Q,
+            KeyEvent.KEYCODE_R, HidUsage.KEY_R,
+            KeyEvent.KEYCODE_S, HidUsage.KEY_S,
+            KeyEvent.KEYCODE_T, HidUsage.KEY_T,
+            KeyEvent.KEYCODE_U, HidUsage.KEY_U,
+            KeyEvent.KEYCODE_V, HidUsage.KEY_V,
+            KeyEvent.KEYCODE_W, HidUsage.KEY_W,
+            KeyEvent.KEYCODE_X, HidUsage.KEY_X,
+            KeyEvent.KEYCODE_Y, HidUsage.KEY_Y,
+            KeyEvent.KEYCODE_Z, HidUsage.KEY_Z,
+            KeyEvent.KEYCODE_COMMA, HidUsage.KEY_COMMA,
+            KeyEvent.KEYCODE_PERIOD, HidUsage.KEY_PERIOD,
+            KeyEvent.KEYCODE_ALT_LEFT, HidUsage.KEY_LEFT_ALT,
+            KeyEvent.KEYCODE_ALT_RIGHT, HidUsage.KEY_RIGHT_ALT,
+            KeyEvent.KEYCODE_SHIFT_LEFT, HidUsage.KEY_LEFT_SHIFT,
+            KeyEvent.KEYCODE_SHIFT_RIGHT, HidUsage.KEY_RIGHT_SHIFT,
+            KeyEvent.KEYCODE_TAB, HidUsage.KEY_TAB,
+            KeyEvent.KEYCODE_SPACE, HidUsage.KEY_SPACE,
+            KeyEvent.KEYCODE_ENTER, HidUsage.KEY_ENTER,
+            KeyEvent.KEYCODE_DEL, HidUsage.KEY_BACKSPACE,
+            KeyEvent.KEYCODE_GRAVE, HidUsage.KEY_GRAVE,
+            KeyEvent.KEYCODE_MINUS, HidUsage.KEY_MINUS,
+            KeyEvent.KEYCODE_EQUALS, HidUsage.KEY_EQUALS,
+            KeyEvent.KEYCODE_LEFT_BRACKET, HidUsage.KEY_LEFT_BRACKET,
+            KeyEvent.KEYCODE_RIGHT_BRACKET, HidUsage.KEY_RIGHT_BRACKET,
+            KeyEvent.KEYCODE_BACKSLASH, HidUsage.KEY_BACKSLASH,
+            KeyEvent.KEYCODE_SEMICOLON, HidUsage.KEY_SEMICOLON,
+            KeyEvent.KEYCODE_APOSTROPHE, HidUsage.KEY_APOSTROPHE,
+            KeyEvent.KEYCODE_SLASH, HidUsage.KEY_SLASH,
+            KeyEvent.KEYCODE_MENU, HidUsage.KEY_APPLICATION,
+            KeyEvent.KEYCODE_PAGE_UP, HidUsage.KEY_PAGE_UP,
+            KeyEvent.KEYCODE_PAGE_DOWN, HidUsage.KEY_PAGE_DOWN,
+            KeyEvent.KEYCODE_ESCAPE, HidUsage.KEY_ESCAPE,
+            KeyEvent.KEYCODE_FORWARD_DEL, HidUsage.KEY_DELETE,
+            KeyEvent.KEYCODE_CTRL_LEFT, HidUsage.KEY_LEFT_CTRL,
+            KeyEvent.KEYCODE_CTRL_RIGHT, HidUsage.KEY_RIGHT_CTRL,
+            KeyEvent.KEYCODE_CAPS_LOCK, HidUsage.KEY_CAPS_LOCK,
+            KeyEvent.KEYCODE_SCROLL_LOCK, HidUsage.KEY_SCROLL_LOCK,
+            KeyEvent.KEYCODE_META_LEFT, HidUsage.KEY_LEFT_GUI,
+            KeyEvent.KEYCODE_META_RIGHT, HidUsage.KEY_RIGHT_GUI,
+            KeyEvent.KEYCODE_SYSRQ, HidUsage.KEY_PRINT_SCREEN,
+            KeyEvent.KEYCODE_BREAK, HidUsage.KEY_PAUSE,
+            KeyEvent.KEYCODE_MOVE_HOME, HidUsage.KEY_HOME,
+            KeyEvent.KEYCODE_MOVE_END, HidUsage.KEY_END,
+            KeyEvent.KEYCODE_INSERT, HidUsage.KEY_INSERT,
+            KeyEvent.KEYCODE_F1, HidUsage.KEY_F1,
+            KeyEvent.KEYCODE_F2, HidUsage.KEY_F2,
+            KeyEvent.KEYCODE_F3, HidUsage.KEY_F3,
+            KeyEvent.KEYCODE_F4, HidUsage.KEY_F4,
+            KeyEvent.KEYCODE_F5, HidUsage.KEY_F5,
+            KeyEvent.KEYCODE_F6, HidUsage.KEY_F6,
+            KeyEvent.KEYCODE_F7, HidUsage.KEY_F7,
+            KeyEvent.KEYCODE_F8, HidUsage.KEY_F8,
+            KeyEvent.KEYCODE_F9, HidUsage.KEY_F9,
+            KeyEvent.KEYCODE_F10, HidUsage.KEY_F10,
+            KeyEvent.KEYCODE_F11, HidUsage.KEY_F11,
+            KeyEvent.KEYCODE_F12, HidUsage.KEY_F12,
+            KeyEvent.KEYCODE_NUM_LOCK, HidUsage.KEYPAD_NUM_LOCK,
+            KeyEvent.KEYCODE_NUMPAD_0, HidUsage.KEYPAD_0,
+            KeyEvent.KEYCODE_NUMPAD_1, HidUsage.KEYPAD_1,
+            KeyEvent.KEYCODE_NUMPAD_2, HidUsage.KEYPAD_2,
+            KeyEvent.KEYCODE_NUMPAD_3, HidUsage.KEYPAD_3,
+            KeyEvent.KEYCODE_NUMPAD_4, HidUsage.KEYPAD_4,
+            KeyEvent.KEYCODE_NUMPAD_5, HidUsage.KEYPAD_5,
+            KeyEvent.KEYCODE_NUMPAD_6, HidUsage.KEYPAD_6,
+            KeyEvent.KEYCODE_NUMPAD_7, HidUsage.KEYPAD_7,
+            KeyEvent.KEYCODE_NUMPAD_8, HidUsage.KEYPAD_8,
+            KeyEvent.KEYCODE_NUMPAD_9, HidUsage.KEYPAD_9,
+            KeyEvent.KEYCODE_NUMPAD_DIVIDE, HidUsage.KEYPAD_DIVIDE,
+            KeyEvent.KEYCODE_NUMPAD_MULTIPLY, HidUsage.KEYPAD_MULTIPLY,
+            KeyEvent.KEYCODE_NUMPAD_SUBTRACT, HidUsage.KEYPAD_SUBTRACT,
+            KeyEvent.KEYCODE_NUMPAD_ADD, HidUsage.KEYPAD_ADD,
+            KeyEvent.KEYCODE_NUMPAD_DOT, HidUsage.KEYPAD_DOT,
+            KeyEvent.KEYCODE_NUMPAD_COMMA, HidUsage.KEYPAD_COMMA,
+            KeyEvent.KEYCODE_NUMPAD_ENTER, HidUsage.KEYPAD_ENTER,
+            KeyEvent.KEYCODE_NUMPAD_EQUALS, HidUsage.KEYPAD_EQUALS,
+            // keypad parentheses (0xB6, 0xB7) lie above NKRO_MAX_USAGE and are left unmapped
+    };
+
+    // Android key code to modifier byte bit, the single source of the modifier lookup table
+    private static final int[] MODIFIER_SOURCE = {
+            KeyEvent.KEYCODE_CTRL_LEFT, HidUsage.MODIFIER_LEFT_CTRL,
+            KeyEvent.KEYCODE_SHIFT_LEFT, HidUsage.MODIFIER_LEFT_SHIFT,
+            KeyEvent.KEYCODE_ALT_LEFT, HidUsage.MODIFIER_LEFT_ALT,
+            KeyEvent.KEYCODE_META_LEFT, HidUsage.MODIFIER_LEFT_GUI,
+            KeyEvent.KEYCODE_CTRL_RIGHT, HidUsage.MODIFIER_RIGHT_CTRL,
+            KeyEvent.KEYCODE_SHIFT_RIGHT, HidUsage.MODIFIER_RIGHT_SHIFT,
+            KeyEvent.KEYCODE_ALT_RIGHT, HidUsage.MODIFIER_RIGHT_ALT,
+            KeyEvent.KEYCODE_META_RIGHT, HidUsage.MODIFIER_RIGHT_GUI,
+    };
+
+    // Lookup tables indexed by Android key code, built once
+    private static final byte[] sUsageTable = buildTable(USAGE_SOURCE);
+    private static final byte[] sModifierTable = buildTable(MODIFIER_SOURCE);
+
+    private final AtomicLongArray mKeyState = new AtomicLongArray(4);
+    private final AtomicInteger mModifiers = new AtomicInteger();
+    private volatile int mReportMode = REPORT_MODE_BOOT;
 
     /**
      * default constructor
@@ -44,52 +215,148 @@ public class KeyManager {
     KeyManager() {
     }
 
+    /**
+     * Select the report format, must match the report map the host has read
+     *
+     * @param reportMode int {@link #REPORT_MODE_BOOT} or {@link #REPORT_MODE_NKRO}
+     */
+    public void setReportMode(int reportMode) {
+        mReportMode = reportMode;
+    }
+
+    /**
+     * @return int the current report format
+     */
+    public int getReportMode() {
+        return mReportMode;
+    }
+
+    /**
+     * @return int the length of the reports built in the current mode
+     */
+    public int getReportSize() {
+        return mReportMode == REPORT_MODE_NKRO ? NKRO_REPORT_SIZE : REPORT_SIZE;
+    }
+
+    /**
+     * Press key
+     *
+     * @param androidKeyCode int
+     * @return true if the key state changed, false if the key was already down or has no HID equivalent
+     */
+    public boolean press(int androidKeyCode) {
+        int mask = getHIDKeyModifierCode(androidKeyCode);
+        if (mask != 0) {
+            int modifiers;
+            do {
+                modifiers = mModifiers.get();
+                if ((modifiers & mask) == mask) {
+                    return false;
+                }
+            } while (!mModifiers.compareAndSet(modifiers, modifiers | mask));
+            return true;
+        }
+        int usage = getHIDKeyboardCode(androidKeyCode);
+        if (usage == 0) {
+            return false;
+        }
+        int index = usage >>> 6;
+        long bit = 1L << usage;
+        long word;
+        do {
+            word = mKeyState.get(index);
+            if ((word & bit) != 0) {
+                return false;
+            }
+        } while (!mKeyState.compareAndSet(index, word, word | bit));
+        return true;
+    }
 
     /**
-     * Put key code
+     * Press a set of keys
      *
-     * @param i int
+     * @param androidKeyCodes int[]
+     * @return true if the key state changed
      */
-    public void key(int i) {
-        if (KeyEvent.isModifierKey(i)) {
-            this.b |= getHIDKeyModifierCode(i);
-        } else {
-            this.mHIDKeyboardCodeList.add(getHIDKeyboardCode(i));
+    public boolean press(int[] androidKeyCodes) {
+        boolean changed = false;
+        for (int androidKeyCode : androidKeyCodes) {
+            changed |= press(androidKeyCode);
         }
+        return changed;
     }
 
     /**
-     * Put key code
+     * Release a set of keys
      *
-     * @param num Integer
+     * @param androidKeyCodes int[]
+     * @return true if the key state changed
      */
-    public void key(Integer num) {
-        if (KeyEvent.isModifierKey(num.intValue())) {
-            this.b &= getHIDKeyModifierCode(num.intValue()) ^ -1;
-        } else {
-            this.mHIDKeyboardCodeList.remove(getHIDKeyboardCode(num.intValue()));
+    public boolean release(int[] androidKeyCodes) {
+        boolean changed = false;
+        for (int androidKeyCode : androidKeyCodes) {
+            changed |= release(androidKeyCode);
         }
+        return changed;
     }
 
     /**
-     * get the HID Key Modifier Code
+     * Release key
      *
      * @param androidKeyCode int
-     * @return int
+     * @return true if the key state changed, false if the key was not down or has no HID equivalent
+     */
+    public boolean release(int androidKeyCode) {
+        int mask = getHIDKeyModifierCode(androidKeyCode);
+        if (mask != 0) {
+            int modifiers;
+            do {
+                modifiers = mModifiers.get();
+                if ((modifiers & mask) == 0) {
+                    return false;
+                }
+            } while (!mModifiers.compareAndSet(modifiers, modifiers & ~mask));
+            return true;
+        }
+        int usage = getHIDKeyboardCode(androidKeyCode);
+        if (usage == 0) {
+            return false;
+        }
+        int index = usage >>> 6;
+        long bit = 1L << usage;
+        long word;
+        do {
+            word = mKeyState.get(index);
+            if ((word & bit) == 0) {
+                return false;
+            }
+        } while (!mKeyState.compareAndSet(index, word, word & ~bit));
+        return true;
+    }
+
+    /**
+     * Release all keys and modifiers
+     */
+    public void releaseAll() {
+        mModifiers.set(0);
+        for (int i = 0; i < mKeyState.length(); i++) {
+            mKeyState.set(i, 0L);
+        }
+    }
+
+    /**
+     * @return true if no key or modifier is pressed
      */
-    private int getHIDKeyModifierCode(int androidKeyCode) {
-        switch (androidKeyCode) {
-            case 57:
-                return 4;
-            case 59:
-                return 2;
-            case 113:
-                return 1;
-            case 117:
-                return 16;
-            default:
-                return 0;
+    public boolean isIdle() {
+        if (mModifiers.get() != 0) {
+            return false;
+        }
+        for (int i = 0; i < mKeyState.length(); i++) {
+            if (mKeyState.get(i) != 0L) {
+                return false;
+            }
         }
+        return true;
     }
 
     /**
@@ -98,264 +365,100 @@ public class KeyManager {
      * @return  byte[] the raw data.
      */
     public byte[] build() {
-        byte[] bArr = new byte[8];
+        byte[] bArr = new byte[getReportSize()];
+        build(bArr, 0);
+        return bArr;
+    }
+
+    /**
+     * Build HID report data in place, e.g. straight into a report queue slot
+     *
+     * @param dst byte[] the array to write the report to
+     * @param offset int start of the report in the array
+     * @return int the report length
+     */
+    public int build(byte[] dst, int offset) {
+        if (mReportMode == REPORT_MODE_NKRO) {
+            return buildNkro(dst, offset);
+        }
         // no report number
-        bArr[0] = (byte) this.b; // modifier
-        // [1] = 0 - reserved byte
-        int i = 2; // 2-6 - keys
-        for (Integer intValue : this.mHIDKeyboardCodeList) {
-            int intValue2 = intValue;
-            if (i >= bArr.length) {
-                break;
+        dst[offset] = (byte) mModifiers.get(); // modifier
+        dst[offset + 1] = 0; // reserved byte
+        int i = 2; // 2-7 - keys
+        for (int index = 0; index < mKeyState.length(); index++) {
+            long word = mKeyState.get(index);
+            while (word != 0) {
+                if (i == 2 + BOOT_KEY_SLOTS) {
+                    // more keys than slots: report phantom state as the HID spec asks for
+                    for (i = 2; i < REPORT_SIZE; i++) {
+                        dst[offset + i] = USAGE_ERROR_ROLL_OVER;
+                    }
+                    return REPORT_SIZE;
+                }
+                dst[offset + i] = (byte) ((index << 6) + Long.numberOfTrailingZeros(word));
+                i++;
+                word &= word - 1;
             }
-            bArr[i] = (byte) intValue2;
-            i++;
         }
-        return bArr;
+        for (; i < REPORT_SIZE; i++) {
+            dst[offset + i] = 0;
+        }
+        return REPORT_SIZE;
+    }
+
+    /**
+     * Build the NKRO report: modifier byte followed by the usage bitmap, least significant bit first
+     *
+     * @param dst byte[] the array to write the report to
+     * @param offset int start of the report in the array
+     * @return int the report length
+     */
+    private int buildNkro(byte[] dst, int offset) {
+        dst[offset] = (byte) mModifiers.get();
+        for (int i = 1; i < NKRO_REPORT_SIZE; i++) {
+            int bitmapByte = i - 1;
+            dst[offset + i] = (byte) (mKeyState.get(bitmapByte >>> 3) >>> ((bitmapByte & 7) << 3));
+        }
+        return NKRO_REPORT_SIZE;
+    }
+
+    /**
+     * Get the HID Key Modifier Code
+     *
+     * @param androidKeyCode int
+     * @return int the modifier byte bit, 0 if the key is not a modifier
+     */
+    static int getHIDKeyModifierCode(int androidKeyCode) {
+        return androidKeyCode >= 0 && androidKeyCode < sModifierTable.length
+                ? sModifierTable[androidKeyCode] & 0xFF : 0;
     }
 
     /**
      * Get HID Keyboard Code
      *
      * @param androidKeyCode int
-     * @return int
+     * @return int the keyboard page usage, 0 if the key has no HID equivalent
      */
-    private static Integer getHIDKeyboardCode(int androidKeyCode) {
-        switch (androidKeyCode) {
-            case 7:
-                return valueOf(39);
-            case 8:
-                return valueOf(30);
-            case 9:
-                return valueOf(31);
-            case 10:
-                return valueOf(32);
-            case 11:
-                return valueOf(33);
-            case 12:
-                return valueOf(34);
-            case 13:
-                return valueOf(35);
-            case 14:
-                return valueOf(36);
-            case 15:
-                return valueOf(37);
-            case 16:
-                return valueOf(38);
-            case 19:
-                return valueOf(82);
-            case 20:
-                return valueOf(81);
-            case 21:
-                return valueOf(80);
-            case 22:
-                return valueOf(79);
-            case 24:
-                return valueOf(128);
-            case 25:
-                return valueOf(129);
-            case 26:
-                return valueOf(102);
-            case 29:
-                return valueOf(4);
-            case 30:
-                return valueOf(5);
-            case 31:
-                return valueOf(6);
-            case 32:
-                return valueOf(7);
-            case 33:
-                return valueOf(8);
-            case 34:
-                return valueOf(9);
-            case 35:
-                return valueOf(10);
-            case 36:
-                return valueOf(11);
-            case 37:
-                return valueOf(12);
-            case 38:
-                return valueOf(13);
-            case 39:
-                return valueOf(14);
-            case 40:
-                return valueOf(15);
-            case 41:
-                return valueOf(16);
-            case 42:
-                return valueOf(17);
-            case 43:
-                return valueOf(18);
-            case 44:
-                return valueOf(19);
-            case 45:
-                return valueOf(20);
-            case 46:
-                return valueOf(21);
-            case 47:
-                return valueOf(22);
-            case 48:
-                return valueOf(23);
-            case 49:
-                return valueOf(24);
-            case 50:
-                return valueOf(25);
-            case 51:
-                return valueOf(26);
-            case 52:
-                return valueOf(27);
-            case 53:
-                return valueOf(28);
-            case 54:
-                return valueOf(29);
-            case 55:
-                return valueOf(54);
-            case 56:
-                return valueOf(55);
-            case 57:
-                return valueOf(226);
-            case 58:
-                return valueOf(230);
-            case 59:
-                return valueOf(225);
-            case 60:
-                return valueOf(229);
-            case 61:
-                return valueOf(43);
-            case 62:
-                return valueOf(44);
-            case 66:
-                return valueOf(40);
-            case 67:
-                return valueOf(42);
-            case 68:
-                return valueOf(53);
-            case 69:
-                return valueOf(45);
-            case 70:
-                return valueOf(46);
-            case 71:
-                return valueOf(47);
-            case 72:
-                return valueOf(48);
-            case 73:
-                return valueOf(49);
-            case 74:
-                return valueOf(51);
-            case 75:
-                return valueOf(52);
-            case 76:
-                return valueOf(56);
-            case 82:
-                return valueOf(101);
-            case 85:
-                return valueOf(232);
-            case 86:
-                return valueOf(120);
-            case 89:
-                return valueOf(241);
-            case 90:
-                return valueOf(242);
-            case 92:
-                return valueOf(75);
-            case 93:
-                return valueOf(78);
-            case 111:
-                return valueOf(41);
-            case 112:
-                return valueOf(76);
-            case 113:
-                return valueOf(224);
-            case 114:
-                return valueOf(228);
-            case 115:
-                return valueOf(57);
-            case 116:
-                return valueOf(71);
-            case 117:
-                return valueOf(227);
-            case 118:
-                return valueOf(231);
-            case 120:
-                return valueOf(70);
-            case 121:
-                return valueOf(72);
-            case 122:
-                return valueOf(74);
-            case 123:
-                return valueOf(77);
-            case 124:
-                return valueOf(73);
-            case 131:
-                return valueOf(58);
-            case 132:
-                return valueOf(59);
-            case 133:
-                return valueOf(60);
-            case 134:
-                return valueOf(61);
-            case 135:
-                return valueOf(62);
-            case 136:
-                return valueOf(63);
-            case 137:
-                return valueOf(64);
-            case 138:
-                return valueOf(65);
-            case 139:
-                return valueOf(66);
-            case 140:
-                return valueOf(67);
-            case 141:
-                return valueOf(68);
-            case 142:
-                return valueOf(69);
-            case 143:
-                return valueOf(83);
-            case 144:
-                return valueOf(98);
-            case 145:
-                return valueOf(89);
-            case 146:
-                return valueOf(90);
-            case 147:
-                return valueOf(91);
-            case 148:
-                return valueOf(92);
-            case 149:
-                return valueOf(93);
-            case 150:
-                return valueOf(94);
-            case 151:
-                return valueOf(95);
-            case 152:
-                return valueOf(96);
-            case 153:
-                return valueOf(97);
-            case 154:
-                return valueOf(84);
-            case 155:
-                return valueOf(85);
-            case 156:
-                return valueOf(86);
-            case 157:
-                return valueOf(87);
-            case 158:
-                return valueOf(99);
-            case 159:
-                return valueOf(133);
-            case 160:
-                return valueOf(88);
-            case 161:
-                return valueOf(103);
-            case 162:
-                return valueOf(182);
-            case 163:
-                return valueOf(183);
-            case 164:
-                return valueOf(127);
-            default:
-                return valueOf(0);
+    static int getHIDKeyboardCode(int androidKeyCode) {
+        return androidKeyCode >= 0 && androidKeyCode < sUsageTable.length
+                ? sUsageTable[androidKeyCode] & 0xFF : 0;
+    }
+
+    /**
+     * Builds a lookup table indexed by Android key code
+     *
+     * @param source int[] pairs of Android key code and value
+     * @return byte[] the table
+     */
+    private static byte[] buildTable(int[] source) {
+        int size = 0;
+        for (int i = 0; i < source.length; i += 2) {
+            size = Math.max(size, source[i] + 1);
+        }
+        byte[] table = new byte[size];
+        for (int i = 0; i < source.length; i += 2) {
+            table[source[i]] = (byte) source[i + 1];
         }
+        return table;
     }
 }
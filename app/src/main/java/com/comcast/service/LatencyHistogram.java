@@ -0,0 +1,124 @@
+/*
+ * If not stated otherwise in this file or this component's Licenses.txt file the
+ * following copyright and licenses apply:
+ *
+ * Copyright 2016 RDK Management
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.service;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class implements a fixed-size, lock-free latency histogram.
+ *
+ * Values are nanoseconds. Buckets are exact below 32 ns and above that every power of two
+ * is split into 16 sub-buckets, so a percentile is off by at most 1/16 of its value.
+ * Recording is a couple of atomic increments and never allocates.
+ *
+ * @version 1.0.0
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int LINEAR_LIMIT = SUB_BUCKET_COUNT << 1;
+    // values from 2^40 ns (about 18 minutes) on share the last bucket
+    private static final int MAX_SHIFT = 40 - SUB_BUCKET_BITS - 1;
+    private static final int BUCKET_COUNT = (MAX_SHIFT + 2) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong();
+
+    /**
+     * Records one value
+     *
+     * @param nanos long latency in nanoseconds, negative values are ignored
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            return;
+        }
+        mCounts.incrementAndGet(bucketIndex(nanos));
+        mCount.incrementAndGet();
+        long max;
+        do {
+            max = mMax.get();
+        } while (nanos > max && !mMax.compareAndSet(max, nanos));
+    }
+
+    /**
+     * @return long number of recorded values
+     */
+    public long getCount() {
+        return mCount.get();
+    }
+
+    /**
+     * @return long the largest recorded value in nanoseconds
+     */
+    public long getMax() {
+        return mMax.get();
+    }
+
+    /**
+     * @param percentile double between 0 and 100
+     * @return long upper bound of the bucket holding the percentile in nanoseconds, 0 when empty
+     */
+    public long getPercentile(double percentile) {
+        long count = mCount.get();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(count * Math.min(100, Math.max(0, percentile)) / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += mCounts.get(i);
+            if (seen >= rank) {
+                return Math.min(bucketUpperBound(i), mMax.get());
+            }
+        }
+        return mMax.get();
+    }
+
+    /**
+     * Forgets all recorded values
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            mCounts.set(i, 0);
+        }
+        mCount.set(0);
+        mMax.set(0);
+    }
+
+    static int bucketIndex(long nanos) {
+        if (nanos < LINEAR_LIMIT) {
+            return (int) nanos;
+        }
+        int shift = Math.min(63 - Long.numberOfLeadingZeros(nanos) - SUB_BUCKET_BITS, MAX_SHIFT);
+        return Math.min(shift * SUB_BUCKET_COUNT + (int) (nanos >>> shift), BUCKET_COUNT - 1);
+    }
+
+    static long bucketUpperBound(int index) {
+        if (index < LINEAR_LIMIT) {
+            return index;
+        }
+        int shift = index / SUB_BUCKET_COUNT - 1;
+        return ((long) (index - shift * SUB_BUCKET_COUNT + 1) << shift) - 1;
+    }
+}
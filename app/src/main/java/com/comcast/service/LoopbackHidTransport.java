@@ -0,0 +1,181 @@
+/*
+ * If not stated otherwise in this file or this component's Licenses.txt file the
+ * following copyright and licenses apply:
+ *
+ * Copyright 2016 RDK Management
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * This class implements an in-memory {@link HidTransport}.
+ *
+ * Every report is recorded with a monotonic timestamp. Confirmations are either issued
+ * through the given executor, which simulates a link that confirms on its own, or left
+ * pending until {@link #confirm()} is called, which lets tests control the pacing.
+ *
+ * @version 1.0.0
+ */
+public class LoopbackHidTransport implements HidTransport {
+
+    /**
+     * A report received by the loopback
+     */
+    public static final class Report {
+
+        /**
+         * System.nanoTime() when the report was sent
+         */
+        public final long timestampNanos;
+
+        /**
+         * The Report ID
+         */
+        public final int reportId;
+
+        /**
+         * The raw report data
+         */
+        public final byte[] data;
+
+        Report(long timestampNanos, int reportId, byte[] data) {
+            this.timestampNanos = timestampNanos;
+            this.reportId = reportId;
+            this.data = data;
+        }
+
+        @Override
+        public String toString() {
+            return timestampNanos + " #" + reportId + " " + Arrays.toString(data);
+        }
+    }
+
+    private final Executor mConfirmExecutor;
+    private final boolean mRecord;
+    private final List<Report> mReports = new ArrayList<>();
+    private final Runnable mConfirm = this::confirm;
+
+    private volatile Callback mCallback;
+    private int mPending;
+    private long mSentCount;
+    private int mFailures;
+
+    /**
+     * Creates a loopback that records reports and leaves confirmations to {@link #confirm()}
+     */
+    public LoopbackHidTransport() {
+        this(null, true);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param confirmExecutor Executor issuing a confirmation per report, or null to confirm manually
+     * @param record boolean whether to keep a copy of every report, benchmarks only count them
+     */
+    public LoopbackHidTransport(Executor confirmExecutor, boolean record) {
+        mConfirmExecutor = confirmExecutor;
+        mRecord = record;
+    }
+
+    @Override
+    public void setCallback(Callback callback) {
+        mCallback = callback;
+    }
+
+    @Override
+    public int send(int reportId, byte[] report) {
+        long timestamp = System.nanoTime();
+        synchronized (this) {
+            if (mFailures > 0) {
+                mFailures--;
+                return 0;
+            }
+            if (mRecord) {
+                mReports.add(new Report(timestamp, reportId, report.clone()));
+            }
+            mSentCount++;
+            mPending++;
+        }
+        if (mConfirmExecutor != null) {
+            mConfirmExecutor.execute(mConfirm);
+        }
+        return 1;
+    }
+
+    /**
+     * Makes the next sends fail like a link that refuses notifications
+     *
+     * @param count int the number of sends to fail
+     */
+    public synchronized void failNext(int count) {
+        mFailures = count;
+    }
+
+    /**
+     * Confirms the oldest unconfirmed report
+     *
+     * @return true if a report was waiting for its confirmation
+     */
+    public boolean confirm() {
+        synchronized (this) {
+            if (mPending == 0) {
+                return false;
+            }
+            mPending--;
+        }
+        Callback callback = mCallback;
+        if (callback != null) {
+            callback.onReportSent();
+        }
+        return true;
+    }
+
+    /**
+     * @return int the number of reports waiting for their confirmation
+     */
+    public synchronized int getPending() {
+        return mPending;
+    }
+
+    /**
+     * @return long the number of reports sent since creation or {@link #reset()}
+     */
+    public synchronized long getSentCount() {
+        return mSentCount;
+    }
+
+    /**
+     * @return List a copy of the recorded reports in send order
+     */
+    public synchronized List<Report> getReports() {
+        return new ArrayList<>(mReports);
+    }
+
+    /**
+     * Forgets the recorded reports and counters
+     */
+    public synchronized void reset() {
+        mReports.clear();
+        mSentCount = 0;
+        mPending = 0;
+        mFailures = 0;
+    }
+}
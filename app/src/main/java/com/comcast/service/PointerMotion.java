@@ -0,0 +1,172 @@
+/*
+ * If not stated otherwise in this file or this component's Licenses.txt file the
+ * following copyright and licenses apply:
+ *
+ * Copyright 2016 RDK Management
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.comcast.service;
+
+/**
+ * This class manages the relative mouse input report: buttons, X, Y and wheel under their
+ * own Report ID.
+ *
+ * Motion is not queued report by report. Deltas are summed up until the sender has room for
+ * a notification and then leave as one report, so a fast finger can't build up a backlog
+ * the pointer lags behind. Button changes are queued like key reports, they must not be
+ * merged away, and take the motion summed up so far with them.
+ *
+ * @version 1.0.0
+ */
+class PointerMotion implements ReportSender.PendingReport {
+
+    /**
+     * Report ID of the mouse input report
+     */
+    static final int REPORT_ID = 3;
+
+    /**
+     * Length of the mouse input report: buttons, X, Y and wheel
+     */
+    static final int REPORT_SIZE = 4;
+
+    /**
+     * Left button bit
+     */
+    static final int BUTTON_PRIMARY = 1;
+
+    /**
+     * Right button bit
+     */
+    static final int BUTTON_SECONDARY = 1 << 1;
+
+    /**
+     * Middle button bit
+     */
+    static final int BUTTON_TERTIARY = 1 << 2;
+
+    // Guarded by this
+    private int mButtons;
+    private int mDx;
+    private int mDy;
+    private int mWheel;
+    // earliest input of the summed up motion, 0 when there is none
+    private long mOriginNanos;
+    private long mTakenOriginNanos;
+
+    /**
+     * Adds motion to the next report
+     *
+     * @param dx int horizontal delta in counts, positive to the right
+     * @param dy int vertical delta in counts, positive downwards
+     * @param wheel int wheel delta in detents, positive upwards
+     * @param originNanos long timestamp of the input, 0 if unknown
+     */
+    synchronized void move(int dx, int dy, int wheel, long originNanos) {
+        mDx = saturatedAdd(mDx, dx);
+        mDy = saturatedAdd(mDy, dy);
+        mWheel = saturatedAdd(mWheel, wheel);
+        if (mOriginNanos == 0) {
+            mOriginNanos = originNanos != 0 ? originNanos : System.nanoTime();
+        }
+    }
+
+    /**
+     * @return int the pressed buttons, BUTTON_ bits
+     */
+    synchronized int getButtons() {
+        return mButtons;
+    }
+
+    /**
+     * @param buttons int the pressed buttons, BUTTON_ bits
+     */
+    synchronized void setButtons(int buttons) {
+        mButtons = buttons & (BUTTON_PRIMARY | BUTTON_SECONDARY | BUTTON_TERTIARY);
+    }
+
+    /**
+     * Releases the buttons and drops the motion not sent yet
+     */
+    synchronized void releaseAll() {
+        mButtons = 0;
+        clearMotion();
+    }
+
+    /**
+     * Drops the motion not sent yet
+     */
+    synchronized void clearMotion() {
+        mDx = 0;
+        mDy = 0;
+        mWheel = 0;
+        mOriginNanos = 0;
+    }
+
+    /**
+     * Builds the current buttons with as much of the summed up motion as one report holds
+     *
+     * @param dst byte[] destination
+     * @param offset int start of the report in dst
+     * @return int the report length
+     */
+    synchronized int build(byte[] dst, int offset) {
+        int dx = clamp(mDx);
+        int dy = clamp(mDy);
+        int wheel = clamp(mWheel);
+        mDx -= dx;
+        mDy -= dy;
+        mWheel -= wheel;
+        mTakenOriginNanos = mOriginNanos;
+        if (!hasPending()) {
+            mOriginNanos = 0;
+        }
+        dst[offset] = (byte) mButtons;
+        dst[offset + 1] = (byte) dx;
+        dst[offset + 2] = (byte) dy;
+        dst[offset + 3] = (byte) wheel;
+        return REPORT_SIZE;
+    }
+
+    @Override
+    public int getReportId() {
+        return REPORT_ID;
+    }
+
+    @Override
+    public synchronized boolean hasPending() {
+        return mDx != 0 || mDy != 0 || mWheel != 0;
+    }
+
+    @Override
+    public synchronized int take(byte[] dst, int offset) {
+        return hasPending() ? build(dst, offset) : 0;
+    }
+
+    @Override
+    public synchronized long getOriginNanos() {
+        return mTakenOriginNanos;
+    }
+
+    private static int clamp(int delta) {
+        return Math.max(-127, Math.min(127, delta));
+    }
+
+    private static int saturatedAdd(int a, int b) {
+        long sum = (long) a + b;
+        return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, sum));
+    }
+}
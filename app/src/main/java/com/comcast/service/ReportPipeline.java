@@ -0,0 +1,863 @@
+/*
+ * If not stated otherwise in this file or this component's Licenses.txt file the
+ * following copyright and licenses apply:
+ *
+ * Copyright 2016 RDK Management
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.service;
+
+import com.comcast.constant.KeyLayoutMap;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class ties the HID report pipeline together: key state, report queue, pacing and
+ * transport. It does not depend on the Android framework, so the whole
+ * sendKey -> queue -> send path runs on a plain JVM with a {@link LoopbackHidTransport}.
+ *
+ * Every queue slot starts with the Report ID, the sender uses it to pick the input report
+ * characteristic and sends the bytes after it.
+ *
+ * A key event that leaves the keyboard or consumer state as it was, e.g. releasing a key
+ * that is not down, queues nothing: the host already has that report.
+ *
+ * The queue is bounded and every report is queued in a lane. Releases may use the whole
+ * queue, new presses and repeats only the part below {@link #getPressLimit()}, so under
+ * congestion new input is dropped while releases still get through. A state change that finds the
+ * queue full, and the state left behind by {@link #clear()}, is sent as one state report as
+ * soon as the queue has drained, so no key is left stuck down on the host.
+ *
+ * A report waiting longer than the time to live of its input is worse than a lost one: after
+ * a stall the host would replay a burst of old channel changes. Taps, repeats and text each
+ * have their own time to live, counted from the input; an expired tap or repeat goes together
+ * with its release, which carries the same deadline. Releases of held keys never expire.
+ * Expired reports are followed by a state report, so the host still ends up in step.
+ *
+ * @version 1.0.0
+ */
+class ReportPipeline {
+
+    /**
+     * Queue slot size: the Report ID followed by the longest report
+     */
+    static final int SLOT_SIZE = 1 + Math.max(KeyManager.MAX_REPORT_SIZE,
+            Math.max(ConsumerControl.REPORT_SIZE, PointerMotion.REPORT_SIZE));
+
+    /**
+     * Lane of the reports that only take keys or buttons away: key-ups and modifier clears
+     */
+    static final int LANE_RELEASE = 0;
+
+    /**
+     * Lane of the reports pressing keys or buttons, including the press and release pair of a tap
+     */
+    static final int LANE_PRESS = 1;
+
+    /**
+     * Lane of the press and release pairs repeating a held remote button
+     */
+    static final int LANE_REPEAT = 2;
+
+    /**
+     * Number of lanes
+     */
+    static final int LANES = 3;
+
+    /**
+     * Overflow policy: repeats share the press lane with new presses
+     */
+    static final int OVERFLOW_REJECT = 0;
+
+    /**
+     * Overflow policy: repeats only use the lower half of the press lane, so a backed up queue
+     * drops repeats first and keeps room for new presses. Every repeat of a held button is the
+     * same pair of reports, refusing the newest one costs the same as dropping the oldest.
+     */
+    static final int OVERFLOW_SHED_REPEATS = 1;
+
+    /**
+     * Input kind: a key press or a tap of a remote button
+     */
+    static final int INPUT_TAP = 0;
+
+    /**
+     * Input kind: a repeat of a held remote button
+     */
+    static final int INPUT_REPEAT = 1;
+
+    /**
+     * Input kind: a report of a text injection
+     */
+    static final int INPUT_TEXT = 2;
+
+    /**
+     * Default time to live of a tap, a tap arriving later than this is unexpected for the user
+     */
+    static final long DEFAULT_TAP_TTL_MS = 1000;
+
+    /**
+     * Default time to live of a repeat, about the slowest repeat interval
+     */
+    static final long DEFAULT_REPEAT_TTL_MS = 250;
+
+    /**
+     * Default time to live of text reports: none, dropping reports would garble the text
+     */
+    static final long DEFAULT_TEXT_TTL_MS = 0;
+
+    private final KeyManager mKeyManager;
+    private final ConsumerControl mConsumerControl = new ConsumerControl();
+    private final PointerMotion mPointer = new PointerMotion();
+    private final ReportRing mQueue;
+    private final ReportSender mSender;
+    private final HidTransport mTransport;
+    private final InputLatency mLatency;
+    // precompiled button reports, indexed by report mode
+    private final ButtonReports[] mButtonReports;
+    private final StateSync mStateSync = new StateSync();
+    // bumped before every keyboard or consumer state change and prebuilt report, so the
+    // precompiled button path can tell that another producer got in between
+    private final AtomicLong mStateVersion = new AtomicLong();
+    // number of queued reports up to which presses are admitted, the rest is kept for releases
+    private final int mPressLimit;
+    private volatile int mOverflowPolicy = OVERFLOW_SHED_REPEATS;
+    private final AtomicLong mSuppressed = new AtomicLong();
+    private final AtomicLongArray mDropped = new AtomicLongArray(LANES);
+    private final AtomicLong mSynced = new AtomicLong();
+    private final AtomicLongArray mExpired = new AtomicLongArray(LANES);
+    private final AtomicLong mFailed = new AtomicLong();
+    // indexed by INPUT_ kind, 0 for none
+    private final AtomicLongArray mTimeToLiveNanos = new AtomicLongArray(new long[]{
+            TimeUnit.MILLISECONDS.toNanos(DEFAULT_TAP_TTL_MS),
+            TimeUnit.MILLISECONDS.toNanos(DEFAULT_REPEAT_TTL_MS),
+            TimeUnit.MILLISECONDS.toNanos(DEFAULT_TEXT_TTL_MS)
+    });
+    // the host holds a report sent through sendReport, the next report must be sent even if unchanged
+    private volatile boolean mKeyboardStale;
+    private volatile boolean mConsumerStale;
+
+    /**
+     * Constructor
+     *
+     * @param keyManager KeyManager holding the key state
+     * @param queueCapacity int number of report slots
+     * @param maxInFlight int the number of notifications allowed to be unconfirmed at once
+     * @param confirmTimeoutMs long time after which missing confirmations are written off
+     * @param executor Executor the sender runs on
+     * @param scheduler ReportSender.Scheduler writing lost confirmations off, may be null
+     * @param transport HidTransport delivering the reports
+     * @param latency InputLatency receiving the pipeline timings, may be null
+     */
+    ReportPipeline(KeyManager keyManager, int queueCapacity, int maxInFlight, long confirmTimeoutMs,
+                   Executor executor, ReportSender.Scheduler scheduler, HidTransport transport,
+                   InputLatency latency) {
+        mKeyManager = keyManager;
+        mQueue = new ReportRing(queueCapacity, SLOT_SIZE, LANES);
+        mPressLimit = mQueue.capacity() - Math.max(1, mQueue.capacity() / 4);
+        mTransport = transport;
+        mLatency = latency;
+        mButtonReports = new ButtonReports[]{
+                new ButtonReports(KeyManager.REPORT_MODE_BOOT),
+                new ButtonReports(KeyManager.REPORT_MODE_NKRO)
+        };
+        mSender = new ReportSender(mQueue, maxInFlight, confirmTimeoutMs, executor, scheduler, transport,
+                latency, this::onExpired, this::onSendFailed, mStateSync, mPointer);
+        transport.setCallback(mSender::onNotificationSent);
+    }
+
+    /**
+     * Selects what a backed up queue sheds first
+     *
+     * @param overflowPolicy int {@link #OVERFLOW_REJECT} or {@link #OVERFLOW_SHED_REPEATS}
+     */
+    void setOverflowPolicy(int overflowPolicy) {
+        mOverflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * Sets how long the reports of an input kind may wait in the queue, counted from the input
+     *
+     * @param input int {@link #INPUT_TAP}, {@link #INPUT_REPEAT} or {@link #INPUT_TEXT}
+     * @param timeToLiveMs long the time to live, 0 to never drop the reports
+     */
+    void setTimeToLive(int input, long timeToLiveMs) {
+        mTimeToLiveNanos.set(input, TimeUnit.MILLISECONDS.toNanos(timeToLiveMs));
+    }
+
+    /**
+     * Updates the key state and queues the resulting keyboard or consumer report
+     *
+     * @param keyCode int Android key code
+     * @param down boolean true for press, false for release
+     * @return true if the report was queued, false when a press found the queue full
+     */
+    boolean sendKey(int keyCode, boolean down) {
+        return sendKey(keyCode, down, 0, 0);
+    }
+
+    /**
+     * Updates the key state and queues the resulting keyboard or consumer report
+     *
+     * @param keyCode int Android key code
+     * @param down boolean true for press, false for release
+     * @param touchNanos long timestamp the finger left the button, 0 if unknown
+     * @param submitNanos long timestamp the input was handed to the app, 0 if unknown
+     * @return true if the report was queued or the state did not change, false when a press
+     * found the queue full and was dropped
+     */
+    boolean sendKey(int keyCode, boolean down, long touchNanos, long submitNanos) {
+        if (down && !admit(LANE_PRESS, 1)) {
+            return false;
+        }
+        boolean consumer = ConsumerControl.isConsumerKey(keyCode);
+        boolean changed;
+        mStateVersion.incrementAndGet();
+        if (consumer) {
+            changed = down ? mConsumerControl.press(keyCode) : mConsumerControl.release(keyCode);
+        } else {
+            changed = down ? mKeyManager.press(keyCode) : mKeyManager.release(keyCode);
+        }
+        return queueState(consumer, changed, down ? LANE_PRESS : LANE_RELEASE, touchNanos, submitNanos);
+    }
+
+    /**
+     * Presses or releases a set of keys in one report, e.g. to hold a remote button and
+     * leave the repeat to the host. A set mixing keyboard and consumer keys is sent key by key.
+     *
+     * @param keyCodes int[] Android key codes
+     * @param down boolean true for press, false for release
+     * @param touchNanos long timestamp the finger touched or left the button, 0 if unknown
+     * @param submitNanos long timestamp the input was handed to the app, 0 if unknown
+     * @return true if the report was queued or the state did not change, false when a press
+     * found the queue full and was dropped
+     */
+    boolean sendKeys(int[] keyCodes, boolean down, long touchNanos, long submitNanos) {
+        int consumerKeys = countConsumerKeys(keyCodes);
+        if (consumerKeys != 0 && consumerKeys != keyCodes.length) {
+            boolean queued = true;
+            for (int keyCode : keyCodes) {
+                queued &= sendKey(keyCode, down, touchNanos, submitNanos);
+            }
+            return queued;
+        }
+        if (down && !admit(LANE_PRESS, 1)) {
+            return false;
+        }
+        boolean consumer = consumerKeys != 0;
+        boolean changed = down ? press(consumer, keyCodes) : release(consumer, keyCodes);
+        return queueState(consumer, changed, down ? LANE_PRESS : LANE_RELEASE, touchNanos, submitNanos);
+    }
+
+    /**
+     * Queues the current keyboard or consumer report, unless the state did not change and
+     * the host is known to have it
+     */
+    private boolean queueState(boolean consumer, boolean changed, int lane, long touchNanos, long submitNanos) {
+        if (!changed && !(consumer ? mConsumerStale : mKeyboardStale)) {
+            mSuppressed.incrementAndGet();
+            return true;
+        }
+        // build the report straight into its queue slot
+        long position = mQueue.claim();
+        if (position < 0) {
+            // the state has changed already, send it once the queue has drained
+            requestSync(consumer ? StateSync.CONSUMER : StateSync.KEYBOARD);
+            return lane == LANE_RELEASE;
+        }
+        setStale(consumer, false);
+        int length = build(consumer, position);
+        long queuedNanos = System.nanoTime();
+        commit(position, length, origin(touchNanos, submitNanos, queuedNanos), queuedNanos, lane);
+        if (mLatency != null) {
+            mLatency.record(InputLatency.STAGE_SUBMIT_TO_ENQUEUE, submitNanos, queuedNanos);
+        }
+        mSender.schedule();
+        return true;
+    }
+
+    /**
+     * Presses and releases a set of keys as one chord: exactly one report with all keys
+     * down followed by one report with them released. A chord mixing keyboard and consumer
+     * keys is sent key by key.
+     *
+     * @param keyCodes int[] Android key codes
+     * @param touchNanos long timestamp the finger left the button, 0 if unknown
+     * @param submitNanos long timestamp the input was handed to the app, 0 if unknown
+     * @return true if both reports were queued, false when the queue is full
+     */
+    boolean sendChord(int[] keyCodes, long touchNanos, long submitNanos) {
+        return sendChord(keyCodes, LANE_PRESS, touchNanos, submitNanos);
+    }
+
+    private boolean sendChord(int[] keyCodes, int lane, long touchNanos, long submitNanos) {
+        int consumerKeys = countConsumerKeys(keyCodes);
+        if (consumerKeys != 0 && consumerKeys != keyCodes.length) {
+            boolean queued = true;
+            for (int keyCode : keyCodes) {
+                queued &= sendKey(keyCode, true, touchNanos, submitNanos);
+            }
+            for (int keyCode : keyCodes) {
+                queued &= sendKey(keyCode, false, touchNanos, submitNanos);
+            }
+            return queued;
+        }
+        if (!admit(lane, 2)) {
+            return false;
+        }
+        boolean consumer = consumerKeys != 0;
+        // claim both slots up front, a press must never be queued without its release
+        long pressPosition = mQueue.claim();
+        if (pressPosition < 0) {
+            return false;
+        }
+        press(consumer, keyCodes);
+        int pressLength = build(consumer, pressPosition);
+        long releasePosition = mQueue.claim();
+        release(consumer, keyCodes);
+        long queuedNanos = System.nanoTime();
+        long originNanos = origin(touchNanos, submitNanos, queuedNanos);
+        if (releasePosition < 0) {
+            // no room for the release, turn the press slot into a plain state report
+            commit(pressPosition, build(consumer, pressPosition), originNanos, queuedNanos, LANE_RELEASE);
+            mSender.schedule();
+            return false;
+        }
+        int releaseLength = build(consumer, releasePosition);
+        commit(pressPosition, pressLength, originNanos, queuedNanos, lane);
+        commit(releasePosition, releaseLength, originNanos, queuedNanos, lane);
+        if (mLatency != null) {
+            mLatency.record(InputLatency.STAGE_SUBMIT_TO_ENQUEUE, submitNanos, queuedNanos);
+        }
+        mSender.schedule();
+        return true;
+    }
+
+    /**
+     * Presses and releases the keys of a remote button as one chord, see
+     * {@link #sendChord(int[], long, long)}. While no other key of the same report is held
+     * the precompiled reports of the button are copied into the queue. A producer changing
+     * the key state while the slots are claimed is caught by the state version, the slots are
+     * then built from the key state like a chord.
+     *
+     * @param layoutId int the button resource id
+     * @param touchNanos long timestamp the finger left the button, 0 if unknown
+     * @param submitNanos long timestamp the input was handed to the app, 0 if unknown
+     * @return true if both reports were queued or the button has no keys, false when the
+     * queue is full
+     */
+    boolean sendButton(int layoutId, long touchNanos, long submitNanos) {
+        return sendButton(layoutId, false, touchNanos, submitNanos);
+    }
+
+    /**
+     * Presses and releases the keys of a remote button as one chord, see
+     * {@link #sendButton(int, long, long)}
+     *
+     * @param layoutId int the button resource id
+     * @param repeat boolean true if the button is held and repeats, the reports go to {@link #LANE_REPEAT}
+     * @param touchNanos long timestamp the finger left the button, 0 if unknown
+     * @param submitNanos long timestamp the input was handed to the app, 0 if unknown
+     * @return true if both reports were queued or the button has no keys, false when the
+     * queue is full
+     */
+    boolean sendButton(int layoutId, boolean repeat, long touchNanos, long submitNanos) {
+        int lane = repeat ? LANE_REPEAT : LANE_PRESS;
+        ButtonReports buttonReports = mButtonReports[mKeyManager.getReportMode()];
+        byte[] pressReport = buttonReports.getPressReport(layoutId);
+        // read before the idle check, a change after it shows up as a new version
+        long stateVersion = mStateVersion.get();
+        boolean consumer = pressReport != null && pressReport[0] == ConsumerControl.REPORT_ID;
+        if (pressReport == null || !(consumer ? mConsumerControl.isIdle() : mKeyManager.isIdle())) {
+            // not precompiled, or the reports have to carry the keys that are held
+            int[] keyCodes = KeyLayoutMap.getKeyCode(layoutId);
+            return keyCodes == null || sendChord(keyCodes, lane, touchNanos, submitNanos);
+        }
+        if (!admit(lane, 2)) {
+            return false;
+        }
+        long pressPosition = mQueue.claim();
+        if (pressPosition < 0) {
+            return false;
+        }
+        long releasePosition = mQueue.claim();
+        long queuedNanos = System.nanoTime();
+        long originNanos = origin(touchNanos, submitNanos, queuedNanos);
+        if (releasePosition < 0) {
+            // a press must never be queued without its release, send the state instead
+            commit(pressPosition, build(consumer, pressPosition), originNanos, queuedNanos, LANE_RELEASE);
+            mSender.schedule();
+            return false;
+        }
+        byte[] releaseReport = buttonReports.getReleaseReport(layoutId);
+        int pressLength = write(pressReport, pressPosition);
+        int releaseLength = write(releaseReport, releasePosition);
+        if (mStateVersion.get() != stateVersion) {
+            // another producer changed the state, whatever it queued before these slots went
+            // out with its keys and the release must keep them
+            int[] keyCodes = KeyLayoutMap.getKeyCode(layoutId);
+            press(consumer, keyCodes);
+            pressLength = build(consumer, pressPosition);
+            release(consumer, keyCodes);
+            releaseLength = build(consumer, releasePosition);
+        }
+        commit(pressPosition, pressLength, originNanos, queuedNanos, lane);
+        commit(releasePosition, releaseLength, originNanos, queuedNanos, lane);
+        if (mLatency != null) {
+            mLatency.record(InputLatency.STAGE_SUBMIT_TO_ENQUEUE, submitNanos, queuedNanos);
+        }
+        mSender.schedule();
+        return true;
+    }
+
+    /**
+     * Queues a prebuilt report. A report of zeros releases everything and goes to
+     * {@link #LANE_RELEASE}, any other report to {@link #LANE_PRESS}.
+     *
+     * @param reportId int Report ID selecting the input report characteristic
+     * @param report byte[] the raw report data
+     * @param offset int start of the report in the array
+     * @param length int report length
+     * @return true if the report was queued, false when the queue is full
+     */
+    boolean sendReport(int reportId, byte[] report, int offset, int length) {
+        if (length > SLOT_SIZE - 1) {
+            throw new IllegalArgumentException("Report of " + length + " bytes exceeds " + (SLOT_SIZE - 1));
+        }
+        int lane = isZero(report, offset, length) ? LANE_RELEASE : LANE_PRESS;
+        if (!admit(lane, 1)) {
+            return false;
+        }
+        mStateVersion.incrementAndGet();
+        long position = mQueue.claim();
+        if (position < 0) {
+            return false;
+        }
+        if (reportId == KeyManager.REPORT_ID) {
+            // the host now holds a keyboard state the key manager does not know about
+            mKeyboardStale = true;
+        }
+        byte[] buffer = mQueue.buffer();
+        int slotOffset = mQueue.offset(position);
+        buffer[slotOffset] = (byte) reportId;
+        System.arraycopy(report, offset, buffer, slotOffset + 1, length);
+        long queuedNanos = System.nanoTime();
+        mQueue.commit(position, length + 1, queuedNanos, queuedNanos, lane,
+                lane == LANE_RELEASE ? 0 : deadline(INPUT_TEXT, queuedNanos));
+        mSender.schedule();
+        return true;
+    }
+
+    /**
+     * Adds pointer motion. Motion is not queued, it is summed up and sent as one mouse report
+     * whenever no other report is waiting and the link has room.
+     *
+     * @param dx int horizontal delta in counts, positive to the right
+     * @param dy int vertical delta in counts, positive downwards
+     * @param wheel int wheel delta in detents, positive upwards
+     * @param touchNanos long timestamp of the motion, 0 if unknown
+     */
+    void movePointer(int dx, int dy, int wheel, long touchNanos) {
+        if (dx != 0 || dy != 0 || wheel != 0) {
+            mPointer.move(dx, dy, wheel, touchNanos);
+            mSender.schedule();
+        }
+    }
+
+    /**
+     * Queues a mouse report with the given buttons and the motion summed up so far
+     *
+     * @param buttons int the pressed buttons, PointerMotion.BUTTON_ bits
+     * @param touchNanos long timestamp the finger touched or left the surface, 0 if unknown
+     * @param submitNanos long timestamp the input was handed to the app, 0 if unknown
+     * @return true if the report was queued or is a release, false when a press found the
+     * queue full and was dropped
+     */
+    boolean sendPointerButtons(int buttons, long touchNanos, long submitNanos) {
+        int lane = (buttons & ~mPointer.getButtons()) == 0 ? LANE_RELEASE : LANE_PRESS;
+        if (!admit(lane, 1)) {
+            return false;
+        }
+        mPointer.setButtons(buttons);
+        long position = mQueue.claim();
+        if (position < 0) {
+            requestSync(StateSync.POINTER);
+            return lane == LANE_RELEASE;
+        }
+        byte[] buffer = mQueue.buffer();
+        int offset = mQueue.offset(position);
+        buffer[offset] = PointerMotion.REPORT_ID;
+        int length = 1 + mPointer.build(buffer, offset + 1);
+        long queuedNanos = System.nanoTime();
+        commit(position, length, origin(touchNanos, submitNanos, queuedNanos), queuedNanos, lane);
+        if (mLatency != null) {
+            mLatency.record(InputLatency.STAGE_SUBMIT_TO_ENQUEUE, submitNanos, queuedNanos);
+        }
+        mSender.schedule();
+        return true;
+    }
+
+    /**
+     * Decides whether a report of a lane may be queued
+     *
+     * @param lane int the lane
+     * @param slots int the number of reports to queue
+     * @return true if the lane has room, releases always have
+     */
+    private boolean admit(int lane, int slots) {
+        if (lane == LANE_RELEASE) {
+            return true;
+        }
+        int limit = lane == LANE_REPEAT && mOverflowPolicy == OVERFLOW_SHED_REPEATS ? mPressLimit / 2 : mPressLimit;
+        if (mQueue.size() + slots <= limit) {
+            return true;
+        }
+        mDropped.incrementAndGet(lane);
+        return false;
+    }
+
+    /**
+     * Sends the current state of a report once the queue has drained
+     *
+     * @param report int StateSync bit of the report
+     */
+    private void requestSync(int report) {
+        mStateSync.request(report);
+        mSynced.incrementAndGet();
+        mSender.schedule();
+    }
+
+    private static boolean isZero(byte[] report, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            if (report[i] != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int countConsumerKeys(int[] keyCodes) {
+        int consumerKeys = 0;
+        for (int keyCode : keyCodes) {
+            if (ConsumerControl.isConsumerKey(keyCode)) {
+                consumerKeys++;
+            }
+        }
+        return consumerKeys;
+    }
+
+    private boolean press(boolean consumer, int[] keyCodes) {
+        mStateVersion.incrementAndGet();
+        if (!consumer) {
+            return mKeyManager.press(keyCodes);
+        }
+        boolean changed = false;
+        for (int keyCode : keyCodes) {
+            changed |= mConsumerControl.press(keyCode);
+        }
+        return changed;
+    }
+
+    private boolean release(boolean consumer, int[] keyCodes) {
+        mStateVersion.incrementAndGet();
+        if (!consumer) {
+            return mKeyManager.release(keyCodes);
+        }
+        boolean changed = false;
+        for (int keyCode : keyCodes) {
+            changed |= mConsumerControl.release(keyCode);
+        }
+        return changed;
+    }
+
+    private void setStale(boolean consumer, boolean stale) {
+        if (consumer) {
+            mConsumerStale = stale;
+        } else {
+            mKeyboardStale = stale;
+        }
+    }
+
+    /**
+     * Builds the current keyboard or consumer report into a claimed slot
+     *
+     * @return int the slot length: Report ID and report
+     */
+    private int build(boolean consumer, long position) {
+        byte[] buffer = mQueue.buffer();
+        int offset = mQueue.offset(position);
+        if (consumer) {
+            buffer[offset] = ConsumerControl.REPORT_ID;
+            return 1 + mConsumerControl.build(buffer, offset + 1);
+        }
+        buffer[offset] = KeyManager.REPORT_ID;
+        return 1 + mKeyManager.build(buffer, offset + 1);
+    }
+
+    /**
+     * Publishes a slot with the deadline of its lane
+     */
+    private void commit(long position, int length, long originNanos, long queuedNanos, int lane) {
+        long deadlineNanos = 0;
+        if (lane == LANE_PRESS) {
+            deadlineNanos = deadline(INPUT_TAP, originNanos);
+        } else if (lane == LANE_REPEAT) {
+            deadlineNanos = deadline(INPUT_REPEAT, originNanos);
+        }
+        mQueue.commit(position, length, originNanos, queuedNanos, lane, deadlineNanos);
+    }
+
+    private long deadline(int input, long originNanos) {
+        long timeToLiveNanos = mTimeToLiveNanos.get(input);
+        return timeToLiveNanos != 0 ? originNanos + timeToLiveNanos : 0;
+    }
+
+    /**
+     * Called by the sender for a report that missed its deadline, the state it was part of
+     * follows once the queue has drained
+     */
+    private void onExpired(int reportId, int lane) {
+        mExpired.incrementAndGet(lane);
+        syncReport(reportId);
+    }
+
+    /**
+     * Called by the sender for a report the transport didn't take, e.g. a release; the state
+     * it was part of follows once the link takes notifications again
+     */
+    private void onSendFailed(int reportId) {
+        mFailed.incrementAndGet();
+        syncReport(reportId);
+    }
+
+    private void syncReport(int reportId) {
+        if (reportId == KeyManager.REPORT_ID) {
+            mStateSync.request(StateSync.KEYBOARD);
+        } else if (reportId == ConsumerControl.REPORT_ID) {
+            mStateSync.request(StateSync.CONSUMER);
+        } else if (reportId == PointerMotion.REPORT_ID) {
+            mStateSync.request(StateSync.POINTER);
+        }
+    }
+
+    private int write(byte[] slot, long position) {
+        System.arraycopy(slot, 0, mQueue.buffer(), mQueue.offset(position), slot.length);
+        return slot.length;
+    }
+
+    private static long origin(long touchNanos, long submitNanos, long queuedNanos) {
+        if (touchNanos != 0) {
+            return touchNanos;
+        }
+        return submitNanos != 0 ? submitNanos : queuedNanos;
+    }
+
+    /**
+     * Drops all queued reports and the pointer motion not sent yet. The releases dropped with
+     * them are not lost: the current keyboard, consumer and button state follows as soon as
+     * the link has room.
+     */
+    void clear() {
+        mQueue.clear();
+        mSender.signalWaiter();
+        mPointer.clearMotion();
+        mStateSync.request(StateSync.KEYBOARD | StateSync.CONSUMER | StateSync.POINTER);
+        mSender.schedule();
+    }
+
+    /**
+     * Drops all queued reports and pending state without sending anything, called when the
+     * host has gone away
+     */
+    void discard() {
+        mQueue.clear();
+        mSender.signalWaiter();
+        mPointer.clearMotion();
+        mStateSync.clear();
+    }
+
+    /**
+     * Forgets outstanding notifications, called when a host disconnects
+     */
+    void onDisconnected() {
+        mSender.reset();
+    }
+
+    /**
+     * @return KeyManager the key state
+     */
+    KeyManager getKeyManager() {
+        return mKeyManager;
+    }
+
+    /**
+     * @return HidTransport the transport
+     */
+    HidTransport getTransport() {
+        return mTransport;
+    }
+
+    /**
+     * @return InputLatency the latency histograms, may be null
+     */
+    InputLatency getLatency() {
+        return mLatency;
+    }
+
+    /**
+     * @return int approximate number of queued reports
+     */
+    int getQueueSize() {
+        return mQueue.size();
+    }
+
+    /**
+     * Parks the calling thread until the sender has taken reports off the queue, see
+     * {@link ReportSender#awaitQueueBelow(int, long)}
+     *
+     * @param size int the queue size to wait for the queue to drop below
+     * @param deadlineNanos long System.nanoTime() to return at, 0 to wait without a limit
+     */
+    void awaitQueueBelow(int size, long deadlineNanos) {
+        mSender.awaitQueueBelow(size, deadlineNanos);
+    }
+
+    /**
+     * @return int the number of notifications waiting for a confirmation
+     */
+    int getInFlight() {
+        return mSender.getInFlight();
+    }
+
+    /**
+     * @return long the number of key events that left the state unchanged and queued no report
+     */
+    long getSuppressedCount() {
+        return mSuppressed.get();
+    }
+
+    /**
+     * @return int number of queued reports up to which presses are admitted
+     */
+    int getPressLimit() {
+        return mPressLimit;
+    }
+
+    /**
+     * @param lane int LANE_ constant
+     * @return int approximate number of queued reports of the lane
+     */
+    int getLaneSize(int lane) {
+        return mQueue.laneSize(lane);
+    }
+
+    /**
+     * @param lane int LANE_ constant
+     * @return long the number of inputs of the lane dropped because the lane was full
+     */
+    long getDroppedCount(int lane) {
+        return mDropped.get(lane);
+    }
+
+    /**
+     * @return long the number of state changes that found the queue full and were sent as
+     * state reports later
+     */
+    long getSyncCount() {
+        return mSynced.get();
+    }
+
+    /**
+     * @param lane int LANE_ constant
+     * @return long the number of reports of the lane dropped for missing their deadline
+     */
+    long getExpiredCount(int lane) {
+        return mExpired.get(lane);
+    }
+
+    /**
+     * @return long the number of reports the transport failed to send
+     */
+    long getFailedCount() {
+        return mFailed.get();
+    }
+
+    /**
+     * Current keyboard, consumer or button state that still has to reach the host, taken when
+     * the queue is empty
+     */
+    private final class StateSync implements ReportSender.PendingReport {
+
+        static final int KEYBOARD = 1;
+        static final int CONSUMER = 1 << 1;
+        static final int POINTER = 1 << 2;
+
+        private final AtomicInteger mReports = new AtomicInteger();
+        private int mReportId;
+
+        void request(int reports) {
+            int current;
+            do {
+                current = mReports.get();
+            } while (!mReports.compareAndSet(current, current | reports));
+        }
+
+        void clear() {
+            mReports.set(0);
+        }
+
+        @Override
+        public int getReportId() {
+            return mReportId;
+        }
+
+        @Override
+        public boolean hasPending() {
+            return mReports.get() != 0;
+        }
+
+        @Override
+        public int take(byte[] dst, int offset) {
+            int current;
+            int report;
+            do {
+                current = mReports.get();
+                if (current == 0) {
+                    return 0;
+                }
+                report = Integer.lowestOneBit(current);
+            } while (!mReports.compareAndSet(current, current & ~report));
+            if (report == KEYBOARD) {
+                mReportId = KeyManager.REPORT_ID;
+                return mKeyManager.build(dst, offset);
+            }
+            if (report == CONSUMER) {
+                mReportId = ConsumerControl.REPORT_ID;
+                return mConsumerControl.build(dst, offset);
+            }
+            mReportId = PointerMotion.REPORT_ID;
+            return mPointer.build(dst, offset);
+        }
+
+        @Override
+        public long getOriginNanos() {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,338 @@
+/*
+ * If not stated otherwise in this file or this component's Licenses.txt file the
+ * following copyright and licenses apply:
+ *
+ * Copyright 2016 RDK Management
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.service;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class implements a fixed-capacity ring of HID report slots.
+ *
+ * All slots are preallocated in one byte array. Producers claim a slot, write the report
+ * straight into it and commit it; the sender acquires the oldest committed slot, copies it
+ * out and releases it. Claims and acquires are lock-free (bounded MPMC queue with per-slot
+ * sequence numbers), so nothing is allocated once the ring exists. Every slot also carries
+ * two timestamps for latency tracking: when the input started and when the report was queued.
+ *
+ * Slots are tagged with a lane, the ring keeps count of the waiting reports per lane so that
+ * producers can keep room for the reports that matter most. The lanes share one ring and
+ * leave in commit order. A slot may also carry a deadline after which its report is not
+ * worth sending any more.
+ *
+ * @version 1.0.0
+ */
+class ReportRing {
+
+    private final int mSlotSize;
+    private final int mMask;
+    private final byte[] mData;
+    private final int[] mLength;
+    private final long[] mOriginNanos;
+    private final long[] mQueuedNanos;
+    private final long[] mDeadlineNanos;
+    private final int[] mLane;
+    private final AtomicLongArray mSequence;
+    private final AtomicIntegerArray mLaneSize;
+
+    private final AtomicLong mTail = new AtomicLong();
+    private final AtomicLong mHead = new AtomicLong();
+
+    /**
+     * Constructor
+     *
+     * @param capacity int number of slots, rounded up to a power of two
+     * @param slotSize int maximum report length in bytes
+     */
+    ReportRing(int capacity, int slotSize) {
+        this(capacity, slotSize, 1);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param capacity int number of slots, rounded up to a power of two
+     * @param slotSize int maximum report length in bytes
+     * @param lanes int number of lanes the slots are tagged with
+     */
+    ReportRing(int capacity, int slotSize, int lanes) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        mSlotSize = slotSize;
+        mMask = size - 1;
+        mData = new byte[size * slotSize];
+        mLength = new int[size];
+        mOriginNanos = new long[size];
+        mQueuedNanos = new long[size];
+        mDeadlineNanos = new long[size];
+        mLane = new int[size];
+        mLaneSize = new AtomicIntegerArray(Math.max(1, lanes));
+        mSequence = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            mSequence.set(i, i);
+        }
+    }
+
+    /**
+     * @return int number of slots
+     */
+    int capacity() {
+        return mMask + 1;
+    }
+
+    /**
+     * @return int maximum report length in bytes
+     */
+    int slotSize() {
+        return mSlotSize;
+    }
+
+    /**
+     * @return byte[] the backing array, slots start at {@link #offset(long)}
+     */
+    byte[] buffer() {
+        return mData;
+    }
+
+    /**
+     * @param position long a position returned by {@link #claim()} or {@link #acquire()}
+     * @return int offset of the slot in {@link #buffer()}
+     */
+    int offset(long position) {
+        return (int) (position & mMask) * mSlotSize;
+    }
+
+    /**
+     * Claims the next free slot for writing
+     *
+     * @return long the slot position, or -1 when the ring is full
+     */
+    long claim() {
+        long position = mTail.get();
+        while (true) {
+            long difference = mSequence.get((int) (position & mMask)) - position;
+            if (difference == 0) {
+                if (mTail.compareAndSet(position, position + 1)) {
+                    return position;
+                }
+                position = mTail.get();
+            } else if (difference < 0) {
+                return -1;
+            } else {
+                position = mTail.get();
+            }
+        }
+    }
+
+    /**
+     * Publishes a claimed slot to the sender
+     *
+     * @param position long the position returned by {@link #claim()}
+     * @param length int number of report bytes written to the slot
+     */
+    void commit(long position, int length) {
+        commit(position, length, 0, 0);
+    }
+
+    /**
+     * Publishes a claimed slot to the sender
+     *
+     * @param position long the position returned by {@link #claim()}
+     * @param length int number of report bytes written to the slot
+     * @param originNanos long timestamp the input started, 0 if unknown
+     * @param queuedNanos long timestamp the report was queued, 0 if unknown
+     */
+    void commit(long position, int length, long originNanos, long queuedNanos) {
+        commit(position, length, originNanos, queuedNanos, 0);
+    }
+
+    /**
+     * Publishes a claimed slot to the sender
+     *
+     * @param position long the position returned by {@link #claim()}
+     * @param length int number of report bytes written to the slot
+     * @param originNanos long timestamp the input started, 0 if unknown
+     * @param queuedNanos long timestamp the report was queued, 0 if unknown
+     * @param lane int the lane of the report
+     */
+    void commit(long position, int length, long originNanos, long queuedNanos, int lane) {
+        commit(position, length, originNanos, queuedNanos, lane, 0);
+    }
+
+    /**
+     * Publishes a claimed slot to the sender
+     *
+     * @param position long the position returned by {@link #claim()}
+     * @param length int number of report bytes written to the slot
+     * @param originNanos long timestamp the input started, 0 if unknown
+     * @param queuedNanos long timestamp the report was queued, 0 if unknown
+     * @param lane int the lane of the report
+     * @param deadlineNanos long timestamp after which the report is dropped, 0 for none
+     */
+    void commit(long position, int length, long originNanos, long queuedNanos, int lane, long deadlineNanos) {
+        int index = (int) (position & mMask);
+        mDeadlineNanos[index] = deadlineNanos;
+        mLane[index] = lane;
+        mLaneSize.incrementAndGet(lane);
+        mLength[index] = length;
+        mOriginNanos[index] = originNanos;
+        mQueuedNanos[index] = queuedNanos;
+        mSequence.set(index, position + 1);
+    }
+
+    /**
+     * Copies a report into the next free slot
+     *
+     * @param report byte[] the raw report data
+     * @param offset int start of the report in the array
+     * @param length int report length, at most {@link #slotSize()}
+     * @return true if the report was queued, false when the ring is full
+     */
+    boolean offer(byte[] report, int offset, int length) {
+        return offer(report, offset, length, 0, 0);
+    }
+
+    /**
+     * Copies a report into the next free slot
+     *
+     * @param report byte[] the raw report data
+     * @param offset int start of the report in the array
+     * @param length int report length, at most {@link #slotSize()}
+     * @param originNanos long timestamp the input started, 0 if unknown
+     * @param queuedNanos long timestamp the report was queued, 0 if unknown
+     * @return true if the report was queued, false when the ring is full
+     */
+    boolean offer(byte[] report, int offset, int length, long originNanos, long queuedNanos) {
+        if (length > mSlotSize) {
+            throw new IllegalArgumentException("Report of " + length + " bytes exceeds slot size " + mSlotSize);
+        }
+        long position = claim();
+        if (position < 0) {
+            return false;
+        }
+        System.arraycopy(report, offset, mData, offset(position), length);
+        commit(position, length, originNanos, queuedNanos);
+        return true;
+    }
+
+    /**
+     * Takes the oldest committed slot for reading
+     *
+     * @return long the slot position, or -1 when no report is waiting
+     */
+    long acquire() {
+        long position = mHead.get();
+        while (true) {
+            long difference = mSequence.get((int) (position & mMask)) - (position + 1);
+            if (difference == 0) {
+                if (mHead.compareAndSet(position, position + 1)) {
+                    return position;
+                }
+                position = mHead.get();
+            } else if (difference < 0) {
+                return -1;
+            } else {
+                position = mHead.get();
+            }
+        }
+    }
+
+    /**
+     * @param position long the position returned by {@link #acquire()}
+     * @return int the length of the report in the slot
+     */
+    int length(long position) {
+        return mLength[(int) (position & mMask)];
+    }
+
+    /**
+     * @param position long the position returned by {@link #acquire()}
+     * @return long timestamp the input of the report started, 0 if unknown
+     */
+    long originNanos(long position) {
+        return mOriginNanos[(int) (position & mMask)];
+    }
+
+    /**
+     * @param position long the position returned by {@link #acquire()}
+     * @return long timestamp the report was queued, 0 if unknown
+     */
+    long queuedNanos(long position) {
+        return mQueuedNanos[(int) (position & mMask)];
+    }
+
+    /**
+     * @param position long the position returned by {@link #acquire()}
+     * @return long timestamp after which the report in the slot is dropped, 0 for none
+     */
+    long deadlineNanos(long position) {
+        return mDeadlineNanos[(int) (position & mMask)];
+    }
+
+    /**
+     * @param position long the position returned by {@link #acquire()}
+     * @return int the lane of the report in the slot
+     */
+    int lane(long position) {
+        return mLane[(int) (position & mMask)];
+    }
+
+    /**
+     * Hands an acquired slot back to the producers
+     *
+     * @param position long the position returned by {@link #acquire()}
+     */
+    void release(long position) {
+        int index = (int) (position & mMask);
+        mLaneSize.decrementAndGet(mLane[index]);
+        mSequence.set(index, position + mMask + 1);
+    }
+
+    /**
+     * @return true if no report is waiting
+     */
+    boolean isEmpty() {
+        return mHead.get() >= mTail.get();
+    }
+
+    /**
+     * @return int approximate number of waiting reports
+     */
+    int size() {
+        return (int) Math.max(0, mTail.get() - mHead.get());
+    }
+
+    /**
+     * @param lane int a lane
+     * @return int number of committed reports of the lane waiting to be sent
+     */
+    int laneSize(int lane) {
+        return mLaneSize.get(lane);
+    }
+
+    /**
+     * Drops every committed report
+     */
+    void clear() {
+        long position;
+        while ((position = acquire()) >= 0) {
+            release(position);
+        }
+    }
+}
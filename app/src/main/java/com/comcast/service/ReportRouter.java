@@ -0,0 +1,346 @@
+/*
+ * If not stated otherwise in this file or this component's Licenses.txt file the
+ * following copyright and licenses apply:
+ *
+ * Copyright 2016 RDK Management
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.comcast.service;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * This class fans input out to the connected hosts. Every host has a {@link ReportPipeline}
+ * of its own: key state, report queue and pacing, so a slow or lossy host only backs up its
+ * own queue. Input goes to all hosts (broadcast) or to the one target host.
+ *
+ * The hosts are published as an immutable array, input is routed with a single volatile load.
+ *
+ * @version 1.0.0
+ */
+class ReportRouter {
+
+    /**
+     * Decides which hosts stay registered
+     */
+    interface Filter {
+
+        /**
+         * @param address String the Bluetooth address of a registered host
+         * @return true if the host should keep receiving input reports
+         */
+        boolean accept(String address);
+    }
+
+    /**
+     * A connected host and its pipeline
+     */
+    static final class Host {
+
+        /**
+         * The Bluetooth address of the host
+         */
+        final String address;
+
+        /**
+         * The reports for this host
+         */
+        final ReportPipeline pipeline;
+
+        // types the text injections for this host one after the other, created on first use
+        private ExecutorService mTextExecutor;
+        private boolean mClosed;
+
+        Host(String address, ReportPipeline pipeline) {
+            this.address = address;
+            this.pipeline = pipeline;
+        }
+
+        /**
+         * Types a text injection after the ones already running for this host
+         *
+         * @param textInjector TextInjector the injection
+         */
+        synchronized void executeText(TextInjector textInjector) {
+            if (mClosed) {
+                textInjector.cancel();
+                return;
+            }
+            if (mTextExecutor == null) {
+                mTextExecutor = Executors.newSingleThreadExecutor(
+                        runnable -> new Thread(runnable, "text-" + address));
+            }
+            mTextExecutor.execute(textInjector);
+        }
+
+        /**
+         * Drops the queued reports and cancels the text injections
+         */
+        synchronized void close() {
+            mClosed = true;
+            if (mTextExecutor != null) {
+                mTextExecutor.shutdownNow();
+            }
+            pipeline.discard();
+            pipeline.onDisconnected();
+        }
+    }
+
+    private static final Host[] NO_HOSTS = new Host[0];
+
+    private volatile Host[] mHosts = NO_HOSTS;
+    // the host receiving the input, null to broadcast to all
+    private volatile String mTarget;
+
+    /**
+     * @return Host[] the registered hosts, the array must not be modified
+     */
+    Host[] hosts() {
+        return mHosts;
+    }
+
+    /**
+     * @param address String the Bluetooth address of a host
+     * @return Host the registered host or null
+     */
+    Host get(String address) {
+        for (Host host : mHosts) {
+            if (host.address.equalsIgnoreCase(address)) {
+                return host;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Registers a host
+     *
+     * @param address String the Bluetooth address of the host
+     * @param pipeline ReportPipeline the reports for the host
+     * @return Host the new host, or null if the address was registered already
+     */
+    synchronized Host add(String address, ReportPipeline pipeline) {
+        if (get(address) != null) {
+            return null;
+        }
+        Host host = new Host(address, pipeline);
+        Host[] hosts = mHosts;
+        Host[] updated = Arrays.copyOf(hosts, hosts.length + 1);
+        updated[hosts.length] = host;
+        mHosts = updated;
+        return host;
+    }
+
+    /**
+     * Unregisters and closes a host, e.g. after it disconnected
+     *
+     * @param address String the Bluetooth address of the host
+     * @return Host the removed host or null
+     */
+    synchronized Host remove(String address) {
+        Host host = get(address);
+        if (host != null) {
+            Host[] hosts = mHosts;
+            Host[] updated = new Host[hosts.length - 1];
+            int count = 0;
+            for (Host other : hosts) {
+                if (other != host) {
+                    updated[count++] = other;
+                }
+            }
+            mHosts = count == 0 ? NO_HOSTS : updated;
+            host.close();
+        }
+        return host;
+    }
+
+    /**
+     * Unregisters and closes every host the filter rejects
+     *
+     * @param filter Filter selecting the hosts to keep
+     * @return Host[] the removed hosts
+     */
+    synchronized Host[] retain(Filter filter) {
+        Host[] hosts = mHosts;
+        Host[] kept = new Host[hosts.length];
+        Host[] removed = new Host[hosts.length];
+        int keptCount = 0;
+        int removedCount = 0;
+        for (Host host : hosts) {
+            if (filter.accept(host.address)) {
+                kept[keptCount++] = host;
+            } else {
+                host.close();
+                removed[removedCount++] = host;
+            }
+        }
+        if (removedCount != 0) {
+            mHosts = keptCount == 0 ? NO_HOSTS : Arrays.copyOf(kept, keptCount);
+        }
+        return Arrays.copyOf(removed, removedCount);
+    }
+
+    /**
+     * Unregisters and closes all hosts
+     *
+     * @return Host[] the removed hosts
+     */
+    synchronized Host[] clear() {
+        Host[] hosts = mHosts;
+        mHosts = NO_HOSTS;
+        for (Host host : hosts) {
+            host.close();
+        }
+        return hosts;
+    }
+
+    /**
+     * Selects the host receiving the input
+     *
+     * @param address String the Bluetooth address of the host, null to broadcast to all hosts
+     */
+    void setTarget(String address) {
+        mTarget = address;
+    }
+
+    /**
+     * @return String the Bluetooth address of the host receiving the input, null when broadcasting
+     */
+    String getTarget() {
+        return mTarget;
+    }
+
+    /**
+     * @param host Host a registered host
+     * @return true if the host receives the input
+     */
+    boolean isTarget(Host host) {
+        String target = mTarget;
+        return target == null || target.equalsIgnoreCase(host.address);
+    }
+
+    /**
+     * See {@link ReportPipeline#sendKey(int, boolean, long, long)}
+     *
+     * @return true if the report was queued for every target, false when a queue is full
+     */
+    boolean sendKey(int keyCode, boolean down, long touchNanos, long submitNanos) {
+        boolean queued = true;
+        for (Host host : mHosts) {
+            if (isTarget(host)) {
+                queued &= host.pipeline.sendKey(keyCode, down, touchNanos, submitNanos);
+            }
+        }
+        return queued;
+    }
+
+    /**
+     * See {@link ReportPipeline#sendKeys(int[], boolean, long, long)}
+     *
+     * @return true if the report was queued for every target, false when a queue is full
+     */
+    boolean sendKeys(int[] keyCodes, boolean down, long touchNanos, long submitNanos) {
+        boolean queued = true;
+        for (Host host : mHosts) {
+            if (isTarget(host)) {
+                queued &= host.pipeline.sendKeys(keyCodes, down, touchNanos, submitNanos);
+            }
+        }
+        return queued;
+    }
+
+    /**
+     * See {@link ReportPipeline#sendChord(int[], long, long)}
+     *
+     * @return true if the reports were queued for every target, false when a queue is full
+     */
+    boolean sendChord(int[] keyCodes, long touchNanos, long submitNanos) {
+        boolean queued = true;
+        for (Host host : mHosts) {
+            if (isTarget(host)) {
+                queued &= host.pipeline.sendChord(keyCodes, touchNanos, submitNanos);
+            }
+        }
+        return queued;
+    }
+
+    /**
+     * See {@link ReportPipeline#sendButton(int, boolean, long, long)}
+     *
+     * @return true if the reports were queued for every target, false when a queue is full
+     */
+    boolean sendButton(int layoutId, boolean repeat, long touchNanos, long submitNanos) {
+        boolean queued = true;
+        for (Host host : mHosts) {
+            if (isTarget(host)) {
+                queued &= host.pipeline.sendButton(layoutId, repeat, touchNanos, submitNanos);
+            }
+        }
+        return queued;
+    }
+
+    /**
+     * See {@link ReportPipeline#sendReport(int, byte[], int, int)}
+     *
+     * @return true if the report was queued for every target, false when a queue is full
+     */
+    boolean sendReport(int reportId, byte[] report, int offset, int length) {
+        boolean queued = true;
+        for (Host host : mHosts) {
+            if (isTarget(host)) {
+                queued &= host.pipeline.sendReport(reportId, report, offset, length);
+            }
+        }
+        return queued;
+    }
+
+    /**
+     * See {@link ReportPipeline#movePointer(int, int, int, long)}
+     */
+    void movePointer(int dx, int dy, int wheel, long touchNanos) {
+        for (Host host : mHosts) {
+            if (isTarget(host)) {
+                host.pipeline.movePointer(dx, dy, wheel, touchNanos);
+            }
+        }
+    }
+
+    /**
+     * See {@link ReportPipeline#sendPointerButtons(int, long, long)}
+     *
+     * @return true if the report was queued for every target, false when a queue is full
+     */
+    boolean sendPointerButtons(int buttons, long touchNanos, long submitNanos) {
+        boolean queued = true;
+        for (Host host : mHosts) {
+            if (isTarget(host)) {
+                queued &= host.pipeline.sendPointerButtons(buttons, touchNanos, submitNanos);
+            }
+        }
+        return queued;
+    }
+
+    /**
+     * Drops the queued reports of all hosts
+     */
+    void clearQueues() {
+        for (Host host : mHosts) {
+            host.pipeline.clear();
+        }
+    }
+}
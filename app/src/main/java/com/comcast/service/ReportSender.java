@@ -0,0 +1,450 @@
+/*
+ * If not stated otherwise in this file or this component's Licenses.txt file the
+ * following copyright and licenses apply:
+ *
+ * Copyright 2016 RDK Management
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.service;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * This class paces HID input report notifications.
+ *
+ * Instead of polling the report queue on a fixed timer, the sender holds a number of
+ * credits, one per notification allowed in flight. Sending a report spends a credit and
+ * every onNotificationSent confirmation returns one, so the queue drains as fast as the
+ * link confirms. When the queue is empty no drain is scheduled and nothing runs.
+ *
+ * Input that is only worth sending in its latest state, like pointer motion, is offered by a
+ * {@link PendingReport} and taken whenever the queue is empty and a credit is free, so it is
+ * sent once per transmit opportunity instead of once per change. Pending reports are taken
+ * in the order they were given to the constructor.
+ *
+ * A queued report that is past its deadline when its turn comes, e.g. after the link has
+ * stalled, is dropped without spending a credit and handed to the {@link ExpiryListener}.
+ * A report the transport fails to send is handed to the {@link FailureListener} and the
+ * drain stops, the next one follows after a delay that grows while sends keep failing.
+ *
+ * Confirmations that never arrive are written off after the confirm timeout. When all credits
+ * are spent and reports are waiting, a drain is scheduled for the moment the timeout runs
+ * out, so a lost confirmation can't hold a queued release back until the next input.
+ *
+ * Confirmations are matched to notifications in send order to feed the notify and
+ * end-to-end stages of {@link InputLatency}.
+ *
+ * @version 1.0.0
+ */
+class ReportSender {
+
+    /**
+     * Input state that is coalesced until the link has room for it
+     */
+    interface PendingReport {
+
+        /**
+         * @return int Report ID of the report
+         */
+        int getReportId();
+
+        /**
+         * @return true if there is something to send
+         */
+        boolean hasPending();
+
+        /**
+         * Builds the report and marks its content as sent
+         *
+         * @param dst byte[] destination
+         * @param offset int start of the report in dst
+         * @return int the report length, 0 if there is nothing to send
+         */
+        int take(byte[] dst, int offset);
+
+        /**
+         * @return long timestamp of the earliest input in the report taken last, 0 if unknown
+         */
+        long getOriginNanos();
+    }
+
+    /**
+     * Runs a task after a delay, e.g. Handler.postDelayed
+     */
+    interface Scheduler {
+
+        /**
+         * @param task Runnable the task
+         * @param delayMs long the delay in milliseconds
+         */
+        void postDelayed(Runnable task, long delayMs);
+    }
+
+    /**
+     * Receives the reports dropped for missing their deadline
+     */
+    interface ExpiryListener {
+
+        /**
+         * Called on the sender's executor for every expired report
+         *
+         * @param reportId int Report ID of the report
+         * @param lane int the lane the report was queued in
+         */
+        void onExpired(int reportId, int lane);
+    }
+
+    /**
+     * Receives the reports the transport failed to send
+     */
+    interface FailureListener {
+
+        /**
+         * Called on the sender's executor for every report that didn't go out, the report
+         * has left the queue already and has to be made up for by the state it was part of
+         *
+         * @param reportId int Report ID of the report
+         */
+        void onSendFailed(int reportId);
+    }
+
+    // first delay before a drain after a failed send, doubled while sends keep failing
+    private static final long SEND_RETRY_MS = 10;
+
+    private final ReportRing mQueue;
+    private final ExpiryListener mExpiryListener;
+    private final FailureListener mFailureListener;
+    private final PendingReport[] mPending;
+    private final byte[] mPendingBuffer;
+    private final byte[][] mTransmitBuffers;
+    private final int mMaxInFlight;
+    private final long mConfirmTimeoutNanos;
+    private final Executor mExecutor;
+    private final Scheduler mScheduler;
+    private final HidTransport mTransport;
+    private final InputLatency mLatency;
+    private final InFlightStamps mInFlightStamps = new InFlightStamps();
+
+    private final AtomicInteger mInFlight = new AtomicInteger();
+    private final AtomicBoolean mDrainScheduled = new AtomicBoolean();
+    private final AtomicBoolean mRetryScheduled = new AtomicBoolean();
+    private volatile long mLastProgressNanos;
+    // consecutive failed sends, only accessed by the drain
+    private int mFailures;
+    // thread parked until fewer than mWaitSize reports are queued, see awaitQueueBelow
+    private volatile Thread mWaiter;
+    private volatile int mWaitSize;
+
+    private final Runnable mDrain = this::drain;
+    private final Runnable mRetry = () -> {
+        mRetryScheduled.set(false);
+        schedule();
+    };
+
+    /**
+     * Constructor
+     *
+     * @param queue ReportRing of reports waiting to be sent
+     * @param maxInFlight int the number of notifications allowed to be unconfirmed at once
+     * @param confirmTimeoutMs long time after which missing confirmations are written off
+     * @param executor Executor the drain runs on, all notifications are issued from it
+     * @param scheduler Scheduler running the drain that writes lost confirmations off, may be
+     * null to leave that to the next input
+     * @param transport HidTransport delivering the reports
+     * @param latency InputLatency receiving the send timings, may be null
+     * @param expiryListener ExpiryListener told about expired reports, may be null
+     * @param failureListener FailureListener told about reports that failed to send, may be null
+     * @param pending PendingReport sent whenever the queue is empty, first one first
+     */
+    ReportSender(ReportRing queue, int maxInFlight, long confirmTimeoutMs, Executor executor,
+                 Scheduler scheduler, HidTransport transport, InputLatency latency,
+                 ExpiryListener expiryListener, FailureListener failureListener, PendingReport... pending) {
+        mQueue = queue;
+        mExpiryListener = expiryListener;
+        mFailureListener = failureListener;
+        mPending = pending;
+        mPendingBuffer = new byte[queue.slotSize()];
+        mTransmitBuffers = new byte[queue.slotSize() + 1][];
+        mMaxInFlight = Math.max(1, maxInFlight);
+        mConfirmTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(confirmTimeoutMs);
+        mExecutor = executor;
+        mScheduler = scheduler;
+        mTransport = transport;
+        mLatency = latency;
+    }
+
+    /**
+     * Wakes the sender up after reports were queued. Calls are coalesced into a single drain.
+     */
+    void schedule() {
+        if (mDrainScheduled.compareAndSet(false, true)) {
+            mExecutor.execute(mDrain);
+        }
+    }
+
+    /**
+     * Returns a credit, called from onNotificationSent
+     */
+    void onNotificationSent() {
+        int inFlight;
+        do {
+            inFlight = mInFlight.get();
+            if (inFlight == 0) {
+                break;
+            }
+        } while (!mInFlight.compareAndSet(inFlight, inFlight - 1));
+        long now = System.nanoTime();
+        mLastProgressNanos = now;
+        if (mLatency != null) {
+            mInFlightStamps.confirm(mLatency, now);
+            mLatency.recordFirstReport(now);
+        }
+        if (hasWork()) {
+            schedule();
+        }
+    }
+
+    /**
+     * Forgets all outstanding notifications, e.g. after the host has disconnected
+     */
+    void reset() {
+        mInFlight.set(0);
+        mInFlightStamps.clear();
+        mLastProgressNanos = System.nanoTime();
+        if (hasWork()) {
+            schedule();
+        }
+    }
+
+    /**
+     * @return int the number of notifications waiting for a confirmation
+     */
+    int getInFlight() {
+        return mInFlight.get();
+    }
+
+    /**
+     * Parks the calling thread until fewer than the given number of reports are queued. The
+     * drain unparks it as it takes reports off the queue; one thread may wait at a time.
+     * Returns early when the thread is interrupted or unparked otherwise, callers check again.
+     *
+     * @param size int the queue size to wait for the queue to drop below
+     * @param deadlineNanos long System.nanoTime() to return at, 0 to wait without a limit
+     */
+    void awaitQueueBelow(int size, long deadlineNanos) {
+        mWaitSize = size;
+        mWaiter = Thread.currentThread();
+        // registered before looking at the queue, a report taken off in between still unparks
+        if (mQueue.size() >= size) {
+            if (deadlineNanos == 0) {
+                LockSupport.park(this);
+            } else {
+                LockSupport.parkNanos(this, deadlineNanos - System.nanoTime());
+            }
+        }
+        mWaiter = null;
+    }
+
+    /**
+     * Unparks the thread in {@link #awaitQueueBelow(int, long)} once the queue is small enough,
+     * called whenever reports leave the queue
+     */
+    void signalWaiter() {
+        Thread waiter = mWaiter;
+        if (waiter != null && mQueue.size() < mWaitSize) {
+            LockSupport.unpark(waiter);
+        }
+    }
+
+    private void drain() {
+        // the scheduled flag stays set while draining, so confirmations delivered synchronously
+        // by the transport don't start a nested drain; the loop below picks their credits up
+        boolean failed = false;
+        do {
+            if (mInFlight.get() >= mMaxInFlight
+                    && System.nanoTime() - mLastProgressNanos > mConfirmTimeoutNanos) {
+                // confirmations got lost, don't stall the queue forever
+                mInFlight.set(0);
+                mInFlightStamps.clear();
+            }
+            while (!failed && mInFlight.get() < mMaxInFlight) {
+                int reportId;
+                byte[] report;
+                long originNanos;
+                long queuedNanos;
+                long position = mQueue.acquire();
+                if (position >= 0) {
+                    // the slot holds the Report ID followed by the report
+                    int offset = mQueue.offset(position);
+                    reportId = mQueue.buffer()[offset] & 0xFF;
+                    long deadlineNanos = mQueue.deadlineNanos(position);
+                    if (deadlineNanos != 0 && System.nanoTime() - deadlineNanos > 0) {
+                        int lane = mQueue.lane(position);
+                        mQueue.release(position);
+                        signalWaiter();
+                        if (mExpiryListener != null) {
+                            mExpiryListener.onExpired(reportId, lane);
+                        }
+                        continue;
+                    }
+                    report = transmitBuffer(mQueue.length(position) - 1);
+                    System.arraycopy(mQueue.buffer(), offset + 1, report, 0, report.length);
+                    originNanos = mQueue.originNanos(position);
+                    queuedNanos = mQueue.queuedNanos(position);
+                    mQueue.release(position);
+                    signalWaiter();
+                } else {
+                    // nothing queued, send what has been coalesced since the last notification
+                    PendingReport pending = null;
+                    int length = 0;
+                    for (int i = 0; i < mPending.length && length == 0; i++) {
+                        pending = mPending[i];
+                        length = pending.take(mPendingBuffer, 0);
+                    }
+                    if (length == 0) {
+                        break;
+                    }
+                    reportId = pending.getReportId();
+                    report = transmitBuffer(length);
+                    System.arraycopy(mPendingBuffer, 0, report, 0, length);
+                    originNanos = pending.getOriginNanos();
+                    queuedNanos = 0;
+                }
+                long notifyNanos = System.nanoTime();
+                // spend the credit before sending, the transport may confirm before send returns
+                if (mInFlight.getAndIncrement() == 0) {
+                    mLastProgressNanos = notifyNanos;
+                }
+                if (mLatency != null) {
+                    mLatency.record(InputLatency.STAGE_ENQUEUE_TO_NOTIFY, queuedNanos, notifyNanos);
+                    mInFlightStamps.add(originNanos, notifyNanos, 1);
+                }
+                int sent = mTransport.send(reportId, report);
+                if (sent != 1) {
+                    mInFlight.addAndGet(sent - 1);
+                    if (mLatency != null) {
+                        mInFlightStamps.add(originNanos, notifyNanos, sent - 1);
+                    }
+                }
+                if (sent == 0) {
+                    // the report is gone, the state it was part of goes out once the link takes it
+                    failed = true;
+                    mFailures++;
+                    if (mFailureListener != null) {
+                        mFailureListener.onSendFailed(reportId);
+                    }
+                } else {
+                    mFailures = 0;
+                }
+            }
+            mDrainScheduled.set(false);
+        } while (!failed
+                && mInFlight.get() < mMaxInFlight
+                && hasWork()
+                && mDrainScheduled.compareAndSet(false, true));
+        if (failed) {
+            // retrying right away would spin while the link refuses notifications
+            long delayMs = Math.min(TimeUnit.NANOSECONDS.toMillis(mConfirmTimeoutNanos),
+                    SEND_RETRY_MS << Math.min(mFailures - 1, 16));
+            scheduleRetry(Math.max(1, delayMs));
+        } else if (mInFlight.get() >= mMaxInFlight && hasWork()) {
+            // no credit left: if the confirmations got lost nothing else would start a drain
+            long remainingNanos = mLastProgressNanos + mConfirmTimeoutNanos - System.nanoTime();
+            scheduleRetry(Math.max(0, TimeUnit.NANOSECONDS.toMillis(remainingNanos)) + 1);
+        }
+    }
+
+    private void scheduleRetry(long delayMs) {
+        if (mScheduler != null && mRetryScheduled.compareAndSet(false, true)) {
+            mScheduler.postDelayed(mRetry, delayMs);
+        }
+    }
+
+    private boolean hasWork() {
+        if (!mQueue.isEmpty()) {
+            return true;
+        }
+        for (PendingReport pending : mPending) {
+            if (pending.hasPending()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Timestamps of the unconfirmed notifications, oldest first
+     */
+    private static class InFlightStamps {
+
+        private static final int CAPACITY = 64;
+
+        private final long[] mOriginNanos = new long[CAPACITY];
+        private final long[] mNotifyNanos = new long[CAPACITY];
+        private int mHead;
+        private int mSize;
+
+        /**
+         * @param originNanos long timestamp the input started
+         * @param notifyNanos long timestamp of the notification
+         * @param count int number of notifications sent, negative to take back the newest ones
+         */
+        synchronized void add(long originNanos, long notifyNanos, int count) {
+            if (count < 0) {
+                mSize = Math.max(0, mSize + count);
+                return;
+            }
+            for (int i = 0; i < count && mSize < CAPACITY; i++, mSize++) {
+                int index = (mHead + mSize) & (CAPACITY - 1);
+                mOriginNanos[index] = originNanos;
+                mNotifyNanos[index] = notifyNanos;
+            }
+        }
+
+        synchronized void confirm(InputLatency latency, long confirmNanos) {
+            if (mSize == 0) {
+                return;
+            }
+            latency.record(InputLatency.STAGE_NOTIFY_TO_CONFIRM, mNotifyNanos[mHead], confirmNanos);
+            latency.record(InputLatency.STAGE_TOTAL, mOriginNanos[mHead], confirmNanos);
+            mHead = (mHead + 1) & (CAPACITY - 1);
+            mSize--;
+        }
+
+        synchronized void clear() {
+            mSize = 0;
+        }
+    }
+
+    /**
+     * The notification value has to be an array of the exact report length,
+     * keep one per length so that sending does not allocate.
+     *
+     * @param length int report length
+     * @return byte[] the buffer
+     */
+    private byte[] transmitBuffer(int length) {
+        byte[] buffer = mTransmitBuffers[length];
+        if (buffer == null) {
+            buffer = new byte[length];
+            mTransmitBuffers[length] = buffer;
+        }
+        return buffer;
+    }
+}
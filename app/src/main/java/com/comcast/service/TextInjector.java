@@ -0,0 +1,369 @@
+/*
+ * If not stated otherwise in this file or this component's Licenses.txt file the
+ * following copyright and licenses apply:
+ *
+ * Copyright 2016 RDK Management
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.comcast.service;
+
+import android.view.KeyEvent;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * This class types a text into the host as a stream of keyboard reports.
+ *
+ * The text is read incrementally, at most a few reports are queued ahead of the link, so
+ * arbitrarily long input does not fill the report queue and a button pressed meanwhile is
+ * not stuck behind it. Runs of characters with the same shift state share one shift press,
+ * and each character is pressed while the previous one is still held (two-key rollover), so
+ * a character costs one report instead of a press and a release. A character repeating the
+ * held key gets a release report in between.
+ *
+ * The reports are built from a key state of their own, keys held through the pipeline while
+ * text is typed are not part of them. Only characters of the US layout are typed, others are
+ * skipped.
+ *
+ * @version 1.0.0
+ */
+public class TextInjector implements Runnable {
+
+    /**
+     * Receives the progress of a text injection, called on the typing thread
+     */
+    public interface Listener {
+
+        /**
+         * Called after every character read from the input
+         *
+         * @param characters int the number of characters processed so far
+         */
+        void onProgress(int characters);
+
+        /**
+         * Called once when the injection ends
+         *
+         * @param characters int the number of characters processed
+         * @param completed boolean false if the injection was cancelled or the input failed
+         */
+        void onFinished(int characters, boolean completed);
+    }
+
+    // Flag marking characters typed with shift held
+    private static final int SHIFT = 0x10000;
+
+    // Character to Android key code, the single source of the lookup table
+    private static final int[] CHARACTER_SOURCE = {
+            ' ', KeyEvent.KEYCODE_SPACE,
+            '\n', KeyEvent.KEYCODE_ENTER,
+            '\t', KeyEvent.KEYCODE_TAB,
+            '-', KeyEvent.KEYCODE_MINUS,
+            '=', KeyEvent.KEYCODE_EQUALS,
+            '[', KeyEvent.KEYCODE_LEFT_BRACKET,
+            ']', KeyEvent.KEYCODE_RIGHT_BRACKET,
+            '\\', KeyEvent.KEYCODE_BACKSLASH,
+            ';', KeyEvent.KEYCODE_SEMICOLON,
+            '\'', KeyEvent.KEYCODE_APOSTROPHE,
+            '`', KeyEvent.KEYCODE_GRAVE,
+            ',', KeyEvent.KEYCODE_COMMA,
+            '.', KeyEvent.KEYCODE_PERIOD,
+            '/', KeyEvent.KEYCODE_SLASH,
+            '!', SHIFT | KeyEvent.KEYCODE_1,
+            '@', SHIFT | KeyEvent.KEYCODE_2,
+            '#', SHIFT | KeyEvent.KEYCODE_3,
+            '$', SHIFT | KeyEvent.KEYCODE_4,
+            '%', SHIFT | KeyEvent.KEYCODE_5,
+            '^', SHIFT | KeyEvent.KEYCODE_6,
+            '&', SHIFT | KeyEvent.KEYCODE_7,
+            '*', SHIFT | KeyEvent.KEYCODE_8,
+            '(', SHIFT | KeyEvent.KEYCODE_9,
+            ')', SHIFT | KeyEvent.KEYCODE_0,
+            '_', SHIFT | KeyEvent.KEYCODE_MINUS,
+            '+', SHIFT | KeyEvent.KEYCODE_EQUALS,
+            '{', SHIFT | KeyEvent.KEYCODE_LEFT_BRACKET,
+            '}', SHIFT | KeyEvent.KEYCODE_RIGHT_BRACKET,
+            '|', SHIFT | KeyEvent.KEYCODE_BACKSLASH,
+            ':', SHIFT | KeyEvent.KEYCODE_SEMICOLON,
+            '"', SHIFT | KeyEvent.KEYCODE_APOSTROPHE,
+            '~', SHIFT | KeyEvent.KEYCODE_GRAVE,
+            '<', SHIFT | KeyEvent.KEYCODE_COMMA,
+            '>', SHIFT | KeyEvent.KEYCODE_PERIOD,
+            '?', SHIFT | KeyEvent.KEYCODE_SLASH,
+    };
+
+    // Lookup table indexed by character, built once
+    private static final int[] sCharacterTable = buildTable();
+
+    // Longest wait for the sender to unpark the typing thread, a backstop for a queue that
+    // refuses reports without holding any
+    private static final long WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    // Time the final release may wait for room in the queue
+    private static final long RELEASE_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    // Characters read from the input at once
+    private static final int READ_CHUNK = 64;
+
+    private final ReportPipeline mReportPipeline;
+    private final CharSequence mText;
+    private final Reader mReader;
+    private final Listener mListener;
+    private final int mMaxQueued;
+    private final KeyManager mKeys = new KeyManager();
+    private final byte[] mReport = new byte[KeyManager.MAX_REPORT_SIZE];
+    // the held keys, oldest first
+    private final int[] mHeld = new int[2];
+    private int mHeldCount;
+    private boolean mShift;
+
+    private volatile boolean mCancelled;
+    private volatile boolean mFinished;
+    // the typing thread, unparked by cancel()
+    private volatile Thread mThread;
+
+    /**
+     * Creates an injection typing a text
+     *
+     * @param reportPipeline ReportPipeline the reports are queued on
+     * @param text CharSequence the text, read as it is typed
+     * @param maxQueued int the number of reports queued ahead of the link at most
+     * @param listener Listener receiving the progress, may be null
+     */
+    TextInjector(ReportPipeline reportPipeline, CharSequence text, int maxQueued, Listener listener) {
+        this(reportPipeline, text, null, maxQueued, listener);
+    }
+
+    /**
+     * Creates an injection typing the characters of a reader, the reader is closed at the end
+     *
+     * @param reportPipeline ReportPipeline the reports are queued on
+     * @param reader Reader the input
+     * @param maxQueued int the number of reports queued ahead of the link at most
+     * @param listener Listener receiving the progress, may be null
+     */
+    TextInjector(ReportPipeline reportPipeline, Reader reader, int maxQueued, Listener listener) {
+        this(reportPipeline, null, reader, maxQueued, listener);
+    }
+
+    private TextInjector(ReportPipeline reportPipeline, CharSequence text, Reader reader,
+                         int maxQueued, Listener listener) {
+        mReportPipeline = reportPipeline;
+        mText = text;
+        mReader = reader;
+        mMaxQueued = Math.max(1, maxQueued);
+        mListener = listener;
+    }
+
+    /**
+     * Stops typing after the current character, the held keys are released
+     */
+    public void cancel() {
+        mCancelled = true;
+        Thread thread = mThread;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    private boolean isCancelled() {
+        // interrupting the typing thread cancels as well
+        return mCancelled || Thread.currentThread().isInterrupted();
+    }
+
+    /**
+     * @return true once the injection has ended
+     */
+    public boolean isFinished() {
+        return mFinished;
+    }
+
+    /**
+     * Types the text, blocks until it has been queued or the injection is cancelled
+     */
+    @Override
+    public void run() {
+        mThread = Thread.currentThread();
+        mKeys.setReportMode(mReportPipeline.getKeyManager().getReportMode());
+        char[] chunk = new char[READ_CHUNK];
+        int characters = 0;
+        boolean completed = true;
+        try {
+            int length;
+            while (!isCancelled() && (length = read(chunk, characters)) > 0) {
+                for (int i = 0; i < length && !isCancelled(); i++) {
+                    if (!type(chunk[i])) {
+                        break;
+                    }
+                    characters++;
+                    if (mListener != null) {
+                        mListener.onProgress(characters);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            completed = false;
+        } finally {
+            completed &= !isCancelled();
+            if (mHeldCount != 0 || mShift) {
+                // never leave a key held on the host
+                mKeys.releaseAll();
+                mHeldCount = 0;
+                mShift = false;
+                queue(System.nanoTime() + RELEASE_TIMEOUT_NANOS);
+            }
+            close();
+            mThread = null;
+            mFinished = true;
+            if (mListener != null) {
+                mListener.onFinished(characters, completed);
+            }
+        }
+    }
+
+    private int read(char[] chunk, int position) throws IOException {
+        if (mReader != null) {
+            return mReader.read(chunk, 0, chunk.length);
+        }
+        int length = Math.min(chunk.length, mText.length() - position);
+        for (int i = 0; i < length; i++) {
+            chunk[i] = mText.charAt(position + i);
+        }
+        return length;
+    }
+
+    private void close() {
+        if (mReader != null) {
+            try {
+                mReader.close();
+            } catch (IOException ignored) {
+                // nothing left to read
+            }
+        }
+    }
+
+    /**
+     * Queues the reports typing one character
+     *
+     * @return false if the injection was cancelled while waiting for the queue
+     */
+    private boolean type(char character) {
+        int entry = character < sCharacterTable.length ? sCharacterTable[character] : 0;
+        if (entry == 0) {
+            return true;
+        }
+        int keyCode = entry & ~SHIFT;
+        boolean shift = (entry & SHIFT) != 0;
+        if (shift != mShift) {
+            // change the modifier with no key down, then press the key under it
+            releaseHeld();
+            mShift = shift;
+            if (shift) {
+                mKeys.press(KeyEvent.KEYCODE_SHIFT_LEFT);
+            } else {
+                mKeys.release(KeyEvent.KEYCODE_SHIFT_LEFT);
+            }
+            if (!queue(0)) {
+                return false;
+            }
+        } else if (isHeld(keyCode)) {
+            // the host only sees a new press after a release
+            release(keyCode);
+            if (!queue(0)) {
+                return false;
+            }
+        }
+        if (mHeldCount == mHeld.length) {
+            // release the oldest key in the report pressing the new one
+            release(mHeld[0]);
+        }
+        mKeys.press(keyCode);
+        mHeld[mHeldCount++] = keyCode;
+        return queue(0);
+    }
+
+    private boolean isHeld(int keyCode) {
+        for (int i = 0; i < mHeldCount; i++) {
+            if (mHeld[i] == keyCode) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void release(int keyCode) {
+        mKeys.release(keyCode);
+        for (int i = 0; i < mHeldCount; i++) {
+            if (mHeld[i] == keyCode) {
+                System.arraycopy(mHeld, i + 1, mHeld, i, mHeldCount - i - 1);
+                mHeldCount--;
+                return;
+            }
+        }
+    }
+
+    private void releaseHeld() {
+        for (int i = 0; i < mHeldCount; i++) {
+            mKeys.release(mHeld[i]);
+        }
+        mHeldCount = 0;
+    }
+
+    /**
+     * Queues the current key state once the queue has room
+     *
+     * @param deadlineNanos long System.nanoTime() to give up at, 0 to wait until cancelled
+     * @return false if the report was not queued
+     */
+    private boolean queue(long deadlineNanos) {
+        int length = mKeys.build(mReport, 0);
+        while (true) {
+            int queued = mReportPipeline.getQueueSize();
+            if (queued < mMaxQueued && mReportPipeline.sendReport(KeyManager.REPORT_ID, mReport, 0, length)) {
+                return true;
+            }
+            long now = System.nanoTime();
+            if (deadlineNanos == 0 ? isCancelled() : now - deadlineNanos > 0) {
+                return false;
+            }
+            // the sender unparks this thread as reports leave the queue, a refused report waits
+            // for the queue to drop below the size it was refused at
+            long wakeNanos = now + WAIT_NANOS;
+            if (deadlineNanos != 0 && deadlineNanos - wakeNanos < 0) {
+                wakeNanos = deadlineNanos;
+            }
+            mReportPipeline.awaitQueueBelow(Math.min(queued, mMaxQueued), wakeNanos);
+        }
+    }
+
+    private static int[] buildTable() {
+        int[] table = new int[128];
+        for (int i = 0; i < 26; i++) {
+            table['a' + i] = KeyEvent.KEYCODE_A + i;
+            table['A' + i] = SHIFT | (KeyEvent.KEYCODE_A + i);
+        }
+        for (int i = 0; i < 10; i++) {
+            table['0' + i] = KeyEvent.KEYCODE_0 + i;
+        }
+        for (int i = 0; i < CHARACTER_SOURCE.length; i += 2) {
+            table[CHARACTER_SOURCE[i]] = CHARACTER_SOURCE[i + 1];
+        }
+        return table;
+    }
+}
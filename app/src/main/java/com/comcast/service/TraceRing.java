@@ -0,0 +1,233 @@
+/*
+ * If not stated otherwise in this file or this component's Licenses.txt file the
+ * following copyright and licenses apply:
+ *
+ * Copyright 2016 RDK Management
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.comcast.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class keeps the most recent HID events in a fixed-size binary ring: a timestamp, the
+ * event type, a small argument and up to {@link #MAX_DATA} bytes such as the report itself.
+ *
+ * Recording an event writes a few fields into a preallocated buffer and allocates nothing,
+ * so it can stay enabled on the report path in release builds. The ring is formatted on
+ * demand by {@link #dump(PrintWriter)}. Backed by a memory-mapped file it doubles as a
+ * flight recorder: the kernel keeps the records when the process dies, and the next start
+ * continues behind the records of the previous run.
+ *
+ * Records are written without locking. A record overwritten while it is dumped may be
+ * skipped or show mixed content, which is acceptable for a trace.
+ *
+ * @version 1.0.0
+ */
+public class TraceRing {
+
+    /**
+     * The ring was opened, data: System.currentTimeMillis() at that time
+     */
+    public static final int EVENT_START = 1;
+
+    /**
+     * A report was notified, arg: 1 if the notification was issued << 8 | Report ID, data: the report
+     */
+    public static final int EVENT_REPORT = 2;
+
+    /**
+     * A host connection changed, arg: new state, data: status, bond state and host address
+     */
+    public static final int EVENT_CONNECTION_STATE = 3;
+
+    /**
+     * A notification was confirmed, arg: status
+     */
+    public static final int EVENT_NOTIFICATION_SENT = 4;
+
+    /**
+     * Largest number of data bytes kept per record, longer data is truncated
+     */
+    public static final int MAX_DATA = 28;
+
+    private static final String[] EVENT_NAMES = {
+            "?", "START", "REPORT", "CONNECTION", "SENT"
+    };
+
+    // File header: magic, version, record size, capacity
+    private static final int MAGIC = 0x48494454; // "HIDT"
+    private static final short VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+
+    // Record layout, the sequence number is written last and is 0 while the record is written
+    private static final int SEQUENCE = 0;
+    private static final int TIME = 8;
+    private static final int TYPE = 16;
+    private static final int LENGTH = 17;
+    private static final int ARG = 18;
+    private static final int DATA = 20;
+    private static final int RECORD_SIZE = DATA + MAX_DATA;
+
+    private final ByteBuffer mBuffer;
+    private final int mCapacity;
+    private final AtomicLong mSequence;
+
+    /**
+     * Creates a ring in memory
+     *
+     * @param capacity int number of records, rounded up to a power of two
+     */
+    public TraceRing(int capacity) {
+        this(ByteBuffer.allocate(HEADER_SIZE + roundUp(capacity) * RECORD_SIZE), roundUp(capacity));
+    }
+
+    private TraceRing(ByteBuffer buffer, int capacity) {
+        mBuffer = buffer;
+        mCapacity = capacity;
+        long last = 0;
+        if (buffer.getInt(0) == MAGIC && buffer.getShort(4) == VERSION
+                && buffer.getShort(6) == RECORD_SIZE && buffer.getInt(8) == capacity) {
+            for (int i = 0; i < capacity; i++) {
+                last = Math.max(last, buffer.getLong(position(i) + SEQUENCE));
+            }
+        } else {
+            for (int i = 0; i < buffer.capacity(); i++) {
+                buffer.put(i, (byte) 0);
+            }
+            buffer.putInt(0, MAGIC);
+            buffer.putShort(4, VERSION);
+            buffer.putShort(6, (short) RECORD_SIZE);
+            buffer.putInt(8, capacity);
+        }
+        mSequence = new AtomicLong(last + 1);
+        byte[] wallClock = new byte[8];
+        ByteBuffer.wrap(wallClock).putLong(System.currentTimeMillis());
+        record(EVENT_START, 0, wallClock, 0, wallClock.length);
+    }
+
+    /**
+     * Opens a ring backed by a memory-mapped file, the records of a previous run are kept
+     * if the file has the same layout
+     *
+     * @param file File the flight recorder file
+     * @param capacity int number of records, rounded up to a power of two
+     * @return TraceRing the ring
+     * @throws IOException if the file can't be mapped
+     */
+    public static TraceRing map(File file, int capacity) throws IOException {
+        capacity = roundUp(capacity);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // the mapping stays valid after the channel is closed
+            return new TraceRing(channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                    HEADER_SIZE + (long) capacity * RECORD_SIZE), capacity);
+        }
+    }
+
+    /**
+     * Records an event without data
+     *
+     * @param type int the event type
+     * @param arg int the event argument, 16 bits are kept
+     */
+    public void record(int type, int arg) {
+        record(type, arg, null, 0, 0);
+    }
+
+    /**
+     * Records an event
+     *
+     * @param type int the event type
+     * @param arg int the event argument, 16 bits are kept
+     * @param data byte[] the event data, may be null
+     * @param offset int start of the data in the array
+     * @param length int data length, truncated to {@link #MAX_DATA}
+     */
+    public void record(int type, int arg, byte[] data, int offset, int length) {
+        long sequence = mSequence.getAndIncrement();
+        int position = position((int) (sequence - 1) & (mCapacity - 1));
+        ByteBuffer buffer = mBuffer;
+        buffer.putLong(position + SEQUENCE, 0);
+        buffer.putLong(position + TIME, System.nanoTime());
+        buffer.put(position + TYPE, (byte) type);
+        int count = data == null ? 0 : Math.min(length, MAX_DATA);
+        buffer.put(position + LENGTH, (byte) count);
+        buffer.putShort(position + ARG, (short) arg);
+        for (int i = 0; i < count; i++) {
+            buffer.put(position + DATA + i, data[offset + i]);
+        }
+        buffer.putLong(position + SEQUENCE, sequence);
+    }
+
+    /**
+     * Writes the records oldest first, one per line: sequence number, System.nanoTime() in
+     * milliseconds, event, argument and data
+     *
+     * @param writer PrintWriter
+     */
+    public void dump(PrintWriter writer) {
+        long[] records = new long[mCapacity];
+        int count = 0;
+        for (int i = 0; i < mCapacity; i++) {
+            long sequence = mBuffer.getLong(position(i) + SEQUENCE);
+            if (sequence != 0) {
+                // the slot index fits in the low bits, the sequence sorts the records
+                records[count++] = sequence * mCapacity + i;
+            }
+        }
+        Arrays.sort(records, 0, count);
+        StringBuilder line = new StringBuilder();
+        for (int r = 0; r < count; r++) {
+            int position = position((int) (records[r] % mCapacity));
+            int type = mBuffer.get(position + TYPE) & 0xFF;
+            int length = Math.min(mBuffer.get(position + LENGTH) & 0xFF, MAX_DATA);
+            line.setLength(0);
+            line.append(String.format(Locale.US, "%8d %14.3f %-10s 0x%04x ",
+                    records[r] / mCapacity, mBuffer.getLong(position + TIME) / 1e6,
+                    type < EVENT_NAMES.length ? EVENT_NAMES[type] : Integer.toString(type),
+                    mBuffer.getShort(position + ARG) & 0xFFFF));
+            for (int i = 0; i < length; i++) {
+                line.append(String.format(Locale.US, "%02X", mBuffer.get(position + DATA + i)));
+            }
+            writer.println(line);
+        }
+        writer.flush();
+    }
+
+    /**
+     * @return int the number of records kept
+     */
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    private static int position(int index) {
+        return HEADER_SIZE + index * RECORD_SIZE;
+    }
+
+    private static int roundUp(int capacity) {
+        return Integer.highestOneBit(Math.max(2, capacity) * 2 - 1);
+    }
+}
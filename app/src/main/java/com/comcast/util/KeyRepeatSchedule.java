@@ -0,0 +1,111 @@
+/*
+ * If not stated otherwise in this file or this component's Licenses.txt file the
+ * following copyright and licenses apply:
+ *
+ * Copyright 2016 RDK Management
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.comcast.util;
+
+/**
+ * This class computes when a held button repeats.
+ *
+ * The first repeat follows the initial delay, after that the interval shrinks linearly from
+ * the start interval to the minimum interval over the acceleration time. Every repeat time is
+ * derived from the previous repeat time rather than from the time the repeat actually ran, so
+ * late callbacks do not add up; repeats that were missed entirely are skipped instead of being
+ * sent in a burst. All times are on one monotonic clock in milliseconds, e.g.
+ * SystemClock.uptimeMillis().
+ *
+ * @version 1.0.0
+ */
+public class KeyRepeatSchedule {
+
+    private final long initialDelayMs;
+    private final long startIntervalMs;
+    private final long minIntervalMs;
+    private final long accelerationMs;
+
+    /**
+     * The time of the first repeat
+     */
+    private long firstRepeatMs;
+
+    /**
+     * The time of the next repeat
+     */
+    private long nextRepeatMs;
+
+    /**
+     * Constructor
+     *
+     * @param initialDelayMs long time from the press to the first repeat
+     * @param startIntervalMs long interval between the first repeats
+     * @param minIntervalMs long interval once the repeat has fully accelerated
+     * @param accelerationMs long time from the first repeat until the minimum interval is reached
+     */
+    public KeyRepeatSchedule(long initialDelayMs, long startIntervalMs, long minIntervalMs, long accelerationMs) {
+        this.initialDelayMs = initialDelayMs;
+        this.startIntervalMs = Math.max(1, startIntervalMs);
+        this.minIntervalMs = Math.max(1, Math.min(minIntervalMs, startIntervalMs));
+        this.accelerationMs = accelerationMs;
+    }
+
+    /**
+     * Starts the schedule for a press
+     *
+     * @param downTimeMs long the time the button was pressed
+     * @return long the time of the first repeat
+     */
+    public long start(long downTimeMs) {
+        firstRepeatMs = downTimeMs + initialDelayMs;
+        nextRepeatMs = firstRepeatMs;
+        return nextRepeatMs;
+    }
+
+    /**
+     * Moves on to the repeat after the one due, skipping the repeats that were missed
+     *
+     * @param nowMs long the current time
+     * @return long the time of the next repeat, always after nowMs
+     */
+    public long advance(long nowMs) {
+        do {
+            nextRepeatMs += getInterval(nextRepeatMs - firstRepeatMs);
+        } while (nextRepeatMs <= nowMs);
+        return nextRepeatMs;
+    }
+
+    /**
+     * @return long the time of the next repeat
+     */
+    public long getNextRepeatTime() {
+        return nextRepeatMs;
+    }
+
+    /**
+     * Get the interval after a repeat
+     *
+     * @param repeatingMs long the time since the first repeat
+     * @return long the interval to the following repeat
+     */
+    long getInterval(long repeatingMs) {
+        if (repeatingMs >= accelerationMs) {
+            return minIntervalMs;
+        }
+        return startIntervalMs - (startIntervalMs - minIntervalMs) * repeatingMs / accelerationMs;
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * If not stated otherwise in this file or this component's Licenses.txt file the
+ * following copyright and licenses apply:
+ *
+ * Copyright 2016 RDK Management
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.util;
+
+import android.graphics.Color;
+import android.graphics.Typeface;
+import android.util.TypedValue;
+import android.view.Gravity;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.PopupWindow;
+import android.widget.TextView;
+
+import com.comcast.service.InputLatency;
+
+/**
+ * This is helper class showing the input latency histograms over the remote.
+ * It is hidden by default: long pressing the anchor view toggles it, tapping it resets
+ * the histograms.
+ *
+ * @version 1.0.0
+ */
+public class LatencyOverlay implements View.OnLongClickListener, View.OnClickListener, Runnable {
+
+    /**
+     * Refresh interval while the overlay is shown
+     */
+    private static final long REFRESH_INTERVAL_MS = 500;
+
+    /**
+     * The view the overlay is toggled from
+     */
+    private final View anchor;
+
+    /**
+     * The histograms to show
+     */
+    private final InputLatency inputLatency;
+
+    /**
+     * The text view holding the formatted histograms
+     */
+    private final TextView textView;
+
+    /**
+     * The popup window showing the text view
+     */
+    private final PopupWindow popupWindow;
+
+    public LatencyOverlay(View anchor, InputLatency inputLatency) {
+        this.anchor = anchor;
+        this.inputLatency = inputLatency;
+        textView = new TextView(anchor.getContext());
+        textView.setTypeface(Typeface.MONOSPACE);
+        textView.setTextSize(TypedValue.COMPLEX_UNIT_SP, 10);
+        textView.setTextColor(Color.WHITE);
+        textView.setBackgroundColor(0xCC000000);
+        int padding = (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, 8,
+                anchor.getResources().getDisplayMetrics());
+        textView.setPadding(padding, padding, padding, padding);
+        textView.setOnClickListener(this);
+        popupWindow = new PopupWindow(textView,
+                ViewGroup.LayoutParams.WRAP_CONTENT, ViewGroup.LayoutParams.WRAP_CONTENT);
+        this.anchor.setOnLongClickListener(this);
+    }
+
+    /**
+     * Toggles the overlay
+     *
+     * @param v The anchor view
+     * @return true, the long click is always consumed
+     */
+    @Override
+    public boolean onLongClick(View v) {
+        if (popupWindow.isShowing()) {
+            dismiss();
+        } else {
+            popupWindow.showAtLocation(anchor.getRootView(), Gravity.TOP | Gravity.CENTER_HORIZONTAL, 0, 0);
+            run();
+        }
+        return true;
+    }
+
+    /**
+     * Resets the histograms
+     *
+     * @param v The overlay text view
+     */
+    @Override
+    public void onClick(View v) {
+        inputLatency.reset();
+        textView.setText(inputLatency.format());
+    }
+
+    /**
+     * Refreshes the overlay while it is shown
+     */
+    @Override
+    public void run() {
+        if (!popupWindow.isShowing()) {
+            return;
+        }
+        textView.setText(inputLatency.format());
+        anchor.postDelayed(this, REFRESH_INTERVAL_MS);
+    }
+
+    /**
+     * Hides the overlay
+     */
+    public void dismiss() {
+        anchor.removeCallbacks(this);
+        popupWindow.dismiss();
+    }
+}
@@ -20,25 +20,41 @@
 package com.comcast.util;
 
 import android.os.Handler;
+import android.os.SystemClock;
 import android.view.MotionEvent;
 import android.view.View;
 
+import com.comcast.BuildConfig;
 import com.comcast.HerculesApp;
 
 /**
  * This is helper class for sending bluetooth key events when user is long pressing ui key
  *
+ * A held key either repeats on an accelerating {@link KeyRepeatSchedule}, sending a press and
+ * release per repeat, or, in native hold mode, is sent as one press on touch down and one
+ * release on touch up so that the host's own typematic repeat does the work.
+ *
  * @version 1.0.0
  */
-public class SendKeyEventOnHoldController implements View.OnLongClickListener, View.OnTouchListener, Runnable {
+public class SendKeyEventOnHoldController implements View.OnTouchListener, Runnable {
 
     private static final String TAG = SendKeyEventOnHoldController.class.getSimpleName();
 
     /**
-     * Handler for post delaying next key send after key is sent
+     * Handler for scheduling the repeats
      */
     private final Handler handler = new Handler();
 
+    /**
+     * When the held key repeats
+     */
+    private final KeyRepeatSchedule schedule;
+
+    /**
+     * Determines if the key is held on the host instead of repeated here
+     */
+    private final boolean nativeHold;
+
     /**
      * Determines if send key events is enabled
      */
@@ -60,27 +76,30 @@ public class SendKeyEventOnHoldController implements View.OnLongClickListener, V
     private SendViewKeyEventListener listener;
 
     public SendKeyEventOnHoldController(View view, SendViewKeyEventListener listener) {
-        this.view = view;
-        this.listener = listener;
-        this.view.setOnTouchListener(this);
-        this.view.setOnLongClickListener(this);
+        this(view, listener, BuildConfig.NATIVE_KEY_HOLD,
+                new KeyRepeatSchedule(BuildConfig.KEY_REPEAT_DELAY_MS, BuildConfig.KEY_REPEAT_INTERVAL_MS,
+                        BuildConfig.KEY_REPEAT_MIN_INTERVAL_MS, BuildConfig.KEY_REPEAT_ACCELERATION_MS));
     }
 
     /**
-     * Handles enabling send bluetooth key events when ui key is long clicked.
+     * Constructor
      *
-     * @param v The view that was clicked and held.
-     * @return true if the callback consumed the long click, false otherwise.
+     * @param view The ui view to send key events for
+     * @param listener The listener to send key events for ui view
+     * @param nativeHold true to hold the key on the host, false to repeat it here
+     * @param schedule When the held key repeats, unused in native hold mode
      */
-    @Override
-    public boolean onLongClick(View v) {
-        handler.post(this);
-        longPress = true;
-        return true;
+    public SendKeyEventOnHoldController(View view, SendViewKeyEventListener listener,
+                                        boolean nativeHold, KeyRepeatSchedule schedule) {
+        this.view = view;
+        this.listener = listener;
+        this.nativeHold = nativeHold;
+        this.schedule = schedule;
+        this.view.setOnTouchListener(this);
     }
 
     /**
-     * Handles disabling send bluetooth key events when ui key is deselected.
+     * Handles sending and stopping bluetooth key events as the ui key is pressed and released.
      *
      * @param touchEventView The target view of the touch event
      * @param event The MotionEvent object contains the touch info.
@@ -92,33 +111,74 @@ public class SendKeyEventOnHoldController implements View.OnLongClickListener, V
         int action = event.getAction();
         switch (action) {
             case MotionEvent.ACTION_UP:
-                enableSend = false;
-                if (longPress) {
-                    handler.removeCallbacksAndMessages(null);
-                    if (listener != null) {
-                        listener.longPressEndForView(touchEventView);
+                long touchUpNanos = System.nanoTime();
+                if (nativeHold) {
+                    release(touchEventView, touchUpNanos);
+                }
+                else if (!stopRepeat(touchEventView)) {
+                    HerculesApp app = (HerculesApp) touchEventView.getContext().getApplicationContext();
+                    app.sendKeyForView(view, touchUpNanos);
+                }
+                // consumed, a repeated key must not fire a click as well
+                touchEventView.postDelayed(new Runnable() {
+                    @Override
+                    public void run() {
+                        touchEventView.setPressed(false);
                     }
-                    longPress = false;
+                }, 25);
+                return true;
+            case MotionEvent.ACTION_CANCEL:
+                if (nativeHold) {
+                    release(touchEventView, System.nanoTime());
                 }
                 else {
-                    HerculesApp app = (HerculesApp) touchEventView.getContext().getApplicationContext();
-                    app.sendKeyForView(view);
-                    touchEventView.postDelayed(new Runnable() {
-                        @Override
-                        public void run() {
-                            touchEventView.setPressed(false);
-                        }
-                    }, 25);
-                    return true;
+                    stopRepeat(touchEventView);
                 }
                 break;
             case MotionEvent.ACTION_DOWN:
                 enableSend = true;
+                if (nativeHold) {
+                    HerculesApp app = (HerculesApp) touchEventView.getContext().getApplicationContext();
+                    app.holdKeyForView(view, true, System.nanoTime());
+                }
+                else {
+                    // drift-free: repeat times are derived from the touch down time
+                    handler.postAtTime(this, schedule.start(event.getDownTime()));
+                }
                 break;
         }
         return false;
     }
 
+    /**
+     * Releases the key held on the host
+     */
+    private void release(View touchEventView, long touchUpNanos) {
+        if (enableSend) {
+            enableSend = false;
+            HerculesApp app = (HerculesApp) touchEventView.getContext().getApplicationContext();
+            app.holdKeyForView(view, false, touchUpNanos);
+        }
+    }
+
+    /**
+     * Stops repeating the key
+     *
+     * @return true if the key has repeated, false if it was a tap
+     */
+    private boolean stopRepeat(View touchEventView) {
+        enableSend = false;
+        handler.removeCallbacks(this);
+        if (!longPress) {
+            return false;
+        }
+        if (listener != null) {
+            listener.longPressEndForView(touchEventView);
+        }
+        longPress = false;
+        return true;
+    }
+
     /**
      * Handles sending bluetooth key events.
      */
@@ -127,10 +187,11 @@ public class SendKeyEventOnHoldController implements View.OnLongClickListener, V
         if (!enableSend) {
             return;
         }
+        longPress = true;
         if (listener != null) {
             listener.sendKeyEventForView(view);
         }
-        handler.postDelayed(this, 500);
+        handler.postAtTime(this, schedule.advance(SystemClock.uptimeMillis()));
     }
 
     /**
@@ -0,0 +1,245 @@
+/*
+ * If not stated otherwise in this file or this component's Licenses.txt file the
+ * following copyright and licenses apply:
+ *
+ * Copyright 2016 RDK Management
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.comcast.util;
+
+import android.graphics.drawable.ColorDrawable;
+import android.view.Gravity;
+import android.view.MotionEvent;
+import android.view.View;
+import android.view.ViewConfiguration;
+import android.view.ViewGroup;
+import android.widget.PopupWindow;
+
+import com.comcast.HerculesApp;
+
+/**
+ * This is helper class turning a surface over the remote into a touchpad for the host's
+ * pointer. Clicking the anchor view shows it, touching outside of it or back hides it.
+ *
+ * One finger moves the pointer, two fingers scroll, a tap clicks and a two finger tap
+ * right-clicks. Every sample of a MotionEvent, historical ones included, is scaled by its
+ * own speed, so fast swipes cover more distance than slow ones of the same length. The
+ * whole event is handed over as one delta, the service sums deltas up until the link can
+ * take the next report.
+ *
+ * @version 1.0.0
+ */
+public class TouchpadOverlay implements View.OnClickListener, View.OnTouchListener {
+
+    /**
+     * Pointer counts per pixel of a slow finger
+     */
+    private static final float BASE_GAIN = 0.5f;
+
+    /**
+     * Finger speed in pixels per millisecond at which the gain has doubled
+     */
+    private static final float ACCELERATION_SPEED = 1.5f;
+
+    /**
+     * Upper bound of the speed dependent gain, as a multiple of BASE_GAIN
+     */
+    private static final float MAX_GAIN_FACTOR = 4f;
+
+    /**
+     * Pixels of two finger travel per wheel detent
+     */
+    private static final float WHEEL_STEP_PX = 48f;
+
+    /**
+     * Longest touch still counted as a tap
+     */
+    private static final long TAP_TIMEOUT_MS = 200;
+
+    /**
+     * The view the touchpad is toggled from
+     */
+    private final View anchor;
+
+    /**
+     * The popup window holding the touch surface
+     */
+    private final PopupWindow popupWindow;
+
+    /**
+     * Distance a tap may travel
+     */
+    private final int touchSlop;
+
+    /**
+     * Position of the previous sample of the tracked finger, or the scroll centre
+     */
+    private float lastX;
+    private float lastY;
+    private long lastTime;
+
+    /**
+     * Motion smaller than one count, carried over to the next event
+     */
+    private float remainderX;
+    private float remainderY;
+    private float remainderWheel;
+
+    /**
+     * Distance travelled since touch down, to tell taps from moves
+     */
+    private float travel;
+
+    /**
+     * The most fingers on the surface since touch down
+     */
+    private int maxPointers;
+
+    public TouchpadOverlay(View anchor) {
+        this.anchor = anchor;
+        touchSlop = ViewConfiguration.get(anchor.getContext()).getScaledTouchSlop();
+        View surface = new View(anchor.getContext());
+        surface.setBackgroundColor(0xCC202020);
+        surface.setOnTouchListener(this);
+        popupWindow = new PopupWindow(surface, ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT);
+        // focusable so back and touches outside dismiss it
+        popupWindow.setFocusable(true);
+        popupWindow.setOutsideTouchable(true);
+        popupWindow.setBackgroundDrawable(new ColorDrawable(0));
+        this.anchor.setOnClickListener(this);
+    }
+
+    /**
+     * Shows the touchpad over the upper two thirds of the remote
+     *
+     * @param v The anchor view
+     */
+    @Override
+    public void onClick(View v) {
+        View root = anchor.getRootView();
+        popupWindow.setHeight(root.getHeight() * 2 / 3);
+        popupWindow.showAtLocation(root, Gravity.TOP | Gravity.CENTER_HORIZONTAL, 0, 0);
+    }
+
+    @Override
+    public boolean onTouch(View view, MotionEvent motionEvent) {
+        HerculesApp app = (HerculesApp) view.getContext().getApplicationContext();
+        switch (motionEvent.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+                travel = 0;
+                maxPointers = 1;
+                remainderX = 0;
+                remainderY = 0;
+                remainderWheel = 0;
+                track(motionEvent);
+                return true;
+            case MotionEvent.ACTION_POINTER_DOWN:
+            case MotionEvent.ACTION_POINTER_UP:
+                // the finger count changed, continue from where the fingers are now
+                maxPointers = Math.max(maxPointers, motionEvent.getPointerCount());
+                track(motionEvent);
+                return true;
+            case MotionEvent.ACTION_MOVE:
+                if (motionEvent.getPointerCount() > 1) {
+                    scroll(app, motionEvent);
+                } else {
+                    move(app, motionEvent);
+                }
+                return true;
+            case MotionEvent.ACTION_UP:
+                if (travel <= touchSlop && motionEvent.getEventTime() - motionEvent.getDownTime() <= TAP_TIMEOUT_MS) {
+                    int button = maxPointers > 1 ? MotionEvent.BUTTON_SECONDARY : MotionEvent.BUTTON_PRIMARY;
+                    long touchNanos = System.nanoTime();
+                    app.sendPointerButtons(button, touchNanos);
+                    app.sendPointerButtons(0, touchNanos);
+                }
+                return true;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Hides the touchpad
+     */
+    public void dismiss() {
+        popupWindow.dismiss();
+    }
+
+    private void track(MotionEvent motionEvent) {
+        // ACTION_POINTER_UP still reports the leaving finger, the centre follows the others
+        boolean pointerUp = motionEvent.getActionMasked() == MotionEvent.ACTION_POINTER_UP;
+        int leaving = pointerUp ? motionEvent.getActionIndex() : -1;
+        float x = 0;
+        float y = 0;
+        int count = 0;
+        for (int i = 0; i < motionEvent.getPointerCount(); i++) {
+            if (i != leaving) {
+                x += motionEvent.getX(i);
+                y += motionEvent.getY(i);
+                count++;
+            }
+        }
+        lastX = count > 0 ? x / count : motionEvent.getX();
+        lastY = count > 0 ? y / count : motionEvent.getY();
+        lastTime = motionEvent.getEventTime();
+    }
+
+    private void move(HerculesApp app, MotionEvent motionEvent) {
+        float dx = 0;
+        float dy = 0;
+        int historySize = motionEvent.getHistorySize();
+        for (int h = 0; h <= historySize; h++) {
+            float x = h < historySize ? motionEvent.getHistoricalX(h) : motionEvent.getX();
+            float y = h < historySize ? motionEvent.getHistoricalY(h) : motionEvent.getY();
+            long time = h < historySize ? motionEvent.getHistoricalEventTime(h) : motionEvent.getEventTime();
+            float sampleX = x - lastX;
+            float sampleY = y - lastY;
+            float distance = (float) Math.hypot(sampleX, sampleY);
+            float speed = distance / Math.max(1, time - lastTime);
+            float gain = BASE_GAIN * Math.min(MAX_GAIN_FACTOR, 1 + speed / ACCELERATION_SPEED);
+            dx += sampleX * gain;
+            dy += sampleY * gain;
+            travel += distance;
+            lastX = x;
+            lastY = y;
+            lastTime = time;
+        }
+        remainderX += dx;
+        remainderY += dy;
+        int countsX = (int) remainderX;
+        int countsY = (int) remainderY;
+        remainderX -= countsX;
+        remainderY -= countsY;
+        app.movePointer(countsX, countsY, 0, System.nanoTime());
+    }
+
+    private void scroll(HerculesApp app, MotionEvent motionEvent) {
+        float y = 0;
+        for (int i = 0; i < motionEvent.getPointerCount(); i++) {
+            y += motionEvent.getY(i);
+        }
+        y /= motionEvent.getPointerCount();
+        travel += Math.abs(y - lastY);
+        // the content follows the fingers: moving them down scrolls up
+        remainderWheel += (y - lastY) / WHEEL_STEP_PX;
+        lastY = y;
+        lastTime = motionEvent.getEventTime();
+        int detents = (int) remainderWheel;
+        remainderWheel -= detents;
+        app.movePointer(0, 0, detents, System.nanoTime());
+    }
+}
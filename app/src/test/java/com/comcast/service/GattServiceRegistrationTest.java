@@ -0,0 +1,111 @@
+/*
+ * If not stated otherwise in this file or this component's Licenses.txt file the
+ * following copyright and licenses apply:
+ *
+ * Copyright 2016 RDK Management
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.service;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Drives the GATT service registration against a scripted server and scheduler, services are
+ * plain UUIDs so no framework class is needed.
+ *
+ * @version 1.0.0
+ */
+public class GattServiceRegistrationTest {
+
+    @Test
+    public void gattRegistration_backsOffAndSkipsAFailingService() {
+        UUID hid = UUID.randomUUID();
+        UUID battery = UUID.randomUUID();
+        List<UUID> added = new ArrayList<>();
+        List<Runnable> tasks = new ArrayList<>();
+        List<Long> delays = new ArrayList<>();
+        boolean[] finished = new boolean[1];
+        GattServiceRegistration registration = new GattServiceRegistration(
+                new GattServiceRegistration.Server() {
+                    @Override
+                    public boolean addService(UUID service) {
+                        // the first attempt is rejected, the server is still busy
+                        added.add(service);
+                        return added.size() > 1;
+                    }
+
+                    @Override
+                    public boolean hasService(UUID uuid) {
+                        return false;
+                    }
+                },
+                new GattServiceRegistration.Scheduler() {
+                    @Override
+                    public void postDelayed(Runnable task, long delayMs) {
+                        tasks.add(task);
+                        delays.add(delayMs);
+                    }
+
+                    @Override
+                    public void removeCallbacks(Runnable task) {
+                        int index = tasks.indexOf(task);
+                        while (index >= 0) {
+                            tasks.remove(index);
+                            delays.remove(index);
+                            index = tasks.indexOf(task);
+                        }
+                    }
+                },
+                3, 50, 80, 1000, r -> finished[0] = true);
+
+        registration.start(hid, battery);
+        assertEquals(GattServiceRegistration.STATE_BACKOFF, registration.getState());
+        assertEquals(Arrays.asList(50L), delays);
+
+        tasks.remove(0).run();
+        delays.remove(0);
+        registration.onServiceAdded(hid, true);
+        assertTrue(registration.isRegistered(0));
+        assertEquals(2, registration.getAttempts(0));
+
+        // battery fails twice and then times out, waiting 50 and 80 ms in between
+        registration.onServiceAdded(battery, false);
+        assertEquals(Arrays.asList(50L), delays);
+        tasks.remove(0).run();
+        delays.remove(0);
+        registration.onServiceAdded(battery, false);
+        assertEquals(Arrays.asList(80L), delays);
+        tasks.remove(0).run();
+        delays.remove(0);
+        assertEquals(Arrays.asList(1000L), delays);
+        tasks.remove(0).run();
+
+        assertTrue(finished[0]);
+        assertFalse(registration.isRunning());
+        assertFalse(registration.isRegistered(1));
+        assertEquals(3, registration.getAttempts(1));
+        assertTrue(tasks.isEmpty());
+        assertTrue(registration.format().contains("failed"));
+    }
+}
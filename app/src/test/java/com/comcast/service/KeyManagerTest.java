@@ -0,0 +1,71 @@
+/*
+ * If not stated otherwise in this file or this component's Licenses.txt file the
+ * following copyright and licenses apply:
+ *
+ * Copyright 2016 RDK Management
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.service;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that every key the usage table maps reaches the host in both report modes.
+ *
+ * @version 1.0.0
+ */
+public class KeyManagerTest {
+
+    // past the highest Android key code
+    private static final int KEY_CODE_LIMIT = 512;
+
+    @Test
+    public void everyMappedUsage_isSentInBootMode() {
+        byte[] report = new byte[KeyManager.REPORT_SIZE];
+        for (int keyCode = 0; keyCode < KEY_CODE_LIMIT; keyCode++) {
+            int usage = KeyManager.getHIDKeyboardCode(keyCode);
+            if (usage == 0 || KeyManager.getHIDKeyModifierCode(keyCode) != 0) {
+                continue;
+            }
+            // the boot report map's logical maximum
+            assertTrue("key code " + keyCode, usage <= KeyManager.NKRO_MAX_USAGE);
+            KeyManager keyManager = new KeyManager();
+            assertTrue("key code " + keyCode, keyManager.press(keyCode));
+            assertEquals(KeyManager.REPORT_SIZE, keyManager.build(report, 0));
+            assertEquals("key code " + keyCode, usage, report[2] & 0xFF);
+        }
+    }
+
+    @Test
+    public void everyMappedUsage_isSentInNkroMode() {
+        byte[] report = new byte[KeyManager.NKRO_REPORT_SIZE];
+        for (int keyCode = 0; keyCode < KEY_CODE_LIMIT; keyCode++) {
+            int usage = KeyManager.getHIDKeyboardCode(keyCode);
+            if (usage == 0 || KeyManager.getHIDKeyModifierCode(keyCode) != 0) {
+                continue;
+            }
+            KeyManager keyManager = new KeyManager();
+            keyManager.setReportMode(KeyManager.REPORT_MODE_NKRO);
+            assertTrue("key code " + keyCode, keyManager.press(keyCode));
+            assertEquals(KeyManager.NKRO_REPORT_SIZE, keyManager.build(report, 0));
+            int bitmapByte = 1 + (usage >>> 3);
+            assertTrue("key code " + keyCode, bitmapByte < report.length);
+            assertEquals("key code " + keyCode, 1 << (usage & 7), report[bitmapByte] & 0xFF);
+        }
+    }
+}
@@ -0,0 +1,641 @@
+/*
+ * If not stated otherwise in this file or this component's Licenses.txt file the
+ * following copyright and licenses apply:
+ *
+ * Copyright 2016 RDK Management
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.service;
+
+import android.view.KeyEvent;
+
+import com.comcast.R;
+import com.comcast.constant.ConsumerUsage;
+import com.comcast.constant.HidUsage;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the sendKey -> queue -> send path against the loopback transport.
+ *
+ * @version 1.0.0
+ */
+public class ReportPipelineTest {
+
+    private LoopbackHidTransport mTransport;
+    private InputLatency mLatency;
+
+    @Before
+    public void setUp() {
+        mTransport = new LoopbackHidTransport();
+        mLatency = new InputLatency();
+    }
+
+    private ReportPipeline pipeline(int queueCapacity, int maxInFlight) {
+        return new ReportPipeline(new KeyManager(), queueCapacity, maxInFlight, 1000,
+                Runnable::run, null, mTransport, mLatency);
+    }
+
+    @Test
+    public void chord_isSentInOrder() {
+        ReportPipeline pipeline = pipeline(16, 4);
+
+        pipeline.sendKey(KeyEvent.KEYCODE_CTRL_LEFT, true);
+        pipeline.sendKey(KeyEvent.KEYCODE_G, true);
+        pipeline.sendKey(KeyEvent.KEYCODE_CTRL_LEFT, false);
+        pipeline.sendKey(KeyEvent.KEYCODE_G, false);
+
+        List<LoopbackHidTransport.Report> reports = mTransport.getReports();
+        assertEquals(4, reports.size());
+        assertArrayEquals(new byte[]{HidUsage.MODIFIER_LEFT_CTRL, 0, 0, 0, 0, 0, 0, 0}, reports.get(0).data);
+        assertArrayEquals(new byte[]{HidUsage.MODIFIER_LEFT_CTRL, 0, HidUsage.KEY_G, 0, 0, 0, 0, 0}, reports.get(1).data);
+        assertArrayEquals(new byte[]{0, 0, HidUsage.KEY_G, 0, 0, 0, 0, 0}, reports.get(2).data);
+        assertArrayEquals(new byte[8], reports.get(3).data);
+        for (int i = 1; i < reports.size(); i++) {
+            assertTrue(reports.get(i).timestampNanos >= reports.get(i - 1).timestampNanos);
+        }
+    }
+
+    @Test
+    public void chord_isOnePressAndOneRelease() {
+        ReportPipeline pipeline = pipeline(16, 4);
+
+        assertTrue(pipeline.sendChord(new int[]{KeyEvent.KEYCODE_CTRL_LEFT, KeyEvent.KEYCODE_G}, 0, 0));
+
+        List<LoopbackHidTransport.Report> reports = mTransport.getReports();
+        assertEquals(2, reports.size());
+        assertArrayEquals(new byte[]{HidUsage.MODIFIER_LEFT_CTRL, 0, HidUsage.KEY_G, 0, 0, 0, 0, 0}, reports.get(0).data);
+        assertArrayEquals(new byte[8], reports.get(1).data);
+    }
+
+    @Test
+    public void button_sendsPrecompiledReports() {
+        ReportPipeline pipeline = pipeline(16, 4);
+
+        assertTrue(pipeline.sendButton(R.id.remote_button_guide, 0, 0));
+        assertTrue(pipeline.sendButton(0, 0, 0));
+        pipeline.sendKey(KeyEvent.KEYCODE_SHIFT_LEFT, true);
+        // with a key held the button reports are built from the key state
+        assertTrue(pipeline.sendButton(R.id.remote_numpad_5, 0, 0));
+        while (mTransport.confirm()) {
+            // drain the queue
+        }
+
+        List<LoopbackHidTransport.Report> reports = mTransport.getReports();
+        assertEquals(5, reports.size());
+        assertArrayEquals(new byte[]{HidUsage.MODIFIER_LEFT_CTRL, 0, HidUsage.KEY_G, 0, 0, 0, 0, 0}, reports.get(0).data);
+        assertArrayEquals(new byte[8], reports.get(1).data);
+        assertArrayEquals(new byte[]{HidUsage.MODIFIER_LEFT_SHIFT, 0, HidUsage.KEY_5, 0, 0, 0, 0, 0}, reports.get(3).data);
+        assertArrayEquals(new byte[]{HidUsage.MODIFIER_LEFT_SHIFT, 0, 0, 0, 0, 0, 0, 0}, reports.get(4).data);
+    }
+
+    @Test
+    public void chord_withoutRoomForRelease_queuesNoPress() {
+        ReportPipeline pipeline = pipeline(2, 1);
+        pipeline.sendKey(KeyEvent.KEYCODE_1, true);
+        pipeline.sendKey(KeyEvent.KEYCODE_1, false);
+
+        // one report in flight, one slot left and kept for releases
+        assertFalse(pipeline.sendChord(new int[]{KeyEvent.KEYCODE_CTRL_LEFT, KeyEvent.KEYCODE_G}, 0, 0));
+        while (mTransport.confirm()) {
+            // drain the queue
+        }
+
+        List<LoopbackHidTransport.Report> reports = mTransport.getReports();
+        assertEquals(2, reports.size());
+        assertArrayEquals(new byte[8], reports.get(1).data);
+        assertTrue(pipeline.getKeyManager().isIdle());
+    }
+
+    @Test
+    public void sender_waitsForConfirmations() {
+        ReportPipeline pipeline = pipeline(16, 1);
+
+        pipeline.sendKey(KeyEvent.KEYCODE_1, true);
+        pipeline.sendKey(KeyEvent.KEYCODE_1, false);
+        pipeline.sendKey(KeyEvent.KEYCODE_2, true);
+        pipeline.sendKey(KeyEvent.KEYCODE_2, false);
+
+        assertEquals(1, mTransport.getSentCount());
+        assertEquals(1, pipeline.getInFlight());
+        assertEquals(3, pipeline.getQueueSize());
+
+        while (mTransport.confirm()) {
+            // every confirmation releases the next report
+        }
+
+        assertEquals(4, mTransport.getSentCount());
+        assertEquals(0, pipeline.getInFlight());
+        assertEquals(0, pipeline.getQueueSize());
+    }
+
+    @Test
+    public void sender_drainsWithSynchronousConfirmations() {
+        mTransport = new LoopbackHidTransport(Runnable::run, true);
+        ReportPipeline pipeline = pipeline(16, 1);
+
+        for (int i = 0; i < 100; i++) {
+            pipeline.sendKey(KeyEvent.KEYCODE_5, (i & 1) == 0);
+        }
+
+        assertEquals(100, mTransport.getSentCount());
+        assertEquals(0, pipeline.getInFlight());
+    }
+
+    @Test
+    public void concurrentProducers_loseNoReports() throws InterruptedException {
+        mTransport = new LoopbackHidTransport(Runnable::run, false);
+        ReportPipeline pipeline = pipeline(1024, 2);
+        Thread[] producers = new Thread[4];
+        for (int t = 0; t < producers.length; t++) {
+            int keyCode = KeyEvent.KEYCODE_A + t;
+            producers[t] = new Thread(() -> {
+                for (int i = 0; i < 100; i++) {
+                    assertTrue(pipeline.sendKey(keyCode, true));
+                    assertTrue(pipeline.sendKey(keyCode, false));
+                }
+            });
+            producers[t].start();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+
+        assertEquals(800, mTransport.getSentCount());
+        assertEquals(0, pipeline.getQueueSize());
+        assertEquals(0, pipeline.getInFlight());
+    }
+
+    @Test
+    public void precompiledButton_doesNotReleaseAConcurrentPress() throws InterruptedException {
+        mTransport = new LoopbackHidTransport(Runnable::run, true);
+        ReportPipeline pipeline = pipeline(64, 2);
+        int rounds = 20000;
+        // both producers spin until the round starts, so their calls overlap as closely as possible
+        AtomicInteger started = new AtomicInteger(-1);
+        AtomicInteger finished = new AtomicInteger(-1);
+        Thread button = new Thread(() -> {
+            for (int round = 0; round < rounds; round++) {
+                while (started.get() < round) {
+                    Thread.yield();
+                }
+                pipeline.sendButton(R.id.remote_numpad_5, 0, 0);
+                finished.set(round);
+            }
+        });
+        button.setDaemon(true);
+        button.start();
+        for (int round = 0; round < rounds; round++) {
+            started.set(round);
+            pipeline.sendKey(KeyEvent.KEYCODE_A, true);
+            while (finished.get() < round) {
+                Thread.yield();
+            }
+
+            // whatever the interleaving, the host ends up holding the key that is still down
+            List<LoopbackHidTransport.Report> reports = mTransport.getReports();
+            byte[] last = reports.get(reports.size() - 1).data;
+            assertTrue("round " + round + " " + Arrays.toString(last),
+                    last[2] == HidUsage.KEY_A || last[3] == HidUsage.KEY_A);
+            pipeline.sendKey(KeyEvent.KEYCODE_A, false);
+            mTransport.reset();
+        }
+        button.join();
+    }
+
+    @Test
+    public void lostConfirmations_doNotHoldBackTheRelease() throws InterruptedException {
+        List<Runnable> tasks = new ArrayList<>();
+        List<Long> delays = new ArrayList<>();
+        ReportPipeline pipeline = new ReportPipeline(new KeyManager(), 16, 1, 20, Runnable::run,
+                (task, delayMs) -> {
+                    tasks.add(task);
+                    delays.add(delayMs);
+                }, mTransport, mLatency);
+
+        // the loopback never confirms the press, its confirmation is lost
+        pipeline.sendKey(KeyEvent.KEYCODE_A, true);
+        pipeline.sendKey(KeyEvent.KEYCODE_A, false);
+        assertEquals(1, mTransport.getSentCount());
+        assertEquals(1, tasks.size());
+        assertTrue(delays.get(0) > 0 && delays.get(0) <= 21);
+
+        Thread.sleep(delays.get(0));
+        tasks.get(0).run();
+
+        List<LoopbackHidTransport.Report> reports = mTransport.getReports();
+        assertEquals(2, reports.size());
+        assertArrayEquals(new byte[8], reports.get(1).data);
+        assertEquals(0, pipeline.getQueueSize());
+    }
+
+    @Test
+    public void failedSend_isMadeUpForByTheState() {
+        List<Runnable> tasks = new ArrayList<>();
+        List<Long> delays = new ArrayList<>();
+        ReportPipeline pipeline = new ReportPipeline(new KeyManager(), 16, 1, 1000, Runnable::run,
+                (task, delayMs) -> {
+                    tasks.add(task);
+                    delays.add(delayMs);
+                }, mTransport, mLatency);
+
+        pipeline.sendKey(KeyEvent.KEYCODE_A, true);
+        mTransport.confirm();
+        // the link refuses the release and the keyboard state that replaces it
+        mTransport.failNext(2);
+        pipeline.sendKey(KeyEvent.KEYCODE_A, false);
+        assertEquals(1, mTransport.getSentCount());
+        assertEquals(0, pipeline.getInFlight());
+        assertEquals(Arrays.asList(10L), delays);
+
+        tasks.remove(0).run();
+        assertEquals(Arrays.asList(10L, 20L), delays);
+        tasks.remove(0).run();
+
+        List<LoopbackHidTransport.Report> reports = mTransport.getReports();
+        assertEquals(2, reports.size());
+        assertEquals(KeyManager.REPORT_ID, reports.get(1).reportId);
+        assertArrayEquals(new byte[8], reports.get(1).data);
+        assertEquals(2, pipeline.getFailedCount());
+        assertTrue(tasks.isEmpty());
+    }
+
+    @Test
+    public void disconnect_releasesCredits() {
+        ReportPipeline pipeline = pipeline(16, 1);
+
+        pipeline.sendKey(KeyEvent.KEYCODE_A, true);
+        pipeline.sendKey(KeyEvent.KEYCODE_A, false);
+        assertEquals(1, mTransport.getSentCount());
+
+        pipeline.onDisconnected();
+
+        assertEquals(2, mTransport.getSentCount());
+    }
+
+    @Test
+    public void fullQueue_dropsPressesButNotReleases() {
+        ReportPipeline pipeline = pipeline(4, 1);
+        int[] keyCodes = {KeyEvent.KEYCODE_A, KeyEvent.KEYCODE_B, KeyEvent.KEYCODE_C, KeyEvent.KEYCODE_D};
+
+        // one report is in flight, presses may take three of the four slots
+        for (int keyCode : keyCodes) {
+            assertTrue(pipeline.sendKey(keyCode, true));
+        }
+        assertFalse(pipeline.sendKey(KeyEvent.KEYCODE_E, true));
+        assertFalse(pipeline.sendReport(KeyManager.REPORT_ID, new byte[]{0, 0, HidUsage.KEY_E, 0, 0, 0, 0, 0}, 0, 8));
+        assertEquals(2, pipeline.getDroppedCount(ReportPipeline.LANE_PRESS));
+        // the last slot takes one release, the others find the ring full and are sent as state
+        for (int keyCode : keyCodes) {
+            assertTrue(pipeline.sendKey(keyCode, false));
+        }
+        assertEquals(1, pipeline.getLaneSize(ReportPipeline.LANE_RELEASE));
+        assertEquals(3, pipeline.getLaneSize(ReportPipeline.LANE_PRESS));
+        assertEquals(3, pipeline.getSyncCount());
+        while (mTransport.confirm()) {
+            // drain the queue
+        }
+
+        List<LoopbackHidTransport.Report> reports = mTransport.getReports();
+        assertEquals(6, reports.size());
+        assertArrayEquals(new byte[]{0, 0, HidUsage.KEY_B, HidUsage.KEY_C, HidUsage.KEY_D, 0, 0, 0}, reports.get(4).data);
+        assertArrayEquals(new byte[8], reports.get(5).data);
+        assertEquals(0, pipeline.getLaneSize(ReportPipeline.LANE_RELEASE));
+        assertEquals(0, pipeline.getLaneSize(ReportPipeline.LANE_PRESS));
+
+        // clearing the queue drops the queued release but not its effect
+        mTransport.reset();
+        pipeline.sendKey(KeyEvent.KEYCODE_F, true);
+        pipeline.sendKey(KeyEvent.KEYCODE_G, true);
+        pipeline.sendKey(KeyEvent.KEYCODE_G, false);
+        pipeline.clear();
+        assertEquals(0, pipeline.getQueueSize());
+        while (mTransport.confirm()) {
+            // drain the state reports
+        }
+
+        reports = mTransport.getReports();
+        assertEquals(4, reports.size());
+        assertEquals(KeyManager.REPORT_ID, reports.get(1).reportId);
+        assertArrayEquals(new byte[]{0, 0, HidUsage.KEY_F, 0, 0, 0, 0, 0}, reports.get(1).data);
+        assertEquals(ConsumerControl.REPORT_ID, reports.get(2).reportId);
+        assertEquals(PointerMotion.REPORT_ID, reports.get(3).reportId);
+    }
+
+    @Test
+    public void backedUpQueue_shedsRepeatsBeforePresses() {
+        ReportPipeline pipeline = pipeline(16, 1);
+
+        // presses may take twelve slots, repeats six
+        int repeats = 0;
+        while (pipeline.sendButton(R.id.remote_numpad_5, true, 0, 0)) {
+            repeats++;
+        }
+        assertEquals(3, repeats);
+        assertEquals(1, pipeline.getDroppedCount(ReportPipeline.LANE_REPEAT));
+        assertEquals(5, pipeline.getLaneSize(ReportPipeline.LANE_REPEAT));
+        assertTrue(pipeline.sendButton(R.id.remote_numpad_5, false, 0, 0));
+        assertEquals(2, pipeline.getLaneSize(ReportPipeline.LANE_PRESS));
+
+        pipeline.setOverflowPolicy(ReportPipeline.OVERFLOW_REJECT);
+        assertTrue(pipeline.sendButton(R.id.remote_numpad_5, true, 0, 0));
+        assertEquals(0, pipeline.getDroppedCount(ReportPipeline.LANE_PRESS));
+    }
+
+    @Test
+    public void stalledLink_dropsExpiredTapsAndSendsTheState() {
+        ReportPipeline pipeline = pipeline(32, 1);
+        long stalledNanos = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(ReportPipeline.DEFAULT_TAP_TTL_MS);
+
+        assertTrue(pipeline.sendButton(R.id.remote_numpad_5, 0, 0));
+        pipeline.sendKey(KeyEvent.KEYCODE_SHIFT_LEFT, true);
+        // taps that waited out their time to live behind the stalled link
+        assertTrue(pipeline.sendButton(R.id.remote_button_guide, stalledNanos, 0));
+        assertTrue(pipeline.sendButton(R.id.remote_button_play, stalledNanos, 0));
+        assertTrue(pipeline.sendButton(R.id.remote_button_play, true, stalledNanos, 0));
+        while (mTransport.confirm()) {
+            // drain the queue
+        }
+
+        List<LoopbackHidTransport.Report> reports = mTransport.getReports();
+        assertEquals(5, reports.size());
+        assertArrayEquals(new byte[]{HidUsage.MODIFIER_LEFT_SHIFT, 0, 0, 0, 0, 0, 0, 0}, reports.get(2).data);
+        // the state after the dropped reports, once for each report they belonged to
+        assertEquals(KeyManager.REPORT_ID, reports.get(3).reportId);
+        assertArrayEquals(new byte[]{HidUsage.MODIFIER_LEFT_SHIFT, 0, 0, 0, 0, 0, 0, 0}, reports.get(3).data);
+        assertEquals(ConsumerControl.REPORT_ID, reports.get(4).reportId);
+        assertArrayEquals(new byte[2], reports.get(4).data);
+        assertEquals(4, pipeline.getExpiredCount(ReportPipeline.LANE_PRESS));
+        assertEquals(2, pipeline.getExpiredCount(ReportPipeline.LANE_REPEAT));
+    }
+
+    @Test
+    public void unchangedState_queuesNoReport() {
+        ReportPipeline pipeline = pipeline(4, 1);
+
+        assertTrue(pipeline.sendKey(KeyEvent.KEYCODE_A, false));
+        assertTrue(pipeline.sendKey(KeyEvent.KEYCODE_SHIFT_LEFT, true));
+        assertTrue(pipeline.sendKey(KeyEvent.KEYCODE_SHIFT_LEFT, true));
+        assertTrue(pipeline.sendKey(KeyEvent.KEYCODE_VOLUME_UP, false));
+        assertEquals(3, pipeline.getSuppressedCount());
+        assertEquals(1, mTransport.getSentCount());
+
+        // after a report the key manager did not build the host needs the state again
+        assertTrue(pipeline.sendReport(KeyManager.REPORT_ID, new byte[8], 0, 8));
+        assertTrue(pipeline.sendKey(KeyEvent.KEYCODE_SHIFT_LEFT, true));
+        assertTrue(pipeline.sendKey(KeyEvent.KEYCODE_SHIFT_LEFT, true));
+        while (mTransport.confirm()) {
+            // drain the queue
+        }
+
+        List<LoopbackHidTransport.Report> reports = mTransport.getReports();
+        assertEquals(3, reports.size());
+        assertArrayEquals(new byte[]{HidUsage.MODIFIER_LEFT_SHIFT, 0, 0, 0, 0, 0, 0, 0}, reports.get(2).data);
+        assertEquals(4, pipeline.getSuppressedCount());
+    }
+
+    @Test
+    public void heldButton_isOnePressAndOneRelease() {
+        ReportPipeline pipeline = pipeline(16, 4);
+        int[] keyCodes = {KeyEvent.KEYCODE_CTRL_LEFT, KeyEvent.KEYCODE_DPAD_UP};
+
+        assertTrue(pipeline.sendKeys(keyCodes, true, 0, 0));
+        assertTrue(pipeline.sendKeys(keyCodes, false, 0, 0));
+
+        List<LoopbackHidTransport.Report> reports = mTransport.getReports();
+        assertEquals(2, reports.size());
+        assertArrayEquals(new byte[]{HidUsage.MODIFIER_LEFT_CTRL, 0, HidUsage.KEY_UP_ARROW, 0, 0, 0, 0, 0}, reports.get(0).data);
+        assertArrayEquals(new byte[8], reports.get(1).data);
+    }
+
+    @Test
+    public void consumerKeys_useTheirOwnReport() {
+        ReportPipeline pipeline = pipeline(16, 4);
+
+        pipeline.sendKey(KeyEvent.KEYCODE_VOLUME_UP, true);
+        pipeline.sendKey(KeyEvent.KEYCODE_VOLUME_UP, false);
+        assertTrue(pipeline.sendButton(R.id.remote_button_play, 0, 0));
+        assertTrue(pipeline.sendButton(R.id.remote_button_guide, 0, 0));
+        while (mTransport.confirm()) {
+            // drain the queue
+        }
+
+        List<LoopbackHidTransport.Report> reports = mTransport.getReports();
+        assertEquals(6, reports.size());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(ConsumerControl.REPORT_ID, reports.get(i).reportId);
+        }
+        assertArrayEquals(new byte[]{(byte) ConsumerUsage.VOLUME_INCREMENT, 0}, reports.get(0).data);
+        assertArrayEquals(new byte[2], reports.get(1).data);
+        assertArrayEquals(new byte[]{(byte) ConsumerUsage.PLAY_PAUSE, 0}, reports.get(2).data);
+        assertArrayEquals(new byte[2], reports.get(3).data);
+        assertEquals(KeyManager.REPORT_ID, reports.get(4).reportId);
+        assertArrayEquals(new byte[]{HidUsage.MODIFIER_LEFT_CTRL, 0, HidUsage.KEY_G, 0, 0, 0, 0, 0}, reports.get(4).data);
+    }
+
+    @Test
+    public void text_sharesShiftAndOverlapsKeys() {
+        ReportPipeline pipeline = pipeline(64, 64);
+        List<Integer> progress = new ArrayList<>();
+        boolean[] completed = new boolean[1];
+
+        new TextInjector(pipeline, "Hi ll", 4, new TextInjector.Listener() {
+            @Override
+            public void onProgress(int characters) {
+                progress.add(characters);
+            }
+
+            @Override
+            public void onFinished(int characters, boolean done) {
+                completed[0] = done && characters == 5;
+            }
+        }).run();
+
+        List<LoopbackHidTransport.Report> reports = mTransport.getReports();
+        byte shift = HidUsage.MODIFIER_LEFT_SHIFT;
+        byte[][] expected = {
+                {shift, 0, 0, 0, 0, 0, 0, 0},
+                {shift, 0, HidUsage.KEY_H, 0, 0, 0, 0, 0},
+                {0, 0, 0, 0, 0, 0, 0, 0},
+                {0, 0, HidUsage.KEY_I, 0, 0, 0, 0, 0},
+                {0, 0, HidUsage.KEY_I, HidUsage.KEY_SPACE, 0, 0, 0, 0},
+                {0, 0, HidUsage.KEY_L, HidUsage.KEY_SPACE, 0, 0, 0, 0},
+                {0, 0, HidUsage.KEY_SPACE, 0, 0, 0, 0, 0},
+                {0, 0, HidUsage.KEY_L, HidUsage.KEY_SPACE, 0, 0, 0, 0},
+                {0, 0, 0, 0, 0, 0, 0, 0},
+        };
+        assertEquals(expected.length, reports.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertArrayEquals(expected[i], reports.get(i).data);
+        }
+        assertEquals(Arrays.asList(1, 2, 3, 4, 5), progress);
+        assertTrue(completed[0]);
+    }
+
+    @Test
+    public void text_isWokenUpAsTheQueueDrains() throws InterruptedException {
+        ReportPipeline pipeline = pipeline(16, 1);
+        TextInjector textInjector = new TextInjector(pipeline, "abcdefgh", 1, null);
+        Thread thread = new Thread(textInjector);
+        thread.setDaemon(true);
+        long start = System.nanoTime();
+        thread.start();
+
+        int waits = 0;
+        boolean parked = false;
+        while (!textInjector.isFinished()) {
+            // parked on the sender rather than polling the queue
+            boolean blocked = LockSupport.getBlocker(thread) != null;
+            if (blocked && !parked) {
+                waits++;
+            }
+            parked = blocked;
+            mTransport.confirm();
+            Thread.yield();
+        }
+        thread.join(1000);
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertTrue(waits > 0);
+        // waking up on the 100 ms backstop instead would take this long
+        assertTrue(elapsedMs + " ms for " + waits + " waits", elapsedMs < waits * 100L);
+        while (mTransport.confirm()) {
+            // let the rest through
+        }
+        List<LoopbackHidTransport.Report> reports = mTransport.getReports();
+        assertArrayEquals(new byte[KeyManager.REPORT_SIZE], reports.get(reports.size() - 1).data);
+    }
+
+    @Test
+    public void router_slowHostDoesNotHoldUpOthers() {
+        LoopbackHidTransport slow = new LoopbackHidTransport();
+        ReportRouter router = new ReportRouter();
+        router.add("00:00:00:00:00:01", new ReportPipeline(new KeyManager(), 16, 1, 1000,
+                Runnable::run, null, slow, mLatency));
+        router.add("00:00:00:00:00:02", pipeline(16, 1));
+
+        for (int i = 0; i < 4; i++) {
+            assertTrue(router.sendChord(new int[]{KeyEvent.KEYCODE_A}, 0, 0));
+            // only the fast host confirms
+            while (mTransport.confirm()) {
+                // drain the queue
+            }
+        }
+        assertEquals(8, mTransport.getReports().size());
+        assertEquals(1, slow.getReports().size());
+
+        // route to one host
+        router.setTarget("00:00:00:00:00:01");
+        router.sendKey(KeyEvent.KEYCODE_B, true, 0, 0);
+        assertEquals(8, mTransport.getReports().size());
+        assertEquals(8, router.get("00:00:00:00:00:01").pipeline.getQueueSize());
+        router.remove("00:00:00:00:00:01");
+        assertEquals(1, router.hosts().length);
+    }
+
+    @Test
+    public void nkroMode_sendsBitmapReports() {
+        ReportPipeline pipeline = pipeline(16, 4);
+        pipeline.getKeyManager().setReportMode(KeyManager.REPORT_MODE_NKRO);
+
+        for (int keyCode = KeyEvent.KEYCODE_A; keyCode <= KeyEvent.KEYCODE_H; keyCode++) {
+            pipeline.sendKey(keyCode, true);
+        }
+        while (mTransport.confirm()) {
+            // let the whole burst through
+        }
+
+        List<LoopbackHidTransport.Report> reports = mTransport.getReports();
+        byte[] last = reports.get(reports.size() - 1).data;
+        assertEquals(KeyManager.NKRO_REPORT_SIZE, last.length);
+        // usages 0x04-0x0B
+        assertEquals((byte) 0xF0, last[1]);
+        assertEquals((byte) 0x0F, last[2]);
+    }
+
+    @Test
+    public void latency_recordsEveryStage() {
+        ReportPipeline pipeline = pipeline(16, 1);
+        long touchNanos = System.nanoTime() - 5_000_000;
+
+        pipeline.sendKey(KeyEvent.KEYCODE_1, true, touchNanos, System.nanoTime());
+        pipeline.sendKey(KeyEvent.KEYCODE_1, false, touchNanos, System.nanoTime());
+        while (mTransport.confirm()) {
+            // confirm both notifications
+        }
+
+        assertEquals(2, mLatency.getHistogram(InputLatency.STAGE_SUBMIT_TO_ENQUEUE).getCount());
+        assertEquals(2, mLatency.getHistogram(InputLatency.STAGE_ENQUEUE_TO_NOTIFY).getCount());
+        assertEquals(2, mLatency.getHistogram(InputLatency.STAGE_NOTIFY_TO_CONFIRM).getCount());
+        LatencyHistogram total = mLatency.getHistogram(InputLatency.STAGE_TOTAL);
+        assertEquals(2, total.getCount());
+        assertTrue(total.getPercentile(50) >= 5_000_000);
+        assertTrue(total.getPercentile(50) <= total.getMax());
+    }
+
+    @Test
+    public void pointer_motionIsCoalescedWhileTheLinkIsBusy() {
+        ReportPipeline pipeline = pipeline(16, 1);
+
+        pipeline.movePointer(3, -2, 0, 0);
+        for (int i = 0; i < 50; i++) {
+            pipeline.movePointer(5, 1, 0, 0);
+        }
+        pipeline.sendPointerButtons(PointerMotion.BUTTON_PRIMARY, 0, 0);
+        pipeline.movePointer(1, 1, 0, 0);
+        assertEquals(1, pipeline.getQueueSize());
+        while (mTransport.confirm()) {
+            // one report per confirmation
+        }
+
+        List<LoopbackHidTransport.Report> reports = mTransport.getReports();
+        // the first move went out right away, the other 51 moves are split by the 8-bit range
+        // between the button report and one motion report sent when the link was free again
+        assertEquals(3, reports.size());
+        assertEquals(PointerMotion.REPORT_ID, reports.get(0).reportId);
+        assertArrayEquals(new byte[]{0, 3, -2, 0}, reports.get(0).data);
+        assertArrayEquals(new byte[]{1, 127, 50, 0}, reports.get(1).data);
+        assertArrayEquals(new byte[]{1, 124, 1, 0}, reports.get(2).data);
+    }
+
+    @Test
+    public void latency_recordsTimeToFirstReportOnce() {
+        ReportPipeline pipeline = pipeline(16, 1);
+        mLatency.markStart(System.nanoTime() - 5_000_000);
+
+        pipeline.sendKey(KeyEvent.KEYCODE_1, true, 0, 0);
+        pipeline.sendKey(KeyEvent.KEYCODE_1, false, 0, 0);
+        while (mTransport.confirm()) {
+            // confirm both notifications
+        }
+
+        LatencyHistogram firstReport = mLatency.getHistogram(InputLatency.STAGE_START_TO_FIRST_REPORT);
+        assertEquals(1, firstReport.getCount());
+        assertTrue(firstReport.getMax() >= 5_000_000);
+    }
+}
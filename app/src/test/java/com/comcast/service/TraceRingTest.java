@@ -0,0 +1,82 @@
+/*
+ * If not stated otherwise in this file or this component's Licenses.txt file the
+ * following copyright and licenses apply:
+ *
+ * Copyright 2016 RDK Management
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.service;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Maps the flight recorder into temporary files and checks what a later run reads back.
+ *
+ * @version 1.0.0
+ */
+public class TraceRingTest {
+
+    @Test
+    public void traceRing_keepsNewestRecordsAcrossRuns() throws IOException {
+        File file = File.createTempFile("hid-trace", ".bin");
+        file.deleteOnExit();
+        TraceRing traceRing = TraceRing.map(file, 4);
+        for (int i = 0; i < 5; i++) {
+            traceRing.record(TraceRing.EVENT_REPORT, KeyManager.REPORT_ID, new byte[]{(byte) i, 0}, 0, 2);
+        }
+        // the next run continues behind the records of this one
+        TraceRing.map(file, 4).record(TraceRing.EVENT_NOTIFICATION_SENT, 0);
+
+        String[] lines = dump(TraceRing.map(file, 4));
+        assertEquals(4, lines.length);
+        assertTrue(lines[0].trim().startsWith("6 ") && lines[0].endsWith("0400"));
+        assertTrue(lines[1].contains("START"));
+        assertTrue(lines[2].contains("SENT"));
+        assertTrue(lines[3].trim().startsWith("9 ") && lines[3].contains("START"));
+    }
+
+    @Test
+    public void traceRing_resetsWhenTheCapacityChanges() throws IOException {
+        File file = File.createTempFile("hid-trace", ".bin");
+        file.deleteOnExit();
+        TraceRing traceRing = TraceRing.map(file, 4);
+        for (int i = 0; i < 3; i++) {
+            traceRing.record(TraceRing.EVENT_REPORT, KeyManager.REPORT_ID, new byte[]{(byte) i, 0}, 0, 2);
+        }
+
+        // a different layout must not read the old slots as records
+        String[] lines = dump(TraceRing.map(file, 8));
+        assertEquals(1, lines.length);
+        assertTrue(lines[0].trim().startsWith("1 ") && lines[0].contains("START"));
+
+        lines = dump(TraceRing.map(file, 4));
+        assertEquals(1, lines.length);
+        assertTrue(lines[0].trim().startsWith("1 ") && lines[0].contains("START"));
+    }
+
+    private static String[] dump(TraceRing traceRing) {
+        StringWriter dump = new StringWriter();
+        traceRing.dump(new PrintWriter(dump));
+        return dump.toString().trim().split("\\R");
+    }
+}
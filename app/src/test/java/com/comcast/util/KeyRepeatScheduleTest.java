@@ -0,0 +1,55 @@
+/*
+ * If not stated otherwise in this file or this component's Licenses.txt file the
+ * following copyright and licenses apply:
+ *
+ * Copyright 2016 RDK Management
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.comcast.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the accelerating, drift-free key repeat times.
+ *
+ * @version 1.0.0
+ */
+public class KeyRepeatScheduleTest {
+
+    @Test
+    public void repeats_accelerateWithoutDrift() {
+        KeyRepeatSchedule schedule = new KeyRepeatSchedule(400, 200, 40, 1000);
+
+        assertEquals(1400, schedule.start(1000));
+        // a late callback does not push the following repeats back
+        assertEquals(1600, schedule.advance(1450));
+        assertEquals(1768, schedule.advance(1600));
+        // fully accelerated
+        assertEquals(40, schedule.getInterval(1000));
+        assertEquals(40, schedule.getInterval(5000));
+    }
+
+    @Test
+    public void missedRepeats_areSkipped() {
+        KeyRepeatSchedule schedule = new KeyRepeatSchedule(0, 100, 100, 0);
+
+        schedule.start(0);
+        assertEquals(600, schedule.advance(550));
+        assertEquals(600, schedule.getNextRepeatTime());
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * If not stated otherwise in this file or this component's Licenses.txt file the
+ * following copyright and licenses apply:
+ *
+ * Copyright 2016 RDK Management
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.service;
+
+import com.comcast.R;
+import com.comcast.constant.KeyLayoutMap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures the button id to key code lookup in {@link KeyLayoutMap}.
+ *
+ * @version 1.0.0
+ */
+@State(Scope.Thread)
+public class KeyLayoutMapBenchmark {
+
+    // single key, two key chord and dpad buttons of the Xi5 layout
+    private static final int[] BUTTON_IDS = {
+            R.id.remote_numpad_1, R.id.remote_numpad_7, R.id.remote_dpad_up, R.id.remote_dpad_circle,
+            R.id.remote_button_guide, R.id.remote_button_exit, R.id.remote_button_ch_up, R.id.remote_dpad_a
+    };
+
+    private int mIndex;
+
+    @Benchmark
+    public Object getKeyCode() {
+        mIndex = (mIndex + 1) & (BUTTON_IDS.length - 1);
+        return KeyLayoutMap.getKeyCode(BUTTON_IDS[mIndex]);
+    }
+}
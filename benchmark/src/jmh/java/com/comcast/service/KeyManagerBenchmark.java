@@ -0,0 +1,80 @@
+/*
+ * If not stated otherwise in this file or this component's Licenses.txt file the
+ * following copyright and licenses apply:
+ *
+ * Copyright 2016 RDK Management
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.service;
+
+import android.view.KeyEvent;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures the key state update and report build in {@link KeyManager}.
+ *
+ * @version 1.0.0
+ */
+@State(Scope.Thread)
+public class KeyManagerBenchmark {
+
+    // a mix of digits, letters, navigation and modifier keys as sent by the remote
+    static final int[] KEY_CODES = {
+            KeyEvent.KEYCODE_0, KeyEvent.KEYCODE_5, KeyEvent.KEYCODE_9,
+            KeyEvent.KEYCODE_G, KeyEvent.KEYCODE_M, KeyEvent.KEYCODE_Z,
+            KeyEvent.KEYCODE_DPAD_UP, KeyEvent.KEYCODE_DPAD_CENTER, KeyEvent.KEYCODE_ENTER,
+            KeyEvent.KEYCODE_PAGE_DOWN, KeyEvent.KEYCODE_CTRL_LEFT, KeyEvent.KEYCODE_SHIFT_LEFT,
+            KeyEvent.KEYCODE_MEDIA_PLAY_PAUSE, KeyEvent.KEYCODE_VOLUME_MUTE,
+            KeyEvent.KEYCODE_SYSTEM_NAVIGATION_UP, KeyEvent.KEYCODE_F5
+    };
+
+    @Param({"0", "1"})
+    public int reportMode;
+
+    private KeyManager mKeyManager;
+    private byte[] mReport;
+    private int mIndex;
+
+    @Setup
+    public void setUp() {
+        mKeyManager = new KeyManager();
+        mKeyManager.setReportMode(reportMode);
+        mReport = new byte[KeyManager.MAX_REPORT_SIZE];
+    }
+
+    private int nextKeyCode() {
+        mIndex = (mIndex + 1) & (KEY_CODES.length - 1);
+        return KEY_CODES[mIndex];
+    }
+
+    @Benchmark
+    public int pressBuildRelease() {
+        int keyCode = nextKeyCode();
+        mKeyManager.press(keyCode);
+        int length = mKeyManager.build(mReport, 0);
+        mKeyManager.release(keyCode);
+        return length + mKeyManager.build(mReport, 0);
+    }
+
+    @Benchmark
+    public byte[] buildAllocating() {
+        return mKeyManager.build();
+    }
+}
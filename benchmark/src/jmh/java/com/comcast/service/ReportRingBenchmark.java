@@ -0,0 +1,82 @@
+/*
+ * If not stated otherwise in this file or this component's Licenses.txt file the
+ * following copyright and licenses apply:
+ *
+ * Copyright 2016 RDK Management
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures report queue operations with several producers contending for slots
+ * while a single sender drains the queue.
+ *
+ * @version 1.0.0
+ */
+@State(Scope.Group)
+public class ReportRingBenchmark {
+
+    private ReportRing mRing;
+
+    @Setup
+    public void setUp() {
+        mRing = new ReportRing(256, KeyManager.MAX_REPORT_SIZE);
+    }
+
+    /**
+     * Per thread report buffer
+     */
+    @State(Scope.Thread)
+    public static class Producer {
+        final byte[] report = new byte[KeyManager.REPORT_SIZE];
+    }
+
+    /**
+     * Per thread copy target
+     */
+    @State(Scope.Thread)
+    public static class Consumer {
+        final byte[] report = new byte[KeyManager.MAX_REPORT_SIZE];
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(3)
+    public boolean enqueue(Producer producer) {
+        producer.report[2]++;
+        return mRing.offer(producer.report, 0, producer.report.length);
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(1)
+    public int dequeue(Consumer consumer) {
+        long position = mRing.acquire();
+        if (position < 0) {
+            return -1;
+        }
+        int length = mRing.length(position);
+        System.arraycopy(mRing.buffer(), mRing.offset(position), consumer.report, 0, length);
+        mRing.release(position);
+        return length;
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * If not stated otherwise in this file or this component's Licenses.txt file the
+ * following copyright and licenses apply:
+ *
+ * Copyright 2016 RDK Management
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.service;
+
+import com.comcast.R;
+import com.comcast.constant.KeyLayoutMap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures a button tap the way HerculesApp.sendKeyForView submits it, through the report
+ * queue to a loopback transport that confirms every notification right away: copying the
+ * precompiled button reports, and building the same chord from its key codes.
+ *
+ * @version 1.0.0
+ */
+@State(Scope.Thread)
+public class SendKeyForViewBenchmark {
+
+    @Param({"remote_numpad_5", "remote_button_guide"})
+    public String button;
+
+    private ReportPipeline mPipeline;
+    private int mButtonId;
+    private int[] mKeyCodes;
+
+    @Setup
+    public void setUp() throws Exception {
+        mButtonId = R.id.class.getField(button).getInt(null);
+        mKeyCodes = KeyLayoutMap.getKeyCode(mButtonId);
+        LoopbackHidTransport transport = new LoopbackHidTransport(Runnable::run, false);
+        mPipeline = new ReportPipeline(new KeyManager(), 256, 2, 250, Runnable::run, null, transport,
+                new InputLatency());
+    }
+
+    @Benchmark
+    public boolean sendButton() {
+        return mPipeline.sendButton(mButtonId, 0, System.nanoTime());
+    }
+
+    @Benchmark
+    public boolean sendChord() {
+        return mPipeline.sendChord(mKeyCodes, 0, System.nanoTime());
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * If not stated otherwise in this file or this component's Licenses.txt file the
+ * following copyright and licenses apply:
+ *
+ * Copyright 2016 RDK Management
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures the Android key code to HID usage and modifier lookups.
+ *
+ * @version 1.0.0
+ */
+@State(Scope.Thread)
+public class TranslationBenchmark {
+
+    private int mIndex;
+
+    private int nextKeyCode() {
+        mIndex = (mIndex + 1) & (KeyManagerBenchmark.KEY_CODES.length - 1);
+        return KeyManagerBenchmark.KEY_CODES[mIndex];
+    }
+
+    @Benchmark
+    public int translateUsage() {
+        return KeyManager.getHIDKeyboardCode(nextKeyCode());
+    }
+
+    @Benchmark
+    public int translateModifier() {
+        return KeyManager.getHIDKeyModifierCode(nextKeyCode());
+    }
+}